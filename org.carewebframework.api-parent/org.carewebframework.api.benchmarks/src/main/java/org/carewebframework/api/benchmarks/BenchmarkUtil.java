@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.benchmarks;
+
+import org.carewebframework.api.event.IGenericEvent;
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.Recipient;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+public final class BenchmarkUtil {
+    
+    /**
+     * Event subscriber that counts the events it receives.
+     */
+    public static class CountingSubscriber implements IGenericEvent<Object> {
+        
+        public long count;
+        
+        @Override
+        public void eventCallback(String eventName, Object eventData) {
+            count++;
+        }
+    }
+    
+    /**
+     * Message callback that counts the messages it receives.
+     */
+    public static class CountingCallback implements IMessageCallback {
+        
+        public long count;
+        
+        @Override
+        public void onMessage(String channel, Message message) {
+            count++;
+        }
+    }
+    
+    /**
+     * Returns a hierarchical event name with the specified number of levels (e.g., "LEVEL1.LEVEL2").
+     * 
+     * @param depth The number of levels.
+     * @return The event name.
+     */
+    public static String getEventName(int depth) {
+        StringBuilder sb = new StringBuilder();
+        
+        for (int i = 1; i <= depth; i++) {
+            sb.append(i == 1 ? "" : ".").append("LEVEL").append(i);
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Returns a list of user recipients.
+     * 
+     * @param count The number of recipients.
+     * @return The recipients.
+     */
+    public static Recipient[] getRecipients(int count) {
+        Recipient[] recipients = new Recipient[count];
+        
+        for (int i = 0; i < count; i++) {
+            recipients[i] = new Recipient(RecipientType.USER, "user" + i);
+        }
+        
+        return recipients;
+    }
+    
+    private BenchmarkUtil() {
+    }
+    
+}
@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.carewebframework.api.benchmarks.BenchmarkUtil.CountingCallback;
+import org.carewebframework.api.messaging.ConsumerService;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.SimpleConsumerProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures receipt of a message by the consumer service: recipient filtering, de-duplication
+ * (active only when more than one consumer is registered) and dispatch to callbacks. Each message
+ * carries a new publication id, so that none is discarded as a duplicate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumerServiceBenchmark {
+    
+    private static final String CHANNEL = "cwf-event-BENCHMARK";
+    
+    private static final int IDS = 1 << 16;
+    
+    @Param({ "1", "2" })
+    public int consumers;
+    
+    @Param({ "1", "10", "100" })
+    public int subscribers;
+    
+    private ConsumerService consumerService;
+    
+    private Message message;
+    
+    private final String[] ids = new String[IDS];
+    
+    private int next;
+    
+    @Setup
+    public void setup() {
+        consumerService = new ConsumerService();
+        consumerService.setDispatchStripes(0);
+        
+        for (int i = 0; i < consumers; i++) {
+            consumerService.registerConsumer(new SimpleConsumerProducer());
+        }
+        
+        for (int i = 0; i < subscribers; i++) {
+            consumerService.subscribe(CHANNEL, new CountingCallback());
+        }
+        
+        for (int i = 0; i < IDS; i++) {
+            ids[i] = UUID.randomUUID().toString();
+        }
+        
+        message = new Message("test", "payload");
+        message.setMetadata("cwf.pub.channel", CHANNEL);
+    }
+    
+    @Benchmark
+    public void onMessage() {
+        message.setMetadata("cwf.pub.event", ids[next++ & (IDS - 1)]);
+        consumerService.onMessage(CHANNEL, message);
+    }
+    
+}
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.MessageUtil;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures testing a message's recipient list for a matching and a non-matching recipient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageUtilBenchmark {
+    
+    @Param({ "0", "10", "100" })
+    public int recipients;
+    
+    private Message message;
+    
+    private String included;
+    
+    @Setup
+    public void setup() {
+        message = new Message("test", "payload");
+        message.setMetadata(Message.RECIPIENTS_METADATA, BenchmarkUtil.getRecipients(recipients));
+        included = "user" + Math.max(0, recipients - 1);
+    }
+    
+    @Benchmark
+    public boolean isMessageIncluded() {
+        return MessageUtil.isMessageExcluded(message, RecipientType.USER, included);
+    }
+    
+    @Benchmark
+    public boolean isMessageExcluded() {
+        return MessageUtil.isMessageExcluded(message, RecipientType.USER, "other");
+    }
+    
+}
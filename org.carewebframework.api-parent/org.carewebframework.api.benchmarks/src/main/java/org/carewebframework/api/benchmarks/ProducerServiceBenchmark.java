@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.carewebframework.api.benchmarks.BenchmarkUtil.CountingCallback;
+import org.carewebframework.api.messaging.ConsumerService;
+import org.carewebframework.api.messaging.IMessageConsumer;
+import org.carewebframework.api.messaging.IMessageProducer;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.ProducerService;
+import org.carewebframework.api.messaging.Recipient;
+import org.carewebframework.api.messaging.RingBufferConsumerProducer;
+import org.carewebframework.api.messaging.SimpleConsumerProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures publication of a message through the producer service to a consumer service over an
+ * in-process transport. The prepare benchmark publishes with no registered producers, isolating
+ * the cost of preparing the message for publication.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProducerServiceBenchmark {
+    
+    private static final String CHANNEL = "cwf-event-BENCHMARK";
+    
+    @Param({ "0", "10", "100" })
+    public int recipients;
+    
+    @Param({ "simple", "ring" })
+    public String transport;
+    
+    private ProducerService producerService;
+    
+    private ProducerService prepareService;
+    
+    private Object transportBean;
+    
+    private Recipient[] recipientList;
+    
+    @Setup
+    public void setup() {
+        transportBean = "ring".equals(transport) ? new RingBufferConsumerProducer() : new SimpleConsumerProducer();
+        ConsumerService consumerService = new ConsumerService();
+        consumerService.setDispatchStripes(0);
+        consumerService.registerConsumer((IMessageConsumer) transportBean);
+        consumerService.subscribe(CHANNEL, new CountingCallback());
+        producerService = new ProducerService();
+        producerService.registerProducer((IMessageProducer) transportBean);
+        prepareService = new ProducerService();
+        recipientList = BenchmarkUtil.getRecipients(recipients);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        if (transportBean instanceof RingBufferConsumerProducer) {
+            ((RingBufferConsumerProducer) transportBean).destroy();
+        }
+    }
+    
+    @Benchmark
+    public boolean publish() {
+        return producerService.publish(CHANNEL, new Message("test", "payload"), recipientList);
+    }
+    
+    @Benchmark
+    public boolean prepare() {
+        return prepareService.publish(CHANNEL, new Message("test", "payload"), recipientList);
+    }
+    
+}
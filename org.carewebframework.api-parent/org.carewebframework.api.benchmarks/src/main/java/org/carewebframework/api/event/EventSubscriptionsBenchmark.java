@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.concurrent.TimeUnit;
+
+import org.carewebframework.api.benchmarks.BenchmarkUtil;
+import org.carewebframework.api.benchmarks.BenchmarkUtil.CountingSubscriber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures delivery of an event to subscribers spread across the levels of its hierarchy. Resides
+ * in the event package because the subscription registry is not public.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventSubscriptionsBenchmark {
+    
+    @Param({ "1", "10", "100" })
+    public int subscribers;
+    
+    @Param({ "1", "3", "6" })
+    public int depth;
+    
+    private EventSubscriptions<Object> subscriptions;
+    
+    private String eventName;
+    
+    @Setup
+    public void setup() {
+        subscriptions = new EventSubscriptions<>();
+        eventName = BenchmarkUtil.getEventName(depth);
+        
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions.addSubscriber(BenchmarkUtil.getEventName(1 + i % depth), new CountingSubscriber());
+        }
+    }
+    
+    @Benchmark
+    public int invokeCallbacks() {
+        return subscriptions.invokeCallbacks(eventName, eventName);
+    }
+    
+}
@@ -0,0 +1,285 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.carewebframework.common.MiscUtil;
+
+/**
+ * Encodes event data composed of strings, numbers, booleans, dates, byte arrays, lists and maps
+ * into a compact, tagged binary form. Lists are decoded as array lists and maps as linked hash maps.
+ * To guard against malicious input, lengths are checked against the remaining data and nesting is
+ * limited to a maximum depth when decoding.
+ */
+public class BinaryEventCodec implements IEventCodec {
+    
+    public static final String NAME = "binary";
+    
+    private static final int VERSION = 1;
+    
+    private static final int MAX_DEPTH = 32;
+    
+    // @formatter:off
+    private static final byte
+        TAG_NULL = 0,
+        TAG_STRING = 1,
+        TAG_INTEGER = 2,
+        TAG_LONG = 3,
+        TAG_DOUBLE = 4,
+        TAG_FLOAT = 5,
+        TAG_BOOLEAN = 6,
+        TAG_DATE = 7,
+        TAG_BYTES = 8,
+        TAG_LIST = 9,
+        TAG_MAP = 10;
+    // @formatter:on
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    @Override
+    public boolean canEncode(Object eventData) {
+        return canEncode(eventData, 0);
+    }
+    
+    private boolean canEncode(Object value, int depth) {
+        if (depth > MAX_DEPTH) {
+            return false;
+        }
+        
+        if (value == null || value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Float || value instanceof Boolean
+                || value instanceof Date || value instanceof byte[]) {
+            return true;
+        }
+        
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (!canEncode(element, depth + 1)) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!canEncode(entry.getKey(), depth + 1) || !canEncode(entry.getValue(), depth + 1)) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        return false;
+    }
+    
+    @Override
+    public Serializable encode(Object eventData) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            write(out, eventData);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+    }
+    
+    @Override
+    public Object decode(Serializable encoded) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream((byte[]) encoded));
+            int version = in.readByte();
+            
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary event codec version: " + version);
+            }
+            
+            return read(in, 0);
+        } catch (IOException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+    }
+    
+    private void write(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Date) {
+            out.writeByte(TAG_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(TAG_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            out.writeInt(list.size());
+            
+            for (Object element : list) {
+                write(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            out.writeInt(map.size());
+            
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else {
+            throw new IOException("Unsupported data type for binary event codec: " + value.getClass());
+        }
+    }
+    
+    private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private Object read(DataInputStream in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Binary event data exceeds maximum nesting depth of " + MAX_DEPTH);
+        }
+        
+        byte tag = in.readByte();
+        
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            
+            case TAG_STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            
+            case TAG_INTEGER:
+                return in.readInt();
+            
+            case TAG_LONG:
+                return in.readLong();
+            
+            case TAG_DOUBLE:
+                return in.readDouble();
+            
+            case TAG_FLOAT:
+                return in.readFloat();
+            
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            
+            case TAG_DATE:
+                return new Date(in.readLong());
+            
+            case TAG_BYTES:
+                return readBytes(in);
+            
+            case TAG_LIST:
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                
+                for (int i = 0; i < size; i++) {
+                    list.add(read(in, depth + 1));
+                }
+                
+                return list;
+            
+            case TAG_MAP:
+                int count = readLength(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                
+                for (int i = 0; i < count; i++) {
+                    map.put(read(in, depth + 1), read(in, depth + 1));
+                }
+                
+                return map;
+            
+            default:
+                throw new IOException("Unknown tag in binary event data: " + tag);
+        }
+    }
+    
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Reads a length, verifying that it is not negative and does not exceed the remaining data.
+     * Every list element, map entry or byte occupies at least one byte, so a valid length never
+     * exceeds it.
+     * 
+     * @param in The input stream.
+     * @return The length.
+     * @throws IOException If the length is invalid.
+     */
+    private int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length in binary event data: " + length);
+        }
+        
+        return length;
+    }
+    
+}
@@ -0,0 +1,281 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.carewebframework.api.thread.ThreadUtil;
+
+/**
+ * Merges bursts of identical events into a single notification. An event is coalescible if it, or
+ * one of its parent events, has been registered. The first occurrence of a coalescible event opens
+ * a time window; further occurrences of the same event within that window are merged into the
+ * pending notification, which is delivered to the target when the window closes. A window of zero
+ * merges only those occurrences fired before the delivery task gets to run.
+ */
+public class EventCoalescer {
+    
+    private static final Log log = LogFactory.getLog(EventCoalescer.class);
+    
+    /**
+     * Merger that retains the most recent event data.
+     */
+    public static final IEventMerger<Object> LAST_VALUE = new IEventMerger<Object>() {
+        
+        @Override
+        public Object merge(String eventName, Object pendingData, Object eventData) {
+            return eventData;
+        }
+        
+    };
+    
+    private static class Rule {
+        
+        private final long window;
+        
+        private final IEventMerger<Object> merger;
+        
+        Rule(long window, IEventMerger<Object> merger) {
+            this.window = window;
+            this.merger = merger == null ? LAST_VALUE : merger;
+        }
+    }
+    
+    private final IGenericEvent<Object> target;
+    
+    private ScheduledExecutorService scheduler;
+    
+    private final Map<String, Rule> rules = new ConcurrentHashMap<>();
+    
+    private final Map<String, Object> pending = new HashMap<>();
+    
+    /**
+     * Creates an event coalescer that uses the framework's task scheduler.
+     * 
+     * @param target Receives coalesced events.
+     */
+    public EventCoalescer(IGenericEvent<Object> target) {
+        this(target, null);
+    }
+    
+    /**
+     * Creates an event coalescer.
+     * 
+     * @param target Receives coalesced events.
+     * @param scheduler Schedules delivery of coalesced events. If null, the framework's task
+     *            scheduler is used.
+     */
+    public EventCoalescer(IGenericEvent<Object> target, ScheduledExecutorService scheduler) {
+        this.target = target;
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Returns the scheduler for delivering coalesced events.
+     * 
+     * @return The scheduler, or null if none is available (in which case events are not
+     *         coalesced).
+     */
+    private ScheduledExecutorService getScheduler() {
+        return scheduler == null ? scheduler = ThreadUtil.getTaskScheduler() : scheduler;
+    }
+    
+    /**
+     * Sets the scheduler for delivering coalesced events.
+     * 
+     * @param scheduler The scheduler. If null, the framework's task scheduler is used.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Registers an event (and its subevents) as coalescible, retaining the most recent event data.
+     * 
+     * @param eventName Name of the event.
+     * @param window The time window, in milliseconds.
+     */
+    public void register(String eventName, long window) {
+        register(eventName, window, null);
+    }
+    
+    /**
+     * Registers an event (and its subevents) as coalescible.
+     * 
+     * @param eventName Name of the event.
+     * @param window The time window, in milliseconds.
+     * @param merger Merges event data. If null, the most recent event data is retained.
+     */
+    @SuppressWarnings("unchecked")
+    public void register(String eventName, long window, IEventMerger<?> merger) {
+        rules.put(eventName, new Rule(window, (IEventMerger<Object>) merger));
+    }
+    
+    /**
+     * Removes a registration. Pending events are still delivered.
+     * 
+     * @param eventName Name of the event.
+     */
+    public void unregister(String eventName) {
+        rules.remove(eventName);
+    }
+    
+    /**
+     * Returns true if the event, or one of its parents, is registered as coalescible.
+     * 
+     * @param eventName Name of the event.
+     * @return True if the event is coalescible.
+     */
+    public boolean isCoalescible(String eventName) {
+        return findRule(eventName) != null;
+    }
+    
+    /**
+     * Submits an event for coalescing.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData The associated event data.
+     * @return True if the event was accepted. If false, the caller is responsible for delivering
+     *         the event.
+     */
+    public boolean coalesce(String eventName, Object eventData) {
+        Rule rule = findRule(eventName);
+        ScheduledExecutorService scheduler = rule == null ? null : getScheduler();
+        
+        if (scheduler == null) {
+            return false;
+        }
+        
+        synchronized (pending) {
+            if (pending.containsKey(eventName)) {
+                pending.put(eventName, rule.merger.merge(eventName, pending.get(eventName), eventData));
+                return true;
+            }
+            
+            pending.put(eventName, eventData);
+        }
+        
+        try {
+            scheduler.schedule(new Runnable() {
+                
+                @Override
+                public void run() {
+                    deliver(eventName);
+                }
+                
+            }, rule.window, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule coalesced event delivery for " + eventName);
+            deliver(eventName);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Immediately delivers all pending events.
+     */
+    public void flush() {
+        Map<String, Object> events;
+        
+        synchronized (pending) {
+            events = new HashMap<>(pending);
+            pending.clear();
+        }
+        
+        for (Map.Entry<String, Object> entry : events.entrySet()) {
+            deliverEvent(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Discards all pending events.
+     */
+    public void clear() {
+        synchronized (pending) {
+            pending.clear();
+        }
+    }
+    
+    /**
+     * Delivers a pending event, if it is still pending.
+     * 
+     * @param eventName Name of the event.
+     */
+    private void deliver(String eventName) {
+        Object eventData;
+        
+        synchronized (pending) {
+            if (!pending.containsKey(eventName)) {
+                return;
+            }
+            
+            eventData = pending.remove(eventName);
+        }
+        
+        deliverEvent(eventName, eventData);
+    }
+    
+    private void deliverEvent(String eventName, Object eventData) {
+        try {
+            target.eventCallback(eventName, eventData);
+        } catch (Throwable e) {
+            log.error("Error delivering coalesced event.", e);
+        }
+    }
+    
+    /**
+     * Returns the rule governing the event, searching parent events if necessary. The search
+     * follows the typed event name's cached parents, so no names are computed.
+     * 
+     * @param eventName Name of the event.
+     * @return The rule, or null if the event is not coalescible.
+     */
+    private Rule findRule(String eventName) {
+        if (rules.isEmpty() || StringUtils.isEmpty(eventName)) {
+            return null;
+        }
+        
+        for (EventName name = EventName.valueOf(eventName); name != null; name = name.getParent()) {
+            Rule rule = rules.get(name.getName());
+            
+            if (rule != null) {
+                return rule;
+            }
+        }
+            
+        return null;
+    }
+    
+}
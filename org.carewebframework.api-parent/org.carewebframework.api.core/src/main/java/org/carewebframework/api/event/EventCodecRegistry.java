@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.carewebframework.common.MiscUtil;
+
+/**
+ * Registry of codecs for remote event data. A codec may be assigned to an event (which also applies
+ * to its child events) or to a data type. When an event is fired remotely, a codec assigned to the
+ * event takes precedence over one assigned to the data type. If no codec applies, or the codec
+ * cannot encode the data, the data is transported using Java serialization.
+ */
+public class EventCodecRegistry {
+    
+    /**
+     * Metadata key for the name of the codec used to encode event data.
+     */
+    public static final String CODEC_METADATA = "cwf.event.codec";
+    
+    private final Map<String, IEventCodec> codecs = new ConcurrentHashMap<>();
+    
+    private final Map<String, IEventCodec> eventCodecs = new ConcurrentHashMap<>();
+    
+    private final Map<Class<?>, IEventCodec> typeCodecs = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a registry containing the standard codecs.
+     */
+    public EventCodecRegistry() {
+        register(new JSONEventCodec());
+        register(new BinaryEventCodec());
+        register(new RawEventCodec());
+    }
+    
+    /**
+     * Registers a codec, replacing any existing codec of the same name.
+     * 
+     * @param codec The codec to register.
+     */
+    public void register(IEventCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+    
+    /**
+     * Returns the codec with the specified name.
+     * 
+     * @param name The codec name.
+     * @return The codec, or null if not found.
+     */
+    public IEventCodec get(String name) {
+        return name == null ? null : codecs.get(name);
+    }
+    
+    /**
+     * Assigns a codec to an event and its child events.
+     * 
+     * @param eventName Name of the event.
+     * @param codecName Name of the codec, or null to remove the assignment.
+     */
+    public void mapEvent(String eventName, String codecName) {
+        if (codecName == null) {
+            eventCodecs.remove(eventName);
+        } else {
+            eventCodecs.put(eventName, getRequired(codecName));
+        }
+    }
+    
+    /**
+     * Assigns a codec to a data type and its subtypes.
+     * 
+     * @param type The data type.
+     * @param codecName Name of the codec, or null to remove the assignment.
+     */
+    public void mapType(Class<?> type, String codecName) {
+        if (codecName == null) {
+            typeCodecs.remove(type);
+        } else {
+            typeCodecs.put(type, getRequired(codecName));
+        }
+    }
+    
+    /**
+     * Assigns codecs to events. Each entry takes the form <code>event:codec</code>.
+     * 
+     * @param entries List of codec assignments.
+     */
+    public void setEventCodecs(String[] entries) {
+        for (String entry : entries) {
+            String[] pcs = split(entry);
+            
+            if (pcs != null) {
+                mapEvent(pcs[0], pcs[1]);
+            }
+        }
+    }
+    
+    /**
+     * Assigns codecs to data types. Each entry takes the form <code>class:codec</code>, where class
+     * is a fully qualified class name.
+     * 
+     * @param entries List of codec assignments.
+     */
+    public void setTypeCodecs(String[] entries) {
+        for (String entry : entries) {
+            String[] pcs = split(entry);
+            
+            if (pcs != null) {
+                try {
+                    mapType(Class.forName(pcs[0]), pcs[1]);
+                } catch (ClassNotFoundException e) {
+                    throw MiscUtil.toUnchecked(e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Selects the codec for encoding event data.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData The event data.
+     * @return The codec to use, or null if the data is to be transported using Java
+     *         serialization.
+     */
+    public IEventCodec select(String eventName, Object eventData) {
+        IEventCodec codec = null;
+        
+        if (!eventCodecs.isEmpty()) {
+            EventName name = EventName.valueOf(eventName);
+            
+            while (name != null && codec == null) {
+                codec = eventCodecs.get(name.getName());
+                name = name.getParent();
+            }
+        }
+        
+        if (codec == null && eventData != null && !typeCodecs.isEmpty()) {
+            codec = typeCodecs.get(eventData.getClass());
+            
+            if (codec == null) {
+                for (Map.Entry<Class<?>, IEventCodec> entry : typeCodecs.entrySet()) {
+                    if (entry.getKey().isInstance(eventData)) {
+                        codec = entry.getValue();
+                        break;
+                    }
+                }
+            }
+        }
+        
+        return codec != null && codec.canEncode(eventData) ? codec : null;
+    }
+    
+    private IEventCodec getRequired(String codecName) {
+        IEventCodec codec = codecs.get(codecName);
+        
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown event codec: " + codecName);
+        }
+        
+        return codec;
+    }
+    
+    private String[] split(String entry) {
+        String[] pcs = entry.split(":", 2);
+        
+        if (pcs.length != 2 || pcs[0].trim().isEmpty()) {
+            return null;
+        }
+        
+        pcs[0] = pcs[0].trim();
+        pcs[1] = pcs[1].trim();
+        return pcs;
+    }
+    
+}
@@ -0,0 +1,281 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Wraps a subscriber with a bounded mailbox so that event delivery is decoupled from the thread
+ * that fires the event. Queued events are delivered to the subscriber, in order, by a drain task
+ * submitted to an executor. At most one drain task is active for a mailbox at any time, so the
+ * subscriber never receives concurrent callbacks.
+ * 
+ * @param <T> Event data type.
+ */
+public class EventMailbox<T> implements IGenericEvent<T> {
+    
+    /**
+     * Determines what happens when an event arrives at a full mailbox.
+     */
+    public enum OverflowPolicy {
+        BLOCK, // Block the publisher until space is available.
+        DROP_OLDEST, // Discard the oldest queued event.
+        DROP_NEWEST, // Discard the arriving event.
+        COALESCE // Replace the data of a queued event of the same name, else discard the oldest.
+    }
+    
+    private static final Log log = LogFactory.getLog(EventMailbox.class);
+    
+    /**
+     * Maximum number of events delivered by a single drain task before yielding the executor
+     * thread.
+     */
+    private static final int DRAIN_BATCH = 64;
+    
+    private static class Envelope<T> {
+        
+        private final String eventName;
+        
+        private T eventData;
+        
+        Envelope(String eventName, T eventData) {
+            this.eventName = eventName;
+            this.eventData = eventData;
+        }
+    }
+    
+    private final IGenericEvent<T> subscriber;
+    
+    private final Executor executor;
+    
+    private final int capacity;
+    
+    private final OverflowPolicy overflowPolicy;
+    
+    private final Queue<Envelope<T>> queue = new ArrayDeque<>();
+    
+    private final Map<String, Envelope<T>> pending = new HashMap<>();
+    
+    private final AtomicLong dropped = new AtomicLong();
+    
+    private final Runnable drainTask = new Runnable() {
+        
+        @Override
+        public void run() {
+            drain();
+        }
+        
+    };
+    
+    private boolean scheduled;
+    
+    private boolean closed;
+    
+    private volatile Thread drainThread;
+    
+    /**
+     * Creates a mailbox for a subscriber.
+     * 
+     * @param subscriber The subscriber to receive events.
+     * @param executor Executor for delivering events. If null, events are delivered on the
+     *            publisher's thread.
+     * @param capacity Maximum number of queued events.
+     * @param overflowPolicy Action to take when the mailbox is full. If null, events are
+     *            coalesced.
+     */
+    public EventMailbox(IGenericEvent<T> subscriber, Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.capacity = Math.max(capacity, 1);
+        this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.COALESCE : overflowPolicy;
+    }
+    
+    /**
+     * @return The subscriber served by this mailbox.
+     */
+    public IGenericEvent<T> getSubscriber() {
+        return subscriber;
+    }
+    
+    /**
+     * @return The number of events awaiting delivery.
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+    
+    /**
+     * @return The number of events discarded due to overflow.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    
+    /**
+     * Queues an event for delivery to the subscriber.
+     */
+    @Override
+    public void eventCallback(String eventName, T eventData) {
+        synchronized (this) {
+            if (!enqueue(eventName, eventData) || scheduled) {
+                return;
+            }
+            
+            scheduled = true;
+        }
+        
+        schedule();
+    }
+    
+    /**
+     * Discards any queued events and stops further delivery.
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        pending.clear();
+        notifyAll();
+    }
+    
+    /**
+     * Adds an event to the queue, applying the overflow policy if the queue is full. Must be called
+     * while holding the monitor.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData The associated event data.
+     * @return True if the event was queued.
+     */
+    private boolean enqueue(String eventName, T eventData) {
+        if (closed) {
+            return false;
+        }
+        
+        if (overflowPolicy == OverflowPolicy.COALESCE) {
+            Envelope<T> envelope = pending.get(eventName);
+            
+            if (envelope != null) {
+                envelope.eventData = eventData;
+                return false;
+            }
+        }
+        
+        // A subscriber that fires an event to itself must not wait on its own mailbox.
+        while (queue.size() >= capacity && drainThread != Thread.currentThread()) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                
+                if (closed) {
+                    return false;
+                }
+            } else if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                Envelope<T> oldest = queue.remove();
+                pending.remove(oldest.eventName, oldest);
+                dropped.incrementAndGet();
+            }
+        }
+        
+        Envelope<T> envelope = new Envelope<>(eventName, eventData);
+        queue.add(envelope);
+        
+        if (overflowPolicy == OverflowPolicy.COALESCE) {
+            pending.put(eventName, envelope);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Submits the drain task to the executor. If no executor is available or the task is
+     * rejected, the queue is drained on the calling thread.
+     */
+    private void schedule() {
+        if (executor != null) {
+            try {
+                executor.execute(drainTask);
+                return;
+            } catch (RejectedExecutionException e) {
+                log.warn("Event delivery task was rejected; delivering on publisher's thread.");
+            }
+        }
+        
+        drainTask.run();
+    }
+    
+    /**
+     * Delivers queued events to the subscriber. Yields after a fixed number of events to avoid
+     * monopolizing an executor thread.
+     */
+    private void drain() {
+        drainThread = Thread.currentThread();
+        
+        try {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Envelope<T> envelope;
+                
+                synchronized (this) {
+                    envelope = queue.poll();
+                    
+                    if (envelope == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    
+                    pending.remove(envelope.eventName, envelope);
+                    notifyAll();
+                }
+                
+                try {
+                    subscriber.eventCallback(envelope.eventName, envelope.eventData);
+                } catch (Throwable e) {
+                    log.error("Error during asynchronous event callback.", e);
+                }
+            }
+        } finally {
+            drainThread = null;
+        }
+        
+        schedule();
+    }
+    
+}
@@ -25,12 +25,19 @@
  */
 package org.carewebframework.api.event;
 
-import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.carewebframework.api.event.EventMailbox.OverflowPolicy;
 import org.carewebframework.api.messaging.Recipient;
 import org.carewebframework.api.spring.SpringUtil;
+import org.carewebframework.api.thread.ThreadUtil;
 
 /**
  * Manages local event subscriptions and local and global event delivery.
@@ -43,6 +50,29 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
     
     private IGlobalEventDispatcher globalEventDispatcher;
     
+    private EventTracer eventTracer;
+    
+    private EventStatistics eventStatistics;
+    
+    private final Map<IGenericEvent<?>, EventMailbox<Object>> mailboxes = new IdentityHashMap<>();
+    
+    private final Map<EventMailbox<Object>, Set<String>> mailboxEvents = new IdentityHashMap<>();
+    
+    private int mailboxCapacity = 100;
+    
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+    
+    private final Map<String, EventPriority> eventPriorities = new ConcurrentHashMap<>();
+    
+    private final EventCoalescer eventCoalescer = new EventCoalescer(new IGenericEvent<Object>() {
+        
+        @Override
+        public void eventCallback(String eventName, Object eventData) {
+            dispatchLocalEvent(eventName, eventData, null);
+        }
+        
+    });
+    
     /**
      * Returns the event manager for this application context.
      * 
@@ -57,6 +87,16 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
      */
     public void destroy() {
         subscriptions.clear();
+        eventCoalescer.clear();
+        
+        synchronized (mailboxes) {
+            for (EventMailbox<Object> mailbox : mailboxes.values()) {
+                mailbox.close();
+            }
+            
+            mailboxes.clear();
+            mailboxEvents.clear();
+        }
     }
     
     /**
@@ -76,6 +116,9 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
     }
     
     /**
+     * Fires the event locally. If the event is coalescible, delivery is deferred so that it may be
+     * merged with subsequent occurrences.
+     * 
      * @see org.carewebframework.api.event.IEventManager#fireLocalEvent(java.lang.String,
      *      java.lang.Object)
      * @see org.carewebframework.api.event.ILocalEventDispatcher#fireLocalEvent(java.lang.String,
@@ -83,8 +126,63 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
      */
     @Override
     public void fireLocalEvent(String eventName, Object eventData) {
-        // TODO: Handle trace mode here
-        subscriptions.invokeCallbacks(eventName, eventData);
+        fireLocalEvent(eventName, eventData, null);
+    }
+    
+    /**
+     * Fires the event locally. Critical events are never coalesced, whether the priority is
+     * requested or resolved as described under {@link #getPriority}.
+     * 
+     * @see org.carewebframework.api.event.IEventManager#fireLocalEvent(java.lang.String,
+     *      java.lang.Object, org.carewebframework.api.event.EventPriority)
+     */
+    @Override
+    public void fireLocalEvent(String eventName, Object eventData, EventPriority priority) {
+        if (!eventCoalescer.isCoalescible(eventName) || getPriority(eventName, priority) == EventPriority.CRITICAL
+                || !eventCoalescer.coalesce(eventName, eventData)) {
+            dispatchLocalEvent(eventName, eventData, priority);
+        }
+    }
+    
+    /**
+     * @see org.carewebframework.api.event.IEventManager#fireLocalEvent(org.carewebframework.api.event.EventName,
+     *      java.lang.Object)
+     */
+    @Override
+    public void fireLocalEvent(EventName eventName, Object eventData) {
+        fireLocalEvent(eventName.getName(), eventData);
+    }
+    
+    /**
+     * Delivers the event to local subscribers. Override to address special threading
+     * considerations. Delivery here is synchronous, so the priority is not used, but overrides
+     * that queue events for later delivery should use {@link #getPriority} to order the queue.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData Associated data object.
+     * @param priority The requested delivery priority (may be null).
+     */
+    protected void dispatchLocalEvent(String eventName, Object eventData, EventPriority priority) {
+        EventTracer tracer = eventTracer;
+        EventStatistics statistics = eventStatistics;
+        boolean trace = tracer != null && tracer.isEnabled();
+        
+        if (!trace && (statistics == null || !statistics.isEnabled())) {
+            subscriptions.invokeCallbacks(eventName, eventData);
+            return;
+        }
+        
+        long start = System.nanoTime();
+        int count = subscriptions.invokeCallbacks(eventName, eventData, trace ? tracer : null);
+        long elapsed = System.nanoTime() - start;
+        
+        if (trace) {
+            tracer.recordEvent(eventName, false, count, elapsed);
+        }
+        
+        if (statistics != null) {
+            statistics.recordDispatch(eventName, count, elapsed);
+        }
     }
     
     /**
@@ -93,12 +191,28 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
      */
     @Override
     public void fireRemoteEvent(String eventName, Object eventData, Recipient... recipients) {
+        fireRemoteEvent(EventName.valueOf(eventName), eventData, recipients);
+    }
+    
+    /**
+     * @see org.carewebframework.api.event.IEventManager#fireRemoteEvent(org.carewebframework.api.event.EventName,
+     *      java.lang.Object, org.carewebframework.api.messaging.Recipient[])
+     */
+    @Override
+    public void fireRemoteEvent(EventName eventName, Object eventData, Recipient... recipients) {
         if (globalEventDispatcher != null) {
+            EventTracer tracer = eventTracer;
+            long start = tracer == null ? 0 : System.nanoTime();
+            
             try {
-                globalEventDispatcher.fireRemoteEvent(eventName, (Serializable) eventData, recipients);
+                globalEventDispatcher.fireRemoteEvent(eventName, eventData, recipients);
             } catch (Throwable e) {
                 log.error("Error during remote event dispatch.", e);
             }
+            
+            if (tracer != null && tracer.isEnabled()) {
+                tracer.recordEvent(eventName.getName(), true, -1, System.nanoTime() - start);
+            }
         }
     }
     
@@ -106,10 +220,80 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
      * @see org.carewebframework.api.event.IEventManager#subscribe(java.lang.String,
      *      org.carewebframework.api.event.IGenericEvent)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public void subscribe(String eventName, IGenericEvent<?> subscriber) {
-        if (subscriptions.addSubscriber(eventName, (IGenericEvent<Object>) subscriber) == 1) {
+        subscribe(eventName, subscriber, EventPriority.NORMAL);
+    }
+    
+    /**
+     * @see org.carewebframework.api.event.IEventManager#subscribe(java.lang.String,
+     *      org.carewebframework.api.event.IGenericEvent, org.carewebframework.api.event.EventPriority)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void subscribe(String eventName, IGenericEvent<?> subscriber, EventPriority priority) {
+        if (subscriptions.addSubscriber(eventName, (IGenericEvent<Object>) subscriber, priority) == 1) {
+            hostSubscribe(eventName, true);
+        }
+    }
+    
+    /**
+     * Returns the delivery priority of an event. An explicitly requested priority takes precedence.
+     * Otherwise, the priority configured for the event or its nearest parent event is used and,
+     * failing that, the highest priority of the event's subscribers.
+     * 
+     * @param eventName Name of the event.
+     * @param priority The requested priority (may be null).
+     * @return The delivery priority (never null).
+     */
+    protected EventPriority getPriority(String eventName, EventPriority priority) {
+        if (priority != null) {
+            return priority;
+        }
+        
+        if (!eventPriorities.isEmpty()) {
+            for (EventName name = EventName.valueOf(eventName); name != null; name = name.getParent()) {
+                priority = eventPriorities.get(name.getName());
+                
+                if (priority != null) {
+                    return priority;
+                }
+            }
+        }
+        
+        priority = subscriptions.getPriority(eventName);
+        return priority == null ? EventPriority.NORMAL : priority;
+    }
+    
+    /**
+     * @see org.carewebframework.api.event.IEventManager#subscribeAsync(java.lang.String,
+     *      org.carewebframework.api.event.IGenericEvent)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void subscribeAsync(String eventName, IGenericEvent<?> subscriber) {
+        boolean first;
+        
+        // The subscription is registered under the same lock with which unsubscribe closes the
+        // mailbox, so that a closed mailbox can never remain subscribed.
+        synchronized (mailboxes) {
+            EventMailbox<Object> mailbox = mailboxes.get(subscriber);
+            
+            if (mailbox == null) {
+                mailbox = new EventMailbox<>((IGenericEvent<Object>) subscriber, ThreadUtil.getTaskExecutor(),
+                        mailboxCapacity, overflowPolicy);
+                mailboxes.put(subscriber, mailbox);
+                mailboxEvents.put(mailbox, new HashSet<>());
+            }
+            
+            if (!mailboxEvents.get(mailbox).add(eventName)) {
+                return;
+            }
+            
+            first = subscriptions.addSubscriber(eventName, mailbox, EventPriority.NORMAL) == 1;
+        }
+        
+        if (first) {
             hostSubscribe(eventName, true);
         }
     }
@@ -121,11 +305,42 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
     @SuppressWarnings("unchecked")
     @Override
     public void unsubscribe(String eventName, IGenericEvent<?> subscriber) {
-        if (subscriptions.removeSubscriber(eventName, (IGenericEvent<Object>) subscriber) == 0) {
+        IGenericEvent<Object> target = (IGenericEvent<Object>) subscriber;
+        int remaining;
+        
+        synchronized (mailboxes) {
+            EventMailbox<Object> mailbox = mailboxes.get(subscriber);
+            Set<String> events = mailbox == null ? null : mailboxEvents.get(mailbox);
+            
+            if (events != null && events.remove(eventName)) {
+                target = mailbox;
+                
+                if (events.isEmpty()) {
+                    mailboxes.remove(subscriber);
+                    mailboxEvents.remove(mailbox);
+                    mailbox.close();
+                }
+            }
+            
+            remaining = subscriptions.removeSubscriber(eventName, target);
+        }
+        
+        if (remaining == 0) {
             hostSubscribe(eventName, false);
         }
     }
     
+    /**
+     * Returns the mailboxes of all subscribers registered for asynchronous delivery.
+     * 
+     * @return List of mailboxes.
+     */
+    public Iterable<EventMailbox<Object>> getMailboxes() {
+        synchronized (mailboxes) {
+            return new ArrayList<>(mailboxes.values());
+        }
+    }
+    
     /**
      * Synchronizes all existing subscriptions with the global event manager.
      */
@@ -137,12 +352,18 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
     
     /**
      * Registers or unregisters a subscription with the global event dispatcher, if one is present.
+     * For a pattern, the subscription is made to the portion of the pattern that precedes the first
+     * wildcard. A pattern that begins with a wildcard matches local events only.
      * 
      * @param eventName Name of event
      * @param subscribe If true, a subscription is registered. If false, it is unregistered.
      */
     private void hostSubscribe(String eventName, boolean subscribe) {
-        if (globalEventDispatcher != null) {
+        if (EventSubscriptions.isPattern(eventName)) {
+            eventName = EventSubscriptions.getPatternPrefix(eventName);
+        }
+        
+        if (globalEventDispatcher != null && !eventName.isEmpty()) {
             try {
                 globalEventDispatcher.subscribeRemoteEvent(eventName, subscribe);
             } catch (Throwable e) {
@@ -170,4 +391,125 @@ public class EventManager implements ILocalEventDispatcher, IEventManager {
         return globalEventDispatcher;
     }
     
+    /**
+     * Returns the capacity of mailboxes created for asynchronous subscribers.
+     * 
+     * @return Mailbox capacity.
+     */
+    public int getMailboxCapacity() {
+        return mailboxCapacity;
+    }
+    
+    /**
+     * Sets the capacity of mailboxes created for asynchronous subscribers. Affects only mailboxes
+     * created after the change.
+     * 
+     * @param mailboxCapacity Mailbox capacity.
+     */
+    public void setMailboxCapacity(int mailboxCapacity) {
+        this.mailboxCapacity = mailboxCapacity;
+    }
+    
+    /**
+     * Returns the action taken when an asynchronous subscriber's mailbox is full.
+     * 
+     * @return The overflow policy.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+    
+    /**
+     * Sets the action taken when an asynchronous subscriber's mailbox is full. Affects only
+     * mailboxes created after the change.
+     * 
+     * @param overflowPolicy The overflow policy.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Returns the coalescer that merges bursts of coalescible events.
+     * 
+     * @return The event coalescer.
+     */
+    public EventCoalescer getEventCoalescer() {
+        return eventCoalescer;
+    }
+    
+    /**
+     * Registers events to be coalesced. Each entry takes the form <code>name[:window]</code>, where
+     * the optional window is in milliseconds. If the window is omitted, occurrences are merged
+     * only until the next delivery cycle. The most recent event data is always retained.
+     * 
+     * @param coalescedEvents List of coalescible events.
+     */
+    public void setCoalescedEvents(String[] coalescedEvents) {
+        for (String entry : coalescedEvents) {
+            String[] pcs = entry.split(":", 2);
+            String eventName = pcs[0].trim();
+            
+            if (!eventName.isEmpty()) {
+                eventCoalescer.register(eventName, pcs.length == 1 ? 0 : Long.parseLong(pcs[1].trim()));
+            }
+        }
+    }
+    
+    /**
+     * Assigns delivery priorities to events. Each entry takes the form <code>name:priority</code>,
+     * where priority is one of the {@link EventPriority} values. The priority applies to the named
+     * event and its descendants unless a descendant has its own entry.
+     * 
+     * @param eventPriorities List of event priorities.
+     */
+    public void setEventPriorities(String[] eventPriorities) {
+        for (String entry : eventPriorities) {
+            String[] pcs = entry.split(":", 2);
+            String eventName = pcs[0].trim();
+            
+            if (!eventName.isEmpty()) {
+                EventPriority priority = pcs.length == 1 ? EventPriority.NORMAL
+                        : EventPriority.valueOf(pcs[1].trim().toUpperCase());
+                this.eventPriorities.put(eventName, priority);
+            }
+        }
+    }
+    
+    /**
+     * Returns the tracer used to record event activity.
+     * 
+     * @return The event tracer (may be null).
+     */
+    public EventTracer getEventTracer() {
+        return eventTracer;
+    }
+    
+    /**
+     * Sets the tracer used to record event activity.
+     * 
+     * @param eventTracer The event tracer (may be null).
+     */
+    public void setEventTracer(EventTracer eventTracer) {
+        this.eventTracer = eventTracer;
+    }
+
+    /**
+     * Returns the collector of per-event statistics.
+     * 
+     * @return The event statistics (may be null).
+     */
+    public EventStatistics getEventStatistics() {
+        return eventStatistics;
+    }
+    
+    /**
+     * Sets the collector of per-event statistics.
+     * 
+     * @param eventStatistics The event statistics (may be null).
+     */
+    public void setEventStatistics(EventStatistics eventStatistics) {
+        this.eventStatistics = eventStatistics;
+    }
+
 }
@@ -40,4 +40,17 @@ public class EventMessage extends Message {
         super(eventName, eventData);
     }
     
+    /**
+     * Recreates an event message with its original identity, as when decoding it from a wire
+     * format.
+     * 
+     * @param eventName The event name.
+     * @param eventData The event data.
+     * @param id The id unique to the message.
+     * @param created The creation timestamp.
+     */
+    public EventMessage(String eventName, Serializable eventData, String id, long created) {
+        super(eventName, eventData, id, created);
+    }
+    
 }
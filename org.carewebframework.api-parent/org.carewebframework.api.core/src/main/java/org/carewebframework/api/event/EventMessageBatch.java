@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.carewebframework.api.messaging.Message;
+
+/**
+ * Envelope that carries multiple events for global delivery as a single message. All events in a
+ * batch share the envelope's channel, recipients and publication metadata.
+ */
+public class EventMessageBatch extends Message {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Message type used for event batches.
+     */
+    public static final String BATCH_TYPE = "cwf.event.batch";
+    
+    /**
+     * A single event within a batch.
+     */
+    public static class Entry implements Serializable {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final String eventName;
+        
+        private final Serializable eventData;
+        
+        private final String codec;
+        
+        public Entry(String eventName, Serializable eventData, String codec) {
+            this.eventName = eventName;
+            this.eventData = eventData;
+            this.codec = codec;
+        }
+        
+        public String getEventName() {
+            return eventName;
+        }
+        
+        public Serializable getEventData() {
+            return eventData;
+        }
+        
+        /**
+         * @return Name of the codec used to encode the event data, or null if not encoded.
+         */
+        public String getCodec() {
+            return codec;
+        }
+        
+    }
+    
+    private transient int size;
+    
+    public EventMessageBatch() {
+        super(BATCH_TYPE, new ArrayList<Entry>());
+    }
+    
+    /**
+     * Recreates a batch with its original identity, as when decoding it from a wire format.
+     * 
+     * @param id The id unique to the message.
+     * @param created The creation timestamp.
+     * @param entries The events in the batch.
+     */
+    public EventMessageBatch(String id, long created, List<Entry> entries) {
+        super(BATCH_TYPE, new ArrayList<>(entries), id, created);
+    }
+    
+    /**
+     * Adds an event to the batch.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData Data associated with the event.
+     */
+    public void add(String eventName, Serializable eventData) {
+        add(eventName, eventData, null);
+    }
+    
+    /**
+     * Adds an event with encoded data to the batch.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData Data associated with the event.
+     * @param codec Name of the codec used to encode the event data, or null if not encoded.
+     */
+    public void add(String eventName, Serializable eventData, String codec) {
+        getEntryList().add(new Entry(eventName, eventData, codec));
+        size += estimateSize(eventName) + estimateSize(eventData);
+    }
+    
+    /**
+     * Returns the events in this batch in the order they were added.
+     * 
+     * @return List of events.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(getEntryList());
+    }
+    
+    /**
+     * Returns the number of events in this batch.
+     * 
+     * @return Number of events.
+     */
+    public int getCount() {
+        return getEntryList().size();
+    }
+    
+    /**
+     * Returns the approximate size of the events in this batch, in bytes. This is an estimate
+     * based on the event names and data and is only maintained on the sending side.
+     * 
+     * @return Approximate size in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<Entry> getEntryList() {
+        return (List<Entry>) getPayload();
+    }
+    
+    /**
+     * Returns the approximate serialized size of an object. Strings and byte arrays are measured;
+     * other types are assigned a nominal size.
+     * 
+     * @param object Object to measure.
+     * @return Approximate size in bytes.
+     */
+    private static int estimateSize(Object object) {
+        if (object == null) {
+            return 1;
+        }
+        
+        if (object instanceof CharSequence) {
+            return ((CharSequence) object).length() + 2;
+        }
+        
+        if (object instanceof byte[]) {
+            return ((byte[]) object).length + 4;
+        }
+        
+        return 128;
+    }
+    
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+/**
+ * A typed event name that caches its parent in the event hierarchy and the name of the messaging
+ * channel that carries it, so that neither need be recomputed from the name when the event is
+ * fired. Instances are held in a fixed-size cache indexed by the hash of the name, so that looking
+ * up a recently used name allocates nothing, while dynamically generated names cannot accumulate:
+ * a name simply replaces any other name that hashes to the same slot. Event names are compared by
+ * value, never by identity.
+ */
+public final class EventName {
+    
+    /**
+     * Number of slots in the cache (a power of two).
+     */
+    private static final int CACHE_SIZE = 8192;
+    
+    /**
+     * The cache. Reads and writes are unsynchronized, which is safe because instances are
+     * immutable; a lost update merely costs a later lookup a new instance.
+     */
+    private static final EventName[] cache = new EventName[CACHE_SIZE];
+    
+    private final String name;
+    
+    private final EventName parent;
+    
+    private final String channelName;
+    
+    /**
+     * Returns the typed event name for the specified event name, from the cache if present.
+     * 
+     * @param name The event name.
+     * @return The typed event name.
+     */
+    public static EventName valueOf(String name) {
+        int hash = name.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        EventName eventName = cache[index];
+        
+        if (eventName == null || !eventName.name.equals(name)) {
+            eventName = new EventName(name);
+            cache[index] = eventName;
+        }
+        
+        return eventName;
+    }
+    
+    private EventName(String name) {
+        int i = name.lastIndexOf('.');
+        this.name = name;
+        this.parent = i > 0 ? valueOf(name.substring(0, i)) : null;
+        this.channelName = parent != null ? parent.channelName : createChannelName(name);
+    }
+    
+    /**
+     * Derives the channel name from the top level of the event name.
+     * 
+     * @param name The event name.
+     * @return The channel name.
+     */
+    private static String createChannelName(String name) {
+        int i = name.indexOf('.');
+        return EventUtil.EVENT_PREFIX + (i < 0 ? name : name.substring(0, i));
+    }
+    
+    /**
+     * Returns the event name.
+     * 
+     * @return The event name.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Returns the parent event (the event name with its lowest level removed).
+     * 
+     * @return The parent event, or null if this is a top level event.
+     */
+    public EventName getParent() {
+        return parent;
+    }
+    
+    /**
+     * Returns the name of the messaging channel that carries this event.
+     * 
+     * @return The channel name.
+     */
+    public String getChannelName() {
+        return channelName;
+    }
+    
+    @Override
+    public boolean equals(Object object) {
+        return object == this || (object instanceof EventName && ((EventName) object).name.equals(name));
+    }
+    
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+    
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Collects per-event statistics when enabled: the number of local dispatches, the number of events
+ * received from remote publishers, the number of subscribers notified, and the time spent in
+ * subscriber callbacks. Memory use is fixed per event name, and the number of distinct event names
+ * tracked is bounded; events beyond that limit are accumulated under a single entry.
+ */
+@ManagedResource(description = "Event statistics.")
+public class EventStatistics {
+    
+    /**
+     * Upper limit on the number of distinct event names tracked.
+     */
+    private static final int MAX_EVENTS = 1000;
+    
+    /**
+     * Name of the entry that accumulates statistics for events beyond the tracking limit.
+     */
+    public static final String OTHER_EVENTS = "(other)";
+    
+    /**
+     * Statistics for a single event name.
+     */
+    public static class Statistics {
+        
+        private final String eventName;
+        
+        private final LongAdder received = new LongAdder();
+        
+        private final LongAdder notified = new LongAdder();
+        
+        private final LatencyHistogram dispatchTime = new LatencyHistogram();
+        
+        private Statistics(String eventName) {
+            this.eventName = eventName;
+        }
+        
+        /**
+         * @return The name of the event.
+         */
+        public String getEventName() {
+            return eventName;
+        }
+        
+        /**
+         * @return The number of local dispatches.
+         */
+        public long getDispatchCount() {
+            return dispatchTime.getCount();
+        }
+        
+        /**
+         * @return The number of events received from remote publishers.
+         */
+        public long getReceivedCount() {
+            return received.sum();
+        }
+        
+        /**
+         * @return The total number of subscribers notified.
+         */
+        public long getNotifiedCount() {
+            return notified.sum();
+        }
+        
+        /**
+         * @return Histogram of the time (in nanoseconds) spent notifying subscribers per dispatch.
+         */
+        public LatencyHistogram getDispatchTime() {
+            return dispatchTime;
+        }
+        
+        @Override
+        public String toString() {
+            long dispatches = getDispatchCount();
+            double fanOut = dispatches == 0 ? 0.0 : (double) getNotifiedCount() / dispatches;
+            return String.format("%-40s %10d %10d %8.1f %10d %10d %10d", eventName, dispatches, getReceivedCount(), fanOut,
+                toMicros(dispatchTime.getPercentile(50)), toMicros(dispatchTime.getPercentile(99)),
+                toMicros(dispatchTime.getMax()));
+        }
+    }
+    
+    private static final Comparator<Statistics> BY_TOTAL_TIME = new Comparator<Statistics>() {
+        
+        @Override
+        public int compare(Statistics stats1, Statistics stats2) {
+            return Long.compare(stats2.dispatchTime.getSum(), stats1.dispatchTime.getSum());
+        }
+        
+    };
+    
+    private final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+    
+    private volatile boolean enabled;
+    
+    /**
+     * @return True if statistics collection is enabled.
+     */
+    @ManagedAttribute(description = "Enables or disables collection of event statistics.")
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * @param enabled Set to true to enable statistics collection.
+     */
+    @ManagedAttribute(description = "Enables or disables collection of event statistics.")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * @return The number of distinct event names tracked.
+     */
+    @ManagedAttribute(description = "Number of distinct event names tracked.")
+    public int getEventCount() {
+        return statistics.size();
+    }
+    
+    /**
+     * Records the local dispatch of an event.
+     * 
+     * @param eventName Name of the event.
+     * @param subscriberCount The number of subscribers notified.
+     * @param elapsed Time spent notifying subscribers, in nanoseconds.
+     */
+    public void recordDispatch(String eventName, int subscriberCount, long elapsed) {
+        if (enabled) {
+            Statistics stats = getStatistics(eventName, true);
+            stats.notified.add(subscriberCount);
+            stats.dispatchTime.record(elapsed);
+        }
+    }
+    
+    /**
+     * Records the receipt of an event from a remote publisher.
+     * 
+     * @param eventName Name of the event.
+     */
+    public void recordReceived(String eventName) {
+        if (enabled) {
+            getStatistics(eventName, true).received.increment();
+        }
+    }
+    
+    /**
+     * Returns the statistics for an event.
+     * 
+     * @param eventName Name of the event.
+     * @return The statistics for the event, or null if none have been recorded.
+     */
+    public Statistics getStatistics(String eventName) {
+        return getStatistics(eventName, false);
+    }
+    
+    private Statistics getStatistics(String eventName, boolean canCreate) {
+        Statistics stats = statistics.get(eventName);
+        
+        if (stats == null && canCreate) {
+            eventName = statistics.size() < MAX_EVENTS ? eventName : OTHER_EVENTS;
+            stats = new Statistics(eventName);
+            Statistics existing = statistics.putIfAbsent(eventName, stats);
+            stats = existing == null ? stats : existing;
+        }
+        
+        return stats;
+    }
+    
+    /**
+     * Returns the statistics for all tracked events, ordered by total time spent notifying
+     * subscribers (highest first).
+     * 
+     * @return List of event statistics.
+     */
+    public List<Statistics> getStatistics() {
+        List<Statistics> list = new ArrayList<>(statistics.values());
+        Collections.sort(list, BY_TOTAL_TIME);
+        return list;
+    }
+    
+    /**
+     * Returns the names of all tracked events.
+     * 
+     * @return Sorted list of event names.
+     */
+    @ManagedAttribute(description = "Names of all tracked events.")
+    public List<String> getEventNames() {
+        return new ArrayList<>(new TreeSet<>(statistics.keySet()));
+    }
+    
+    /**
+     * Returns the statistics for all tracked events as text, one event per line, ordered by total
+     * time spent notifying subscribers. Times are in microseconds.
+     * 
+     * @return Text representation of the event statistics.
+     */
+    @ManagedOperation(description = "Returns a snapshot of the event statistics.")
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %10s %10s %8s %10s %10s %10s%n", "Event", "Local", "Remote", "Fan-out",
+            "p50 (us)", "p99 (us)", "Max (us)"));
+        
+        for (Statistics stats : getStatistics()) {
+            sb.append(stats).append('\n');
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Discards all collected statistics.
+     */
+    @ManagedOperation(description = "Clears the event statistics.")
+    public void reset() {
+        statistics.clear();
+    }
+    
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+    
+}
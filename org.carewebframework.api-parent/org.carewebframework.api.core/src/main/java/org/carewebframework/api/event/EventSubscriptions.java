@@ -26,17 +26,32 @@
 package org.carewebframework.api.event;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * Manages event subscriptions in a thread-safe way.
+ * Manages event subscriptions in a thread-safe way. Subscriptions are maintained in a trie keyed
+ * by event name segments, where each node holds an immutable array of subscribers that is replaced
+ * on every update (copy-on-write). Modifications are serialized, but lookups and callback
+ * invocations take no locks and do not copy subscriber lists.
+ * <p>
+ * Subscriptions may also specify a pattern in which a segment of <code>*</code> matches exactly one
+ * level of the event hierarchy and a segment of <code>**</code> matches zero or more levels (e.g.,
+ * <code>PATIENT.*.UPDATED</code> or <code>**.ERROR</code>). Patterns are kept in a separate trie
+ * that serves as a shared matching automaton. Like ordinary subscriptions, a pattern matches an
+ * event if it matches the event or any of its parent events.
+ * <p>
+ * Each subscription is assigned a priority. Subscribers are kept in a separate lane per priority
+ * and callbacks are invoked one lane at a time, so that all subscribers of a higher priority are
+ * notified before any subscriber of a lower priority.
  * 
  * @param <T> Event data type.
  */
@@ -44,19 +59,184 @@ import org.apache.commons.logging.LogFactory;
     
     private static final Log log = LogFactory.getLog(EventSubscriptions.class);
     
-    private final Map<String, List<IGenericEvent<T>>> subscriptions = new HashMap<>();
+    /**
+     * Upper limit on the number of cached event name resolutions.
+     */
+    private static final int MAX_RESOLVED = 2000;
+    
+    /**
+     * Pattern segment that matches exactly one level of the event hierarchy.
+     */
+    static final String ANY_LEVEL = "*";
+    
+    /**
+     * Pattern segment that matches zero or more levels of the event hierarchy.
+     */
+    static final String ANY_LEVELS = "**";
+    
+    private static final EventPriority[] PRIORITIES = EventPriority.values();
+    
+    /**
+     * A node in the subscription trie. Each node corresponds to a single level in the event
+     * hierarchy, or to a single segment of a pattern.
+     * 
+     * @param <T> Event data type.
+     */
+    private static class Node<T> {
+        
+        private final String eventName;
+        
+        private final Node<T> parent;
+        
+        private final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        
+        private final boolean anyLevels;
+        
+        /**
+         * Subscribers indexed by priority lane.
+         */
+        private volatile IGenericEvent<T>[][] subscribers;
+        
+        Node(String eventName, Node<T> parent, IGenericEvent<T>[][] subscribers) {
+            this.eventName = eventName;
+            this.parent = parent;
+            this.subscribers = subscribers;
+            this.anyLevels = eventName.equals(ANY_LEVELS) || eventName.endsWith("." + ANY_LEVELS);
+        }
+        
+        int getSubscriberCount() {
+            int count = 0;
+            
+            for (IGenericEvent<T>[] lane : subscribers) {
+                count += lane.length;
+            }
+            
+            return count;
+        }
+        
+        boolean hasSubscribers() {
+            for (IGenericEvent<T>[] lane : subscribers) {
+                if (lane.length > 0) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        boolean isEmpty() {
+            return !hasSubscribers() && children.isEmpty();
+        }
+    }
+    
+    private final IGenericEvent<T>[][] noSubscribers = newLanes();
+    
+    private final Node<T> root = new Node<>("", null, noSubscribers);
+    
+    /**
+     * Index of all trie nodes by full event name.
+     */
+    private final Map<String, Node<T>> nodes = new ConcurrentHashMap<>();
+    
+    /**
+     * Maps event names to the deepest trie node that is an ancestor of (or equal to) the event.
+     * This is replaced whenever the trie structure changes.
+     */
+    private volatile Map<String, Node<T>> resolved = new ConcurrentHashMap<>();
+    
+    private final Node<T> patternRoot = new Node<>("", null, noSubscribers);
+    
+    /**
+     * Index of all pattern trie nodes by full pattern.
+     */
+    private final Map<String, Node<T>> patterns = new ConcurrentHashMap<>();
+    
+    /**
+     * Maps event names to the pattern nodes with subscribers that match the event. This is
+     * replaced whenever pattern subscriptions change.
+     */
+    private volatile Map<String, List<Node<T>>> matched = new ConcurrentHashMap<>();
+    
+    private volatile boolean hasPatterns;
+    
+    /**
+     * Returns true if the event name is a pattern (i.e., contains a wildcard).
+     * 
+     * @param eventName Name of the event.
+     * @return True if the event name is a pattern.
+     */
+    static boolean isPattern(String eventName) {
+        return eventName != null && eventName.indexOf('*') >= 0;
+    }
+    
+    /**
+     * Returns the portion of a pattern that precedes its first wildcard segment.
+     * 
+     * @param pattern The pattern.
+     * @return The literal prefix of the pattern, or an empty string if the pattern begins with a
+     *         wildcard.
+     */
+    static String getPatternPrefix(String pattern) {
+        int i = pattern.indexOf('*');
+        i = i <= 0 ? 0 : pattern.lastIndexOf('.', i);
+        return i <= 0 ? "" : pattern.substring(0, i);
+    }
+    
+    /**
+     * Validates a pattern and collapses consecutive <code>**</code> segments.
+     * 
+     * @param pattern The pattern.
+     * @return The normalized pattern.
+     */
+    private static String normalize(String pattern) {
+        StringBuilder sb = new StringBuilder(pattern.length());
+        String previous = null;
+        
+        for (String segment : pattern.split("\\.", -1)) {
+            if (segment.indexOf('*') >= 0 && !ANY_LEVEL.equals(segment) && !ANY_LEVELS.equals(segment)) {
+                throw new IllegalArgumentException("Invalid event pattern: " + pattern);
+            }
+            
+            if (ANY_LEVELS.equals(segment) && ANY_LEVELS.equals(previous)) {
+                continue;
+            }
+            
+            sb.append(previous == null ? "" : ".").append(segment);
+            previous = segment;
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Adds a subscriber with normal priority to the specified event.
+     * 
+     * @param eventName Name of the event.
+     * @param subscriber Subscriber to add.
+     * @return Count of subscribers after the operation.
+     */
+    public int addSubscriber(String eventName, IGenericEvent<T> subscriber) {
+        return addSubscriber(eventName, subscriber, EventPriority.NORMAL);
+    }
     
     /**
      * Adds a subscriber to the specified event.
      * 
      * @param eventName Name of the event.
      * @param subscriber Subscriber to add.
+     * @param priority Priority of the subscription.
      * @return Count of subscribers after the operation.
      */
-    public synchronized int addSubscriber(String eventName, IGenericEvent<T> subscriber) {
-        List<IGenericEvent<T>> subscribers = getSubscribers(eventName, true);
-        subscribers.add(subscriber);
-        return subscribers.size();
+    public synchronized int addSubscriber(String eventName, IGenericEvent<T> subscriber, EventPriority priority) {
+        Node<T> node = getNode(eventName, true);
+        IGenericEvent<T>[][] lanes = node.subscribers.clone();
+        IGenericEvent<T>[] subscribers = lanes[priority.ordinal()];
+        IGenericEvent<T>[] newSubscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+        newSubscribers[subscribers.length] = subscriber;
+        lanes[priority.ordinal()] = newSubscribers;
+        node.subscribers = lanes;
+        updatePatterns(eventName);
+        return node.getSubscriberCount();
     }
     
     /**
@@ -67,19 +247,32 @@ import org.apache.commons.logging.LogFactory;
      * @return Count of subscribers after the operation, or -1 no subscriber list existed.
      */
     public synchronized int removeSubscriber(String eventName, IGenericEvent<T> subscriber) {
-        List<IGenericEvent<T>> subscribers = getSubscribers(eventName, false);
+        Node<T> node = getNode(eventName, false);
         
-        if (subscribers != null) {
-            subscribers.remove(subscriber);
+        if (node == null || !node.hasSubscribers()) {
+            return -1;
+        }
+        
+        IGenericEvent<T>[][] lanes = node.subscribers;
+        
+        for (int lane = 0; lane < lanes.length; lane++) {
+            IGenericEvent<T>[] subscribers = lanes[lane];
+            int i = ArrayUtils.indexOf(subscribers, subscriber);
             
-            if (subscribers.isEmpty()) {
-                subscriptions.remove(eventName);
+            if (i >= 0) {
+                IGenericEvent<T>[] newSubscribers = newArray(subscribers.length - 1);
+                System.arraycopy(subscribers, 0, newSubscribers, 0, i);
+                System.arraycopy(subscribers, i + 1, newSubscribers, i, newSubscribers.length - i);
+                lanes = lanes.clone();
+                lanes[lane] = newSubscribers;
+                node.subscribers = lanes;
+                prune(node, isPattern(eventName) ? patterns : nodes);
+                updatePatterns(eventName);
+                break;
             }
-            
-            return subscribers.size();
         }
         
-        return -1;
+        return node.getSubscriberCount();
     }
     
     /**
@@ -88,8 +281,9 @@ import org.apache.commons.logging.LogFactory;
      * @param eventName Name of the event.
      * @return True if subscribers exist.
      */
-    public synchronized boolean hasSubscribers(String eventName) {
-        return getSubscribers(eventName, false) != null;
+    public boolean hasSubscribers(String eventName) {
+        Node<T> node = getNode(eventName, false);
+        return node != null && node.hasSubscribers();
     }
     
     /**
@@ -101,44 +295,114 @@ import org.apache.commons.logging.LogFactory;
      * @return True if a subscriber was found.
      */
     public boolean hasSubscribers(String eventName, boolean exact) {
-        while (!StringUtils.isEmpty(eventName)) {
-            if (hasSubscribers(eventName)) {
+        if (exact) {
+            return hasSubscribers(eventName);
+        }
+        
+        for (Node<T> node = resolve(eventName); node != root; node = node.parent) {
+            if (node.hasSubscribers()) {
                 return true;
-            } else if (exact) {
-                return false;
-            } else {
-                eventName = stripLevel(eventName);
             }
         }
         
-        return false;
+        return !match(eventName).isEmpty();
+    }
+    
+    /**
+     * Returns the highest priority of any subscriber that would be notified of the event,
+     * considering parent events and matching patterns.
+     * 
+     * @param eventName Name of the event.
+     * @return The highest subscriber priority, or null if the event has no subscribers.
+     */
+    public EventPriority getPriority(String eventName) {
+        Node<T> first = resolve(eventName);
+        List<Node<T>> matches = match(eventName);
+        
+        for (EventPriority priority : PRIORITIES) {
+            int lane = priority.ordinal();
+            
+            for (Node<T> node = first; node != root; node = node.parent) {
+                if (node.subscribers[lane].length > 0) {
+                    return priority;
+                }
+            }
+            
+            for (Node<T> node : matches) {
+                if (node.subscribers[lane].length > 0) {
+                    return priority;
+                }
+            }
+        }
+        
+        return null;
     }
     
     /**
-     * Returns a thread-safe iterable for the subscriber list.
+     * Returns a thread-safe iterable for the subscriber list. Subscribers are returned in priority
+     * order.
      * 
      * @param eventName Name of the event.
      * @return Iterable for the subscriber list, or null if no list exists.
      */
-    public synchronized Iterable<IGenericEvent<T>> getSubscribers(String eventName) {
-        List<IGenericEvent<T>> subscribers = getSubscribers(eventName, false);
-        return subscribers == null ? null : new ArrayList<>(subscribers);
+    public Iterable<IGenericEvent<T>> getSubscribers(String eventName) {
+        Node<T> node = getNode(eventName, false);
+        
+        if (node == null || !node.hasSubscribers()) {
+            return null;
+        }
+        
+        List<IGenericEvent<T>> subscribers = new ArrayList<>();
+        
+        for (IGenericEvent<T>[] lane : node.subscribers) {
+            subscribers.addAll(Arrays.asList(lane));
+        }
+        
+        return Collections.unmodifiableList(subscribers);
     }
     
     /**
-     * Returns a thread-safe iterable for all events with subscribers.
+     * Returns a thread-safe iterable for all events and patterns with subscribers.
      * 
      * @return List of events.
      */
-    public synchronized Iterable<String> getEvents() {
-        return new ArrayList<>(subscriptions.keySet());
+    public Iterable<String> getEvents() {
+        List<String> events = new ArrayList<>();
+        
+        for (Node<T> node : nodes.values()) {
+            if (node.hasSubscribers()) {
+                events.add(node.eventName);
+            }
+        }
+        
+        for (Node<T> node : patterns.values()) {
+            if (node.hasSubscribers()) {
+                events.add(node.eventName);
+            }
+        }
+        
+        return events;
     }
     
     /**
      * Removes all subscriptions.
      */
     public synchronized void clear() {
-        subscriptions.clear();
+        for (Node<T> node : nodes.values()) {
+            node.subscribers = noSubscribers;
+        }
+        
+        for (Node<T> node : patterns.values()) {
+            node.subscribers = noSubscribers;
+        }
+        
+        nodes.clear();
+        root.children.clear();
+        resolved = new ConcurrentHashMap<>();
+        patterns.clear();
+        patternRoot.children.clear();
+        hasPatterns = false;
+        matched = new ConcurrentHashMap<>();
     }
     
     /**
@@ -146,57 +410,276 @@ import org.apache.commons.logging.LogFactory;
      * 
      * @param eventName Name of the event.
      * @param eventData The associated event data.
+     * @return The number of subscribers notified.
+     */
+    public int invokeCallbacks(String eventName, T eventData) {
+        return invokeCallbacks(eventName, eventData, null);
+    }
+    
+    /**
+     * Invokes callbacks on all subscribers of this and parent events, followed by subscribers of
+     * matching patterns, optionally recording the time spent in each callback. This is repeated
+     * for each priority lane, from highest to lowest priority.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData The associated event data.
+     * @param tracer If not null and enabled, receives callback timings.
+     * @return The number of subscribers notified.
+     */
+    public int invokeCallbacks(String eventName, T eventData, EventTracer tracer) {
+        tracer = tracer != null && tracer.isEnabled() ? tracer : null;
+        Node<T> first = resolve(eventName);
+        List<Node<T>> matches = match(eventName);
+        int count = 0;
+        
+        for (int lane = 0; lane < PRIORITIES.length; lane++) {
+            for (Node<T> node = first; node != root; node = node.parent) {
+                count += invokeCallbacks(node.subscribers[lane], eventName, eventData, tracer);
+            }
+        
+            for (Node<T> node : matches) {
+                count += invokeCallbacks(node.subscribers[lane], eventName, eventData, tracer);
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Invokes callbacks on a single lane of subscribers.
+     * 
+     * @param subscribers The subscribers.
+     * @param eventName Name of the event.
+     * @param eventData The associated event data.
+     * @param tracer If not null, receives callback timings.
+     * @return The number of subscribers notified.
      */
-    public void invokeCallbacks(String eventName, T eventData) {
-        String name = eventName;
-        
-        while (!StringUtils.isEmpty(name)) {
-            Iterable<IGenericEvent<T>> subscribers = getSubscribers(name);
-            
-            if (subscribers != null) {
-                for (IGenericEvent<T> subscriber : subscribers) {
-                    try {
-                        if (log.isDebugEnabled()) {
-                            log.debug(String.format("Firing local Event[name=%s,data=%s]", eventName, eventData));
-                        }
-                        subscriber.eventCallback(eventName, eventData);
-                    } catch (Throwable e) {
-                        log.error("Error during local event callback.", e);
-                    }
+    private int invokeCallbacks(IGenericEvent<T>[] subscribers, String eventName, T eventData, EventTracer tracer) {
+        for (IGenericEvent<T> subscriber : subscribers) {
+            long start = tracer != null ? System.nanoTime() : 0;
+            
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Firing local Event[name=%s,data=%s]", eventName, eventData));
                 }
+                subscriber.eventCallback(eventName, eventData);
+            } catch (Throwable e) {
+                log.error("Error during local event callback.", e);
             }
             
-            name = stripLevel(name);
+            if (tracer != null) {
+                tracer.recordCallback(eventName, subscriber, System.nanoTime() - start);
+            }
         }
+        
+        return subscribers.length;
     }
     
     /**
-     * Gets the list of subscribers associated with an event.
+     * Returns the deepest trie node that matches the event or one of its parent events. Results are
+     * cached until the next structural change to the trie.
      * 
      * @param eventName Name of the event.
-     * @param canCreate If true and the list does not exist, create it.
-     * @return The requested list; may be null.
+     * @return The matching node, or the root node if no match was found.
      */
-    private List<IGenericEvent<T>> getSubscribers(String eventName, boolean canCreate) {
-        List<IGenericEvent<T>> subscribers = subscriptions.get(eventName);
+    private Node<T> resolve(String eventName) {
+        if (StringUtils.isEmpty(eventName)) {
+            return root;
+        }
+        
+        Node<T> node = nodes.get(eventName);
         
-        if (subscribers == null && canCreate) {
-            subscribers = new LinkedList<>();
-            subscriptions.put(eventName, subscribers);
+        if (node != null) {
+            return node;
         }
         
-        return subscribers;
+        Map<String, Node<T>> resolved = this.resolved;
+        node = resolved.get(eventName);
+        
+        if (node == null) {
+            EventName name = EventName.valueOf(eventName);
+            
+            do {
+                name = name.getParent();
+                node = name == null ? root : nodes.get(name.getName());
+            } while (node == null);
+            
+            if (resolved.size() < MAX_RESOLVED) {
+                resolved.put(eventName, node);
+            }
+        }
+        
+        return node;
+    }
+    
+    /**
+     * Returns the pattern trie nodes with subscribers that match the event or one of its parent
+     * events. The pattern trie is traversed as a nondeterministic automaton, one event name segment
+     * at a time, so the cost is proportional to the depth of the event name rather than to the
+     * number of patterns. Results are cached until the next change to pattern subscriptions.
+     * 
+     * @param eventName Name of the event.
+     * @return The matching nodes (never null).
+     */
+    private List<Node<T>> match(String eventName) {
+        if (!hasPatterns || StringUtils.isEmpty(eventName)) {
+            return Collections.emptyList();
+        }
+        
+        Map<String, List<Node<T>>> matched = this.matched;
+        List<Node<T>> result = matched.get(eventName);
+        
+        if (result != null) {
+            return result;
+        }
+        
+        result = new ArrayList<>();
+        List<Node<T>> states = new ArrayList<>();
+        addState(states, patternRoot);
+        int start = 0;
+        
+        while (start <= eventName.length() && !states.isEmpty()) {
+            int end = eventName.indexOf('.', start);
+            end = end < 0 ? eventName.length() : end;
+            String segment = eventName.substring(start, end);
+            List<Node<T>> next = new ArrayList<>();
+            
+            for (Node<T> state : states) {
+                if (state.anyLevels) {
+                    addState(next, state);
+                }
+                
+                addState(next, state.children.get(segment));
+                addState(next, state.children.get(ANY_LEVEL));
+            }
+            
+            for (Node<T> state : next) {
+                if (state.hasSubscribers() && !result.contains(state)) {
+                    result.add(state);
+                }
+            }
+            
+            states = next;
+            start = end + 1;
+        }
+        
+        result = result.isEmpty() ? Collections.<Node<T>> emptyList() : result;
+        
+        if (matched.size() < MAX_RESOLVED) {
+            matched.put(eventName, result);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Adds a state to the active state list, along with any state reachable from it by matching
+     * zero levels.
+     * 
+     * @param states The active state list.
+     * @param node The state to add (may be null).
+     */
+    private void addState(List<Node<T>> states, Node<T> node) {
+        if (node != null && !states.contains(node)) {
+            states.add(node);
+            addState(states, node.children.get(ANY_LEVELS));
+        }
+    }
+    
+    /**
+     * Invalidates cached pattern matches if the event name is a pattern.
+     * 
+     * @param eventName Name of the event.
+     */
+    private void updatePatterns(String eventName) {
+        if (isPattern(eventName)) {
+            hasPatterns = !patterns.isEmpty();
+            matched = new ConcurrentHashMap<>();
+        }
+    }
+    
+    /**
+     * Returns the trie node associated with an event or pattern.
+     * 
+     * @param eventName Name of the event or pattern.
+     * @param canCreate If true and the node does not exist, create it and any missing ancestors.
+     * @return The requested node; may be null.
+     */
+    private Node<T> getNode(String eventName, boolean canCreate) {
+        boolean pattern = isPattern(eventName);
+        eventName = pattern ? normalize(eventName) : eventName;
+        Map<String, Node<T>> nodes = pattern ? patterns : this.nodes;
+        Node<T> node = nodes.get(eventName);
+        
+        if (node != null || !canCreate) {
+            return node;
+        }
+        
+        node = pattern ? patternRoot : root;
+        int start = 0;
+        
+        while (start <= eventName.length()) {
+            int end = eventName.indexOf('.', start);
+            end = end < 0 ? eventName.length() : end;
+            String segment = eventName.substring(start, end);
+            Node<T> child = node.children.get(segment);
+            
+            if (child == null) {
+                child = new Node<>(eventName.substring(0, end), node, noSubscribers);
+                node.children.put(segment, child);
+                nodes.put(child.eventName, child);
+            }
+            
+            node = child;
+            start = end + 1;
+        }
+        
+        resolved = new ConcurrentHashMap<>();
+        return node;
+    }
+    
+    /**
+     * Removes the node and any ancestors that no longer have subscribers or descendants.
+     * 
+     * @param node The node to prune.
+     * @param nodes The index containing the node.
+     */
+    private void prune(Node<T> node, Map<String, Node<T>> nodes) {
+        boolean pruned = false;
+        
+        while (node.parent != null && node.isEmpty()) {
+            node.parent.children.values().remove(node);
+            nodes.remove(node.eventName);
+            node = node.parent;
+            pruned = true;
+        }
+        
+        if (pruned) {
+            resolved = new ConcurrentHashMap<>();
+        }
+    }
+    
+    /**
+     * Creates a subscriber array of the specified size.
+     * 
+     * @param size Size of the array.
+     * @return The new array.
+     */
+    @SuppressWarnings("unchecked")
+    private IGenericEvent<T>[] newArray(int size) {
+        return new IGenericEvent[size];
     }
     
     /**
-     * Strips the lowest hierarchical level from the event type.
+     * Creates a set of empty subscriber lanes, one per priority.
      * 
-     * @param eventName Event type.
-     * @return Event type with the lowest level removed.
+     * @return The new lanes.
      */
-    private String stripLevel(String eventName) {
-        int i = eventName.lastIndexOf('.');
-        return i > 1 ? eventName.substring(0, i) : "";
+    @SuppressWarnings("unchecked")
+    private IGenericEvent<T>[][] newLanes() {
+        IGenericEvent<T>[][] lanes = new IGenericEvent[PRIORITIES.length][];
+        Arrays.fill(lanes, newArray(0));
+        return lanes;
     }
     
 }
@@ -0,0 +1,359 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Records event activity into a fixed-size ring buffer when tracing is enabled. The buffer's slots
+ * are preallocated and reused, so recording an entry allocates nothing. Writers do not lock, so
+ * tracing may be toggled at runtime on a production node. Each slot is guarded by a sequence lock:
+ * a writer marks the slot as being written, fills it and then publishes it under its sequence
+ * number, and readers copy a slot out only if it was published, and not rewritten, while they read
+ * it. Older entries are overwritten once the buffer wraps. Readers take a best-effort snapshot;
+ * entries overwritten or not yet published while a snapshot is taken are skipped.
+ */
+@ManagedResource(description = "Event trace recorder.")
+public class EventTracer {
+    
+    /**
+     * A snapshot of a single trace entry.
+     */
+    public static class TraceRecord {
+        
+        private final long sequence;
+        
+        private final long timestamp;
+        
+        private final String eventName;
+        
+        private final String threadName;
+        
+        private final String subscriber;
+        
+        private final boolean remote;
+        
+        private final int subscriberCount;
+        
+        private final long elapsed;
+        
+        private TraceRecord(long sequence, long timestamp, String eventName, String threadName, String subscriber,
+            boolean remote, int subscriberCount, long elapsed) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.eventName = eventName;
+            this.threadName = threadName;
+            this.subscriber = subscriber;
+            this.remote = remote;
+            this.subscriberCount = subscriberCount;
+            this.elapsed = elapsed;
+        }
+        
+        /**
+         * @return The sequence number of this entry.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+        
+        /**
+         * @return The time (in milliseconds) at which the entry was recorded.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+        
+        /**
+         * @return The name of the event.
+         */
+        public String getEventName() {
+            return eventName;
+        }
+        
+        /**
+         * @return The name of the thread that fired the event.
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+        
+        /**
+         * @return The class name of the subscriber, or null if this entry records an event
+         *         dispatch.
+         */
+        public String getSubscriber() {
+            return subscriber;
+        }
+        
+        /**
+         * @return True if this entry records a remote event dispatch.
+         */
+        public boolean isRemote() {
+            return remote;
+        }
+        
+        /**
+         * @return The number of subscribers notified, or -1 if not applicable.
+         */
+        public int getSubscriberCount() {
+            return subscriberCount;
+        }
+        
+        /**
+         * @return The elapsed time in nanoseconds.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(sequence).append(' ').append(String.format("%tT.%<tL", timestamp)).append(" [").append(threadName)
+                    .append("] ");
+            
+            if (subscriber != null) {
+                sb.append("callback ").append(eventName).append(" -> ").append(subscriber);
+            } else {
+                sb.append(remote ? "remote " : "local ").append(eventName);
+                
+                if (subscriberCount >= 0) {
+                    sb.append(" (").append(subscriberCount).append(" subscriber(s))");
+                }
+            }
+            
+            sb.append(": ").append(TimeUnit.NANOSECONDS.toMicros(elapsed)).append(" us");
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * A preallocated, reusable slot in the ring buffer. The fields are volatile so that a reader
+     * cannot see them out of order with respect to the slot's state.
+     */
+    private static class Slot {
+        
+        /**
+         * 0 if the slot is empty, otherwise 2 * sequence + 1 while the entry with that sequence
+         * number is being written and 2 * sequence + 2 once it has been published.
+         */
+        private final AtomicLong state = new AtomicLong();
+        
+        private volatile long timestamp;
+        
+        private volatile String eventName;
+        
+        private volatile Thread thread;
+        
+        private volatile String subscriber;
+        
+        private volatile boolean remote;
+        
+        private volatile int subscriberCount;
+        
+        private volatile long elapsed;
+    }
+    
+    private final Slot[] entries;
+    
+    private final int mask;
+    
+    private final AtomicLong sequence = new AtomicLong();
+    
+    private volatile long cleared;
+    
+    private volatile boolean enabled;
+    
+    /**
+     * Creates a tracer with the specified capacity.
+     * 
+     * @param capacity Maximum number of entries retained. This is rounded up to the next power of
+     *            two.
+     */
+    public EventTracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        entries = new Slot[size];
+        
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Slot();
+        }
+    }
+    
+    /**
+     * @return True if tracing is enabled.
+     */
+    @ManagedAttribute(description = "Enables or disables event tracing.")
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * @param enabled Set to true to enable tracing.
+     */
+    @ManagedAttribute(description = "Enables or disables event tracing.")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * @return The maximum number of entries retained.
+     */
+    @ManagedAttribute(description = "Maximum number of trace entries retained.")
+    public int getCapacity() {
+        return entries.length;
+    }
+    
+    /**
+     * @return The total number of entries recorded since the last reset.
+     */
+    @ManagedAttribute(description = "Total number of trace entries recorded.")
+    public long getRecordCount() {
+        return sequence.get() - cleared;
+    }
+    
+    /**
+     * Records the dispatch of an event.
+     * 
+     * @param eventName Name of the event.
+     * @param remote True if this was a remote dispatch.
+     * @param subscriberCount The number of subscribers notified, or -1 if not applicable.
+     * @param elapsed Elapsed time in nanoseconds.
+     */
+    public void recordEvent(String eventName, boolean remote, int subscriberCount, long elapsed) {
+        record(eventName, null, remote, subscriberCount, elapsed);
+    }
+    
+    /**
+     * Records the invocation of a single subscriber's callback.
+     * 
+     * @param eventName Name of the event.
+     * @param subscriber The subscriber.
+     * @param elapsed Elapsed time in nanoseconds.
+     */
+    public void recordCallback(String eventName, IGenericEvent<?> subscriber, long elapsed) {
+        record(eventName, subscriber.getClass().getName(), false, -1, elapsed);
+    }
+    
+    private void record(String eventName, String subscriber, boolean remote, int subscriberCount, long elapsed) {
+        if (!enabled) {
+            return;
+        }
+        
+        long seq = sequence.getAndIncrement();
+        Slot slot = entries[(int) seq & mask];
+        long state;
+        
+        // A writer delayed by a full turn of the ring must not replace a newer entry. A writer that
+        // finds an older entry still being written yields until it is published, which happens
+        // only if writers lap the entire ring while that entry is written.
+        while (true) {
+            state = slot.state.get();
+            
+            if (state != 0 && (state - 1) / 2 >= seq) {
+                return;
+            }
+            
+            if ((state & 1) != 0) {
+                Thread.yield();
+            } else if (slot.state.compareAndSet(state, 2 * seq + 1)) {
+                break;
+            }
+        }
+        
+        slot.timestamp = System.currentTimeMillis();
+        slot.eventName = eventName;
+        slot.thread = Thread.currentThread();
+        slot.subscriber = subscriber;
+        slot.remote = remote;
+        slot.subscriberCount = subscriberCount;
+        slot.elapsed = elapsed;
+        slot.state.set(2 * seq + 2);
+    }
+    
+    /**
+     * Returns a snapshot of the recorded entries, oldest first.
+     * 
+     * @return List of trace records.
+     */
+    public List<TraceRecord> getRecords() {
+        long first = cleared;
+        long last = sequence.get();
+        first = Math.max(first, last - entries.length);
+        List<TraceRecord> records = new ArrayList<>((int) Math.max(0, last - first));
+        
+        for (long seq = first; seq < last; seq++) {
+            Slot slot = entries[(int) seq & mask];
+            long state = 2 * seq + 2;
+            
+            if (slot.state.get() != state) {
+                continue;
+            }
+            
+            TraceRecord record = new TraceRecord(seq, slot.timestamp, slot.eventName, slot.thread.getName(),
+                    slot.subscriber, slot.remote, slot.subscriberCount, slot.elapsed);
+            
+            if (slot.state.get() == state) {
+                records.add(record);
+            }
+        }
+        
+        return records;
+    }
+    
+    /**
+     * Returns the recorded entries as text, one per line.
+     * 
+     * @return Text representation of the trace buffer.
+     */
+    @ManagedOperation(description = "Returns the contents of the trace buffer.")
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        
+        for (TraceRecord record : getRecords()) {
+            sb.append(record).append('\n');
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Discards all recorded entries. Sequence numbers are not reset, so entries being recorded
+     * concurrently are either discarded or retained in full.
+     */
+    @ManagedOperation(description = "Clears the trace buffer.")
+    public synchronized void clear() {
+        cleared = sequence.get();
+    }
+    
+}
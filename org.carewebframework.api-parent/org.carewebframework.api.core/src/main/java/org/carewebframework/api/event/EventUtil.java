@@ -38,7 +38,7 @@ public class EventUtil {
     
     private static final Log log = LogFactory.getLog(EventUtil.class);
     
-    private static final String EVENT_PREFIX = "cwf-event-";
+    /*package*/static final String EVENT_PREFIX = "cwf-event-";
 
     public static final String STATUS_EVENT = "STATUS";
     
@@ -95,7 +95,7 @@ public class EventUtil {
      * @return The channel name.
      */
     public static String getChannelName(String eventName) {
-        return eventName == null ? null : EVENT_PREFIX + eventName.split("\\.", 2)[0];
+        return eventName == null ? null : EventName.valueOf(eventName).getChannelName();
     }
     
     /**
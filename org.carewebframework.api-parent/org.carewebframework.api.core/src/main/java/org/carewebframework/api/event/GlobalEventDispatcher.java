@@ -26,34 +26,104 @@
 package org.carewebframework.api.event;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.carewebframework.api.FrameworkUtil;
 import org.carewebframework.api.domain.IUser;
 import org.carewebframework.api.messaging.ConsumerService;
 import org.carewebframework.api.messaging.IMessageConsumer;
 import org.carewebframework.api.messaging.IPublisherInfo;
 import org.carewebframework.api.messaging.Message;
-import org.carewebframework.api.messaging.MessageUtil;
 import org.carewebframework.api.messaging.ProducerService;
 import org.carewebframework.api.messaging.PublisherInfo;
 import org.carewebframework.api.messaging.Recipient;
 import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.carewebframework.api.messaging.RecipientMatcher;
 import org.carewebframework.api.security.SecurityUtil;
+import org.carewebframework.api.thread.ThreadUtil;
 
 /**
- * Handles global dispatch of events via the messaging framework.
+ * Handles global dispatch of events via the messaging framework. If batching is enabled, outgoing
+ * events are accumulated per channel and published together as a single {@link EventMessageBatch}
+ * when the batch reaches its size limit or its linger time expires. An event whose recipient list
+ * differs from that of the channel's pending batch closes that batch and starts a new one. Closed
+ * batches are published outside of any lock, one at a time per channel and in the order in which
+ * they were closed, so events on a channel are published in the order in which they were fired.
  */
 public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageConsumer.IMessageCallback {
     
+    private static final Log log = LogFactory.getLog(GlobalEventDispatcher.class);
+    
+    /**
+     * Events awaiting publication on a single channel for a single recipient list.
+     */
+    private static class PendingBatch {
+        
+        private final Recipient[] recipients;
+        
+        private final EventMessageBatch message = new EventMessageBatch();
+        
+        PendingBatch(Recipient[] recipients) {
+            this.recipients = recipients;
+        }
+    }
+    
+    /**
+     * Batches awaiting publication on a single channel: the batch accumulating events, if any, and
+     * closed batches ready to be published. At most one thread publishes a channel's batches at
+     * any time.
+     */
+    private static class PendingChannel {
+        
+        private final String channel;
+        
+        private final Queue<PendingBatch> ready = new ArrayDeque<>();
+        
+        private PendingBatch batch;
+        
+        private boolean publishing;
+        
+        PendingChannel(String channel) {
+            this.channel = channel;
+        }
+        
+        /**
+         * Closes the accumulating batch, if any, queuing it for publication.
+         */
+        void close() {
+            if (batch != null) {
+                ready.add(batch);
+                batch = null;
+            }
+        }
+    }
+    
     private PingEventHandler pingEventHandler;
     
     private final ILocalEventDispatcher localEventDispatcher;
     
     private final PublisherInfo publisherInfo = new PublisherInfo();
     
+    private static final RecipientType[] LOCAL_RECIPIENT_TYPES = { RecipientType.USER, RecipientType.APPLICATION,
+            RecipientType.SESSION };
+    
+    private final RecipientMatcher localRecipient = new RecipientMatcher(publisherInfo, LOCAL_RECIPIENT_TYPES);
+    
+    private Recipient[] localRecipients;
+    
     private final String sessionId = UUID.randomUUID().toString();
     
     private final ProducerService producer;
@@ -62,6 +132,22 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
     
     private String appName;
     
+    private final Map<String, PendingChannel> batches = new LinkedHashMap<>();
+    
+    private int batchSize = 1;
+    
+    private int batchBytes = 65536;
+    
+    private long batchLinger;
+    
+    private boolean asynchronous;
+    
+    private EventStatistics eventStatistics;
+    
+    private EventCodecRegistry codecRegistry;
+    
+    private ScheduledExecutorService scheduler;
+    
     /**
      * Create the global event dispatcher.
      * 
@@ -88,6 +174,8 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
         publisherInfo.setConsumerId(consumer.getNodeId());
         publisherInfo.setProducerId(producer.getNodeId());
         publisherInfo.setSessionId(sessionId);
+        localRecipients = getLocalRecipients();
+        consumer.registerRecipients(localRecipients);
         localEventDispatcher.setGlobalEventDispatcher(this);
         pingEventHandler = new PingEventHandler((IEventManager) localEventDispatcher, publisherInfo);
         pingEventHandler.init();
@@ -100,6 +188,33 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
         if (pingEventHandler != null) {
             pingEventHandler.destroy();
         }
+        
+        flush();
+        
+        if (localRecipients != null) {
+            consumer.unregisterRecipients(localRecipients);
+            localRecipients = null;
+        }
+    }
+    
+    /**
+     * Returns the recipients that identify this dispatcher, i.e., those recipient types matched by
+     * the local recipient filter that have a value.
+     * 
+     * @return The local recipients.
+     */
+    private Recipient[] getLocalRecipients() {
+        List<Recipient> recipients = new ArrayList<>();
+        
+        for (RecipientType recipientType : LOCAL_RECIPIENT_TYPES) {
+            String value = publisherInfo.get(recipientType);
+            
+            if (value != null) {
+                recipients.add(new Recipient(recipientType, value));
+            }
+        }
+        
+        return recipients.toArray(new Recipient[recipients.size()]);
     }
     
     /**
@@ -124,9 +239,242 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
      * @param recipients Optional list of recipients for the event.
      */
     @Override
-    public void fireRemoteEvent(String eventName, Serializable eventData, Recipient... recipients) {
-        Message message = new EventMessage(eventName, eventData);
-        producer.publish(EventUtil.getChannelName(eventName), message, recipients);
+    public void fireRemoteEvent(String eventName, Object eventData, Recipient... recipients) {
+        fireRemoteEvent(EventName.valueOf(eventName), eventData, recipients);
+    }
+    
+    /**
+     * Queues the specified event for delivery via the messaging service. If a codec applies to the
+     * event, the event data is encoded and the codec's name is recorded in the message metadata;
+     * otherwise, the event data must be serializable. If batching is enabled, the event is added to
+     * the pending batch for its channel, which is published once full or when its linger time
+     * expires. If the pending batch has different recipients, it is closed and a new batch begun.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData Data object associated with the event.
+     * @param recipients Optional list of recipients for the event.
+     */
+    @Override
+    public void fireRemoteEvent(EventName eventName, Object eventData, Recipient... recipients) {
+        String channelName = eventName.getChannelName();
+        IEventCodec codec = codecRegistry == null ? null : codecRegistry.select(eventName.getName(), eventData);
+        String codecName = codec == null ? null : codec.getName();
+        Serializable payload = codec == null ? (Serializable) eventData : codec.encode(eventData);
+        ScheduledExecutorService scheduler = isBatching() ? getScheduler() : null;
+        
+        if (scheduler == null) {
+            send(channelName, createMessage(eventName.getName(), payload, codecName), recipients);
+            return;
+        }
+        
+        final PendingChannel pending;
+        final PendingBatch batch;
+        boolean created = false;
+        
+        synchronized (batches) {
+            PendingChannel existing = batches.get(channelName);
+            
+            if (existing == null) {
+                batches.put(channelName, existing = new PendingChannel(channelName));
+            }
+            
+            pending = existing;
+            
+            if (pending.batch != null && !Arrays.equals(pending.batch.recipients, recipients)) {
+                pending.close();
+            }
+            
+            if (pending.batch == null) {
+                pending.batch = new PendingBatch(recipients);
+                created = true;
+            }
+            
+            batch = pending.batch;
+            batch.message.add(eventName.getName(), payload, codecName);
+            
+            if (batch.message.getCount() >= batchSize || batch.message.getSize() >= batchBytes) {
+                pending.close();
+            }
+        }
+        
+        if (created) {
+            try {
+                scheduler.schedule(new Runnable() {
+                
+                    @Override
+                    public void run() {
+                        close(pending, batch);
+                        publish(pending);
+                    }
+                
+                }, batchLinger, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to schedule publication of event batch for " + channelName);
+                close(pending, batch);
+            }
+        }
+            
+        publish(pending);
+    }
+    
+    /**
+     * Closes a channel's accumulating batch if it is the specified batch.
+     * 
+     * @param pending The channel's pending batches.
+     * @param batch The batch to close.
+     */
+    private void close(PendingChannel pending, PendingBatch batch) {
+        synchronized (batches) {
+            if (pending.batch == batch) {
+                pending.close();
+            }
+        }
+    }
+    
+    /**
+     * Immediately publishes all pending event batches.
+     */
+    public void flush() {
+        List<PendingChannel> channels;
+        
+        synchronized (batches) {
+            channels = new ArrayList<>(batches.values());
+            
+            for (PendingChannel pending : channels) {
+                pending.close();
+            }
+        }
+        
+        for (PendingChannel pending : channels) {
+            publish(pending);
+        }
+    }
+    
+    /**
+     * Publishes a channel's closed batches in order, unless another thread is already doing so. A
+     * batch containing a single event is published as an ordinary event message. No lock is held
+     * during publication.
+     * 
+     * @param pending The channel's pending batches.
+     */
+    private void publish(PendingChannel pending) {
+        synchronized (batches) {
+            if (pending.publishing || pending.ready.isEmpty()) {
+                return;
+            }
+        
+            pending.publishing = true;
+        }
+        
+        while (true) {
+            PendingBatch batch;
+        
+            synchronized (batches) {
+                batch = pending.ready.poll();
+                
+                if (batch == null) {
+                    pending.publishing = false;
+                    
+                    if (pending.batch == null && batches.get(pending.channel) == pending) {
+                        batches.remove(pending.channel);
+                    }
+                    
+                    return;
+                }
+            }
+            
+            EventMessageBatch message = batch.message;
+            
+            try {
+                if (message.getCount() == 1) {
+                    EventMessageBatch.Entry entry = message.getEntries().get(0);
+                    Message single = createMessage(entry.getEventName(), entry.getEventData(), entry.getCodec());
+                    send(pending.channel, single, batch.recipients);
+                } else {
+                    send(pending.channel, message, batch.recipients);
+                }
+            } catch (Throwable e) {
+                log.error("Error publishing event batch for " + pending.channel, e);
+            }
+        }
+    }
+    
+    /**
+     * Hands a message to the producer service, either synchronously or asynchronously.
+     * 
+     * @param channel The channel on which to publish the message.
+     * @param message The message to publish.
+     * @param recipients Optional list of recipients for the message.
+     */
+    private void send(String channel, Message message, Recipient[] recipients) {
+        if (asynchronous) {
+            producer.publishAsync(channel, message, recipients);
+        } else {
+            producer.publish(channel, message, recipients);
+        }
+    }
+    
+    /**
+     * Creates a message for a single event.
+     * 
+     * @param eventName Name of the event.
+     * @param payload The event data, possibly encoded.
+     * @param codecName Name of the codec used to encode the event data, or null if not encoded.
+     * @return The event message.
+     */
+    private Message createMessage(String eventName, Serializable payload, String codecName) {
+        Message message = new EventMessage(eventName, payload);
+        message.setMetadata(EventCodecRegistry.CODEC_METADATA, codecName);
+        return message;
+    }
+    
+    /**
+     * Decodes event data using the named codec.
+     * 
+     * @param codecName Name of the codec used to encode the event data, or null if not encoded.
+     * @param payload The event data as received.
+     * @return The decoded event data.
+     */
+    private Object decode(String codecName, Object payload) {
+        if (codecName == null) {
+            return payload;
+        }
+        
+        IEventCodec codec = codecRegistry == null ? null : codecRegistry.get(codecName);
+        
+        if (codec == null) {
+            throw new IllegalStateException("Unsupported event codec: " + codecName);
+        }
+        
+        return codec.decode((Serializable) payload);
+    }
+    
+    /**
+     * Returns true if outgoing events are to be batched.
+     * 
+     * @return True if batching is enabled.
+     */
+    private boolean isBatching() {
+        return batchSize > 1 && batchLinger > 0;
+    }
+    
+    /**
+     * Returns the scheduler used to publish batches when their linger time expires.
+     * 
+     * @return The scheduler. If none was set, the framework's task scheduler is returned (may be
+     *         null).
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler != null ? scheduler : ThreadUtil.getTaskScheduler();
+    }
+    
+    /**
+     * Sets the scheduler used to publish batches when their linger time expires.
+     * 
+     * @param scheduler The scheduler. If null, the framework's task scheduler is used.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
     }
     
     /**
@@ -139,7 +487,7 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
     
     /**
      * Returns the application name.
-     *
+     * 
      * @return Application name.
      */
     protected String getAppName() {
@@ -152,7 +500,7 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
     
     /**
      * Allow for IOC injection of application name.
-     *
+     * 
      * @param appName Application name.
      */
     public void setAppName(String appName) {
@@ -162,7 +510,7 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
     /**
      * Delivery the event to local subscribers. This may be overridden to provide alternate means
      * for delivering events.
-     *
+     * 
      * @param eventName The name of the event.
      * @param eventData Data associated with the event.
      */
@@ -172,7 +520,7 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
     
     /**
      * Sends a CONNECT/DISCONNECT event for subscribers
-     *
+     * 
      * @param connected If true, send a CONNECT event. If false, send a DISCONNECT event.
      */
     protected void updateConnectionStatus(boolean connected) {
@@ -181,7 +529,7 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
     
     /**
      * Override to do any special setup prior to processing of messages.
-     *
+     * 
      * @return True if OK to proceed.
      */
     protected boolean beginMessageProcessing() {
@@ -192,20 +540,170 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
      * Override to do any special teardown after processing of messages.
      */
     protected void endMessageProcessing() {
-        
+    
     }
     
+    /**
+     * Delivers a received message to local subscribers. For an event batch, the recipient
+     * constraints are checked once for the envelope and each event is then delivered in order.
+     * Encoded event data is decoded using the codec named in the message metadata.
+     */
     @Override
     public void onMessage(String channel, Message message) {
-        if (!isMessageExcluded(message)) {
-            localEventDelivery(message.getType(), message.getPayload());
+        if (isMessageExcluded(message)) {
+            return;
+        }
+        
+        if (message instanceof EventMessageBatch) {
+            for (EventMessageBatch.Entry entry : ((EventMessageBatch) message).getEntries()) {
+                deliver(entry.getEventName(), entry.getEventData(), entry.getCodec());
+            }
+        } else {
+            String codecName = (String) message.getMetadata(EventCodecRegistry.CODEC_METADATA);
+            deliver(message.getType(), message.getPayload(), codecName);
         }
     }
     
+    /**
+     * Decodes a received event and delivers it to local subscribers.
+     * 
+     * @param eventName The name of the event.
+     * @param payload The event data as received.
+     * @param codecName Name of the codec used to encode the event data, or null if not encoded.
+     */
+    private void deliver(String eventName, Object payload, String codecName) {
+        EventStatistics statistics = eventStatistics;
+        
+        if (statistics != null) {
+            statistics.recordReceived(eventName);
+        }
+                
+        Object eventData;
+            
+        try {
+            eventData = decode(codecName, payload);
+        } catch (Exception e) {
+            log.error("Error decoding data for remote event " + eventName, e);
+            return;
+        }
+        
+        localEventDelivery(eventName, eventData);
+    }
+    
     private boolean isMessageExcluded(Message message) {
-        return MessageUtil.isMessageExcluded(message, RecipientType.USER, publisherInfo.getUserId())
-                || MessageUtil.isMessageExcluded(message, RecipientType.APPLICATION, publisherInfo.getAppName())
-                || MessageUtil.isMessageExcluded(message, RecipientType.SESSION, publisherInfo.getSessionId());
+        return localRecipient.isExcluded(message);
+    }
+    
+    /**
+     * Returns the maximum number of events in a batch.
+     * 
+     * @return Maximum events per batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * Sets the maximum number of events in a batch. A value of 1 or less disables batching.
+     * 
+     * @param batchSize Maximum events per batch.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Returns the approximate size, in bytes, at which a batch is published.
+     * 
+     * @return Batch size limit in bytes.
+     */
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+    
+    /**
+     * Sets the approximate size, in bytes, at which a batch is published.
+     * 
+     * @param batchBytes Batch size limit in bytes.
+     */
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+    
+    /**
+     * Returns the maximum time, in milliseconds, that an event may wait in a batch before it is
+     * published.
+     * 
+     * @return Linger time in milliseconds.
+     */
+    public long getBatchLinger() {
+        return batchLinger;
+    }
+    
+    /**
+     * Sets the maximum time, in milliseconds, that an event may wait in a batch before it is
+     * published. A value of 0 disables batching.
+     * 
+     * @param batchLinger Linger time in milliseconds.
+     */
+    public void setBatchLinger(long batchLinger) {
+        this.batchLinger = batchLinger;
+    }
+    
+    /**
+     * Returns true if messages are handed to the producer service asynchronously.
+     * 
+     * @return True if publication is asynchronous.
+     */
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+    
+    /**
+     * Sets whether messages are handed to the producer service asynchronously. If true, firing a
+     * remote event does not wait for the message to be published by the underlying producers.
+     * 
+     * @param asynchronous True if publication is asynchronous.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+    
+    /**
+     * Returns the collector of per-event statistics.
+     * 
+     * @return The event statistics (may be null).
+     */
+    public EventStatistics getEventStatistics() {
+        return eventStatistics;
+    }
+    
+    /**
+     * Sets the collector of per-event statistics.
+     * 
+     * @param eventStatistics The event statistics (may be null).
+     */
+    public void setEventStatistics(EventStatistics eventStatistics) {
+        this.eventStatistics = eventStatistics;
+    }
+    
+    /**
+     * Returns the registry of codecs for remote event data.
+     * 
+     * @return The codec registry (may be null).
+     */
+    public EventCodecRegistry getCodecRegistry() {
+        return codecRegistry;
+    }
+    
+    /**
+     * Sets the registry of codecs for remote event data. If null, all event data is transported
+     * using Java serialization.
+     * 
+     * @param codecRegistry The codec registry (may be null).
+     */
+    public void setCodecRegistry(EventCodecRegistry codecRegistry) {
+        this.codecRegistry = codecRegistry;
     }
     
     @Override
@@ -214,5 +712,5 @@ public class GlobalEventDispatcher implements IGlobalEventDispatcher, IMessageCo
         PingRequest pingRequest = new PingRequest(responseEvent, filters, requestor);
         fireRemoteEvent(PingEventHandler.EVENT_PING_REQUEST, pingRequest, recipients);
     }
-    
+
 }
@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.io.Serializable;
+
+/**
+ * Interface for codecs that convert remote event data to and from a compact, class-independent
+ * wire form. The name of the codec used to encode event data is carried in the message metadata so
+ * that the receiver can select the matching codec. Event data not handled by a codec is
+ * transported using Java serialization.
+ */
+public interface IEventCodec {
+    
+    /**
+     * Returns the unique name of this codec. This is the name carried in the message metadata.
+     * 
+     * @return The codec name.
+     */
+    String getName();
+    
+    /**
+     * Returns true if this codec is able to encode the event data.
+     * 
+     * @param eventData The event data.
+     * @return True if the data can be encoded.
+     */
+    boolean canEncode(Object eventData);
+    
+    /**
+     * Encodes event data into its wire form.
+     * 
+     * @param eventData The event data.
+     * @return The encoded data.
+     */
+    Serializable encode(Object eventData);
+    
+    /**
+     * Decodes event data from its wire form.
+     * 
+     * @param encoded The encoded data.
+     * @return The decoded event data.
+     */
+    Object decode(Serializable encoded);
+    
+}
@@ -57,6 +57,25 @@ public interface IEventManager {
      */
     void fireLocalEvent(String eventName, Object eventData);
     
+    /**
+     * Fires the specified event locally.
+     * 
+     * @param eventName Name of the event to fire.
+     * @param eventData Associated data object.
+     */
+    void fireLocalEvent(EventName eventName, Object eventData);
+    
+    /**
+     * Fires the specified event locally with an explicit priority. Where events are queued for
+     * delivery, higher priority events are delivered ahead of queued events of lower priority.
+     * 
+     * @param eventName Name of the event to fire.
+     * @param eventData Associated data object.
+     * @param priority Delivery priority of the event. If null, the priority is determined by
+     *            configuration or by the highest priority of the event's subscribers.
+     */
+    void fireLocalEvent(String eventName, Object eventData, EventPriority priority);
+    
     /**
      * Fires the event remotely via the global event manager.
      * 
@@ -67,20 +86,54 @@ public interface IEventManager {
     void fireRemoteEvent(String eventName, Object eventData, Recipient... recipients);
     
     /**
-     * Register an event subscription.
+     * Fires the event remotely via the global event manager.
      * 
-     * @param eventName Name of event.
+     * @param eventName Name of the event to fire.
+     * @param eventData Associated data object.
+     * @param recipients Optional list of event recipients.
+     */
+    void fireRemoteEvent(EventName eventName, Object eventData, Recipient... recipients);
+    
+    /**
+     * Register an event subscription. The event name may also be a pattern in which a segment of
+     * <code>*</code> matches exactly one level of the event hierarchy and a segment of
+     * <code>**</code> matches zero or more levels (e.g., <code>PATIENT.*.UPDATED</code> or
+     * <code>**.ERROR</code>). As with ordinary subscriptions, a pattern also matches the
+     * descendants of any event it matches.
+     * 
+     * @param eventName Name of event or event pattern.
      * @param subscriber Subscriber to event.
      */
     void subscribe(String eventName, IGenericEvent<?> subscriber);
     
     /**
-     * Unregister an event subscription. If the subscriber has no existing subscription then this
-     * call has no effect.
+     * Register an event subscription with the specified priority. Subscribers of a higher priority
+     * are notified before those of a lower priority and, where events are queued for delivery, an
+     * event is queued at the highest priority of its subscribers.
+     * 
+     * @param eventName Name of event or event pattern.
+     * @param subscriber Subscriber to event.
+     * @param priority Priority of the subscription.
+     */
+    void subscribe(String eventName, IGenericEvent<?> subscriber, EventPriority priority);
+    
+    /**
+     * Register an event subscription with asynchronous delivery. Events are queued in a bounded
+     * mailbox owned by the subscriber and delivered in order on a background thread, so a slow
+     * subscriber does not delay the publisher or other subscribers.
      * 
      * @param eventName Name of event.
      * @param subscriber Subscriber to event.
      */
-    void unsubscribe(String eventName, IGenericEvent<?> subscriber);
+    void subscribeAsync(String eventName, IGenericEvent<?> subscriber);
     
+    /**
+     * Unregister an event subscription, whether synchronous or asynchronous. If the subscriber has
+     * no existing subscription then this call has no effect.
+     * 
+     * @param eventName Name of event.
+     * @param subscriber Subscriber to event.
+     */
+    void unsubscribe(String eventName, IGenericEvent<?> subscriber);
+
 }
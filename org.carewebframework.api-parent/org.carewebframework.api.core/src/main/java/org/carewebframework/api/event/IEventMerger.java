@@ -0,0 +1,44 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+/**
+ * Merges the data of two occurrences of the same event when events are coalesced.
+ * 
+ * @param <T> Event data type.
+ */
+public interface IEventMerger<T> {
+    
+    /**
+     * Merges the data of a pending event with that of a newly fired one.
+     * 
+     * @param eventName Name of the event.
+     * @param pendingData Data of the event awaiting delivery.
+     * @param eventData Data of the newly fired event.
+     * @return The data to be delivered.
+     */
+    T merge(String eventName, T pendingData, T eventData);
+}
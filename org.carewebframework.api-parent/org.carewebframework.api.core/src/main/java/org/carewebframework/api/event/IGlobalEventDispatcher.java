@@ -25,7 +25,6 @@
  */
 package org.carewebframework.api.event;
 
-import java.io.Serializable;
 import java.util.List;
 
 import org.carewebframework.api.messaging.IPublisherInfo;
@@ -55,10 +54,21 @@ public interface IGlobalEventDispatcher {
      * Queues the specified event for delivery via the messaging service.
      * 
      * @param eventName Name of the event.
-     * @param eventData Data object associated with the event.
+     * @param eventData Data object associated with the event. This must be serializable unless a
+     *            codec applies to the event.
      * @param recipients Optional list of recipients for the event.
      */
-    void fireRemoteEvent(String eventName, Serializable eventData, Recipient... recipients);
+    void fireRemoteEvent(String eventName, Object eventData, Recipient... recipients);
+    
+    /**
+     * Queues the specified event for delivery via the messaging service.
+     * 
+     * @param eventName Name of the event.
+     * @param eventData Data object associated with the event. This must be serializable unless a
+     *            codec applies to the event.
+     * @param recipients Optional list of recipients for the event.
+     */
+    void fireRemoteEvent(EventName eventName, Object eventData, Recipient... recipients);
     
     /**
      * @param responseEvent
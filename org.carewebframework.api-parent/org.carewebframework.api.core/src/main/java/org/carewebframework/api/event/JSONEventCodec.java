@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.io.Serializable;
+
+import org.carewebframework.common.JSONUtil;
+
+/**
+ * Encodes event data as JSON text. Type information is included for objects of classes that have a
+ * registered alias.
+ */
+public class JSONEventCodec implements IEventCodec {
+    
+    public static final String NAME = "json";
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    @Override
+    public boolean canEncode(Object eventData) {
+        return true;
+    }
+    
+    @Override
+    public Serializable encode(Object eventData) {
+        return JSONUtil.serialize(eventData);
+    }
+    
+    @Override
+    public Object decode(Serializable encoded) {
+        return JSONUtil.deserialize((String) encoded);
+    }
+    
+}
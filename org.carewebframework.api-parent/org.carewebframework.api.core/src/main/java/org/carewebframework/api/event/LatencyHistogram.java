@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-memory histogram of non-negative values (typically latencies in nanoseconds). Values are
+ * counted in logarithmic buckets: each power of two is divided into four sub-buckets, so that any
+ * reported percentile is within 25% of the true value. Recording is lock-free and never allocates.
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BITS = 2;
+    
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    
+    private static final int BUCKET_COUNT = 64 << SUB_BITS;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    
+    private final LongAdder count = new LongAdder();
+    
+    private final LongAdder sum = new LongAdder();
+    
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Records a value.
+     * 
+     * @param value The value to record. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        buckets.incrementAndGet(getBucket(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+    
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+    
+    /**
+     * @return The sum of all values recorded.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+    
+    /**
+     * @return The mean of all values recorded, or 0 if none.
+     */
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+    
+    /**
+     * @return The largest value recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+    
+    /**
+     * Returns an estimate of the specified percentile. The estimate is the upper bound of the
+     * bucket containing the percentile, but never more than the largest value recorded.
+     * 
+     * @param percentile The percentile (0-100).
+     * @return The estimated value at the percentile, or 0 if no values were recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts[i] = buckets.get(i);
+        }
+        
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long cumulative = 0;
+        
+        for (int i = 0; i < BUCKET_COUNT && total > 0; i++) {
+            cumulative += counts[i];
+            
+            if (cumulative >= target) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Discards all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+    
+    /**
+     * Returns the index of the bucket for a value.
+     * 
+     * @param value The value.
+     * @return The bucket index.
+     */
+    private static int getBucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((msb - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+    
+    /**
+     * Returns the largest value that falls within a bucket.
+     * 
+     * @param bucket The bucket index.
+     * @return The upper bound of the bucket.
+     */
+    private static long getUpperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        
+        int msb = (bucket >> SUB_BITS) + SUB_BITS - 1;
+        long sub = bucket & (SUB_COUNT - 1);
+        long width = 1L << (msb - SUB_BITS);
+        return (1L << msb) + sub * width + width - 1;
+    }
+    
+}
@@ -25,27 +25,55 @@
  */
 package org.carewebframework.api.messaging;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.carewebframework.api.event.LatencyHistogram;
+import org.carewebframework.api.messaging.DeadLetterStore.DeadLetter;
 import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
 import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.carewebframework.api.thread.StripedExecutor;
+import org.carewebframework.api.thread.ThreadUtil;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
-import org.springframework.cache.Cache;
-import org.springframework.cache.CacheManager;
 
 /**
- * Aggregator for multiple consumers.
+ * Aggregator for multiple consumers. If dispatch stripes are configured, messages are delivered to
+ * callbacks on background threads, in order within a channel but concurrently across channels, so
+ * that a slow callback on one channel does not delay other channels. Compressed messages are
+ * decompressed before they are dispatched. If a callback throws an exception, delivery of the
+ * message to that callback is retried after an exponentially increasing delay, up to a maximum
+ * number of retries, after which the message is added to a bounded dead-letter store from which it
+ * may be inspected and replayed. While a retry is pending, later messages on the same channel are
+ * held back from that callback and delivered after the retry, so each callback still receives a
+ * channel's messages in order. Replayed dead letters, however, arrive after any messages delivered
+ * since they failed.
+ * <p>
+ * The service also tracks the identities of local recipients (e.g., users and sessions), which are
+ * offered to consumers that can use them to filter messages at the messaging server.
  */
 public class ConsumerService implements IMessageCallback, DestructionAwareBeanPostProcessor {
     
-    private static final String CACHE_NAME = ConsumerService.class.getPackage().getName();
+    private static final Log log = LogFactory.getLog(ConsumerService.class);
     
     private final Set<IMessageConsumer> consumers = new LinkedHashSet<>();
     
@@ -53,15 +81,51 @@ public class ConsumerService implements IMessageCallback, DestructionAwareBeanPo
     
     private final String nodeId = UUID.randomUUID().toString();
     
-    private final Cache deliveredMessageCache;
+    private final Map<Recipient, Integer> localRecipients = new HashMap<>();
+    
+    private final DeliveredMessageSet deliveredMessages;
+    
+    private final Map<String, LatencyHistogram> callbackTimes = new ConcurrentHashMap<>();
+    
+    private int dispatchStripes;
+    
+    private int dispatchCapacity = StripedExecutor.DEFAULT_CAPACITY;
+    
+    private StripedExecutor dispatcher;
+    
+    private MessageCompressor compressor = new MessageCompressor();
+    
+    private final Map<String, AtomicLong> callbackFailures = new ConcurrentHashMap<>();
+    
+    private final AtomicLong retryCount = new AtomicLong();
+    
+    private DeadLetterStore deadLetters = new DeadLetterStore(1000);
+    
+    private int maxRetries = 3;
+    
+    private long retryDelay = 1000;
+    
+    private long maxRetryDelay = 60000;
+    
+    private ScheduledExecutorService scheduler;
+    
+    private final Map<List<Object>, Queue<Message>> heldBack = new HashMap<>();
+    
+    /**
+     * Creates the service with default limits for tracking delivered messages.
+     */
+    public ConsumerService() {
+        this(10000, 300);
+    }
     
     /**
-     * Access the cache for tracking delivered messages.
+     * Creates the service with the specified limits for tracking delivered messages.
      * 
-     * @param cacheManager Cache manager used to retrieve instance of delivered message cache.
+     * @param deliveredCapacity Maximum number of delivered messages to be tracked.
+     * @param deliveredLife Minimum time, in seconds, that a delivered message is tracked.
      */
-    public ConsumerService(CacheManager cacheManager) {
-        deliveredMessageCache = cacheManager.getCache(CACHE_NAME);
+    public ConsumerService(int deliveredCapacity, int deliveredLife) {
+        deliveredMessages = new DeliveredMessageSet(deliveredCapacity, deliveredLife * 1000L);
     }
     
     /**
@@ -86,6 +150,11 @@ public class ConsumerService implements IMessageCallback, DestructionAwareBeanPo
      */
     public synchronized boolean registerConsumer(IMessageConsumer consumer) {
         consumer.setCallback(this);
+        
+        if (consumer instanceof IRecipientAwareConsumer) {
+            ((IRecipientAwareConsumer) consumer).setLocalRecipients(getLocalRecipients());
+        }
+        
         return consumers.add(consumer);
     }
     
@@ -100,6 +169,78 @@ public class ConsumerService implements IMessageCallback, DestructionAwareBeanPo
         return consumers.remove(consumer);
     }
     
+    /**
+     * Registers local recipients. Registrations are counted, so a recipient remains registered
+     * until it has been unregistered as many times as it was registered.
+     * 
+     * @param recipients The recipients to register.
+     */
+    public synchronized void registerRecipients(Recipient... recipients) {
+        boolean changed = false;
+        
+        for (Recipient recipient : recipients) {
+            Integer count = localRecipients.get(recipient);
+            localRecipients.put(recipient, count == null ? 1 : count + 1);
+            changed |= count == null;
+        }
+        
+        if (changed) {
+            updateLocalRecipients();
+        }
+    }
+    
+    /**
+     * Unregisters local recipients.
+     * 
+     * @param recipients The recipients to unregister.
+     */
+    public synchronized void unregisterRecipients(Recipient... recipients) {
+        boolean changed = false;
+        
+        for (Recipient recipient : recipients) {
+            Integer count = localRecipients.get(recipient);
+            
+            if (count == null) {
+                continue;
+            }
+            
+            if (count == 1) {
+                localRecipients.remove(recipient);
+                changed = true;
+            } else {
+                localRecipients.put(recipient, count - 1);
+            }
+        }
+        
+        if (changed) {
+            updateLocalRecipients();
+        }
+    }
+    
+    /**
+     * Returns the registered local recipients, including this consumer node.
+     * 
+     * @return The local recipients.
+     */
+    public synchronized Set<Recipient> getLocalRecipients() {
+        Set<Recipient> recipients = new HashSet<>(localRecipients.keySet());
+        recipients.add(new Recipient(RecipientType.CONSUMER, nodeId));
+        return Collections.unmodifiableSet(recipients);
+    }
+    
+    /**
+     * Notifies recipient-aware consumers of a change in the local recipients.
+     */
+    private void updateLocalRecipients() {
+        Set<Recipient> recipients = getLocalRecipients();
+        
+        for (IMessageConsumer consumer : consumers) {
+            if (consumer instanceof IRecipientAwareConsumer) {
+                ((IRecipientAwareConsumer) consumer).setLocalRecipients(recipients);
+            }
+        }
+    }
+    
     /**
      * Return the callbacks associated with the specified channel.
      * 
@@ -145,27 +286,75 @@ public class ConsumerService implements IMessageCallback, DestructionAwareBeanPo
      * Callback entry point for all registered consumers.
      */
     @Override
-    public void onMessage(String channel, Message message) {
+    public void onMessage(final String channel, Message message) {
         if (MessageUtil.isMessageExcluded(message, RecipientType.CONSUMER, nodeId)) {
             return;
         }
         
         if (updateDelivered(message)) {
-            LinkedHashSet<IMessageCallback> callbacks = getCallbacks(channel, false, true);
+            final LinkedHashSet<IMessageCallback> callbacks = getCallbacks(channel, false, true);
+            
+            if (callbacks == null) {
+                return;
+            }
+            
+            final Message msg;
+            
+            try {
+                msg = compressor.decompress(message);
+            } catch (Exception e) {
+                log.error("Error decompressing message on channel " + channel, e);
+                return;
+            }
+            
+            StripedExecutor dispatcher = getDispatcher();
             
-            if (callbacks != null) {
-                dispatchMessages(channel, message, callbacks);
+            if (dispatcher == null) {
+                dispatchMessages(channel, msg, callbacks);
+                return;
             }
+            
+            try {
+                dispatcher.execute(channel, new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        dispatchMessages(channel, msg, callbacks);
+                    }
+                    
+                });
+            } catch (RejectedExecutionException e) {
+                log.error("Dispatch queue is full for channel " + channel + ", adding message to dead letters");
+                
+                for (IMessageCallback callback : callbacks) {
+                    deadLetters.add(channel, msg, callback, 0, e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the executor for dispatching messages, creating it if necessary.
+     * 
+     * @return The dispatch executor, or null if messages are to be dispatched on the consumer's
+     *         thread.
+     */
+    private synchronized StripedExecutor getDispatcher() {
+        if (dispatcher == null && dispatchStripes > 0) {
+            Executor executor = ThreadUtil.getTaskExecutor();
+            dispatcher = executor == null ? null : new StripedExecutor(executor, dispatchStripes, dispatchCapacity);
         }
+        
+        return dispatcher;
     }
     
     /**
-     * Updates the delivered message cache. This avoids delivering the same message transported by
-     * different messaging frameworks. If we have only one consumer registered, we don't need to
+     * Updates the set of delivered messages. This avoids delivering the same message transported
+     * by different messaging frameworks. If we have only one consumer registered, we don't need to
      * worry about this.
      * 
      * @param message The message being delivered.
-     * @return True if the cache was updated (i.e., the message has not been previously delivered).
+     * @return True if the set was updated (i.e., the message has not been previously delivered).
      */
     private boolean updateDelivered(Message message) {
         if (consumers.size() <= 1) {
@@ -173,11 +362,12 @@ public class ConsumerService implements IMessageCallback, DestructionAwareBeanPo
         }
         
         String pubid = (String) message.getMetadata("cwf.pub.event");
-        return deliveredMessageCache.putIfAbsent(pubid, "") == null;
+        return pubid == null || deliveredMessages.add(pubid);
     }
     
     /**
-     * Dispatch message to callback. Override to address special threading considerations.
+     * Dispatch message to callback. Override to address special threading considerations. The time
+     * spent in each callback is recorded by callback class.
      * 
      * @param channel The channel that delivered the message.
      * @param message The message to dispatch.
@@ -185,12 +375,502 @@ public class ConsumerService implements IMessageCallback, DestructionAwareBeanPo
      */
     protected void dispatchMessages(String channel, Message message, Set<IMessageCallback> callbacks) {
         for (IMessageCallback callback : callbacks) {
+            dispatchMessage(channel, message, callback);
+        }
+    }
+    
+    /**
+     * Dispatches a message to a single callback, unless a retry is pending for the callback on the
+     * channel, in which case the message is held back until the retry completes. If too many
+     * messages are held back, the message is added to the dead-letter store.
+     * 
+     * @param channel The channel that delivered the message.
+     * @param message The message to dispatch.
+     * @param callback The callback to receive the message.
+     */
+    private void dispatchMessage(String channel, Message message, IMessageCallback callback) {
+        synchronized (heldBack) {
+            Queue<Message> queue = heldBack.isEmpty() ? null : heldBack.get(Arrays.asList(channel, callback));
+            
+            if (queue != null) {
+                if (queue.size() < dispatchCapacity) {
+                    queue.add(message);
+                } else {
+                    RejectedExecutionException e = new RejectedExecutionException(
+                            "Too many messages held back for retry.");
+                    log.error("Error dispatching message on channel " + channel + ", adding to dead letters", e);
+                    deadLetters.add(channel, message, callback, 0, e);
+                }
+                
+                return;
+            }
+        }
+        
+        dispatchMessage(channel, message, callback, 0);
+    }
+    
+    /**
+     * Delivers a message to a single callback, handling any failure.
+     * 
+     * @param channel The channel that delivered the message.
+     * @param message The message to dispatch.
+     * @param callback The callback to receive the message.
+     * @param attempts The number of previous delivery attempts.
+     * @return False if delivery failed and a retry is pending.
+     */
+    private boolean dispatchMessage(String channel, Message message, IMessageCallback callback, int attempts) {
+        long start = System.nanoTime();
+        Exception failure = null;
+        
+        try {
+            callback.onMessage(channel, message);
+        } catch (Exception e) {
+            failure = e;
+        }
+        
+        getCallbackTime(callback.getClass().getName()).record(System.nanoTime() - start);
+        return failure == null || !onFailure(channel, message, callback, attempts + 1, failure);
+    }
+    
+    /**
+     * Handles a callback failure by scheduling a retry or, if retries are exhausted or cannot be
+     * scheduled, by adding the message to the dead-letter store. While the retry is pending, later
+     * messages for the callback on the channel are held back.
+     * 
+     * @param channel The channel that delivered the message.
+     * @param message The message that was dispatched.
+     * @param callback The callback that failed.
+     * @param attempts The number of delivery attempts so far.
+     * @param cause The exception thrown by the callback.
+     * @return True if a retry was scheduled.
+     */
+    private boolean onFailure(final String channel, final Message message, final IMessageCallback callback,
+                              final int attempts, Exception cause) {
+        String callbackClass = callback.getClass().getName();
+        getCallbackFailure(callbackClass).incrementAndGet();
+        ScheduledExecutorService scheduler = attempts <= maxRetries ? getScheduler() : null;
+        
+        if (scheduler != null) {
+            long delay = getRetryDelay(attempts);
+            
             try {
-                callback.onMessage(channel, message);
-            } catch (Exception e) {
+                // Held under the lock so that the retry cannot complete before messages are held back.
+                synchronized (heldBack) {
+                    scheduler.schedule(new Runnable() {
+                
+                        @Override
+                        public void run() {
+                            retry(channel, message, callback, attempts);
+                        }
+                        
+                    }, delay, TimeUnit.MILLISECONDS);
+                    
+                    List<Object> key = Arrays.asList(channel, callback);
+                    
+                    if (!heldBack.containsKey(key)) {
+                        heldBack.put(key, new ArrayDeque<Message>());
+                    }
+                }
+                
+                retryCount.incrementAndGet();
+                log.warn("Error dispatching message on channel " + channel + " to " + callbackClass + " (attempt "
+                        + attempts + "), retrying in " + delay + " ms", cause);
+                return true;
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to schedule retry of message on channel " + channel + ": " + e.getMessage());
+            }
+        }
+        
+        log.error("Error dispatching message on channel " + channel + " to " + callbackClass + " (attempt " + attempts
+                + "), adding to dead letters", cause);
+        deadLetters.add(channel, message, callback, attempts, cause);
+        return false;
+    }
+    
+    /**
+     * Returns the delay before the specified retry, doubling with each attempt up to the maximum.
+     * 
+     * @param attempts The number of delivery attempts so far.
+     * @return The retry delay in milliseconds.
+     */
+    private long getRetryDelay(int attempts) {
+        long delay = retryDelay << Math.min(attempts - 1, 30);
+        return delay < 0 || delay > maxRetryDelay ? maxRetryDelay : delay;
+    }
+    
+    /**
+     * Redelivers a message to a callback and then the messages held back behind it, provided the
+     * callback is still subscribed to the channel. Otherwise, the held back messages are
+     * discarded. Redelivery takes place on the channel's dispatch stripe, if any. If the stripe
+     * rejects the redelivery, the message and those held back behind it are added to the
+     * dead-letter store, in order.
+     * 
+     * @param channel The channel that delivered the message.
+     * @param message The message.
+     * @param callback The callback.
+     * @param attempts The number of previous delivery attempts.
+     */
+    private void retry(final String channel, final Message message, final IMessageCallback callback,
+                       final int attempts) {
+        LinkedHashSet<IMessageCallback> callbacks = getCallbacks(channel, false, true);
+        
+        if (callbacks == null || !callbacks.contains(callback)) {
+            synchronized (heldBack) {
+                heldBack.remove(Arrays.asList(channel, callback));
+            }
+            
+            return;
+        }
+        
+        Runnable task = new Runnable() {
+            
+            @Override
+            public void run() {
+                if (dispatchMessage(channel, message, callback, attempts)) {
+                    release(channel, callback);
+                }
+            }
+            
+        };
+        
+        StripedExecutor dispatcher = getDispatcher();
+        
+        if (dispatcher == null) {
+            task.run();
+            return;
+        }
+        
+        try {
+            dispatcher.execute(channel, task);
+        } catch (RejectedExecutionException e) {
+            log.error("Dispatch queue is full for channel " + channel + ", adding retried message to dead letters", e);
+            deadLetters.add(channel, message, callback, attempts, e);
+            Queue<Message> queue;
+            
+            synchronized (heldBack) {
+                queue = heldBack.remove(Arrays.asList(channel, callback));
+            }
+        
+            if (queue != null) {
+                for (Message held : queue) {
+                    deadLetters.add(channel, held, callback, 0, e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Delivers messages held back from a callback, in order, until none remain or a delivery fails
+     * and is to be retried.
+     * 
+     * @param channel The channel that delivered the messages.
+     * @param callback The callback.
+     */
+    private void release(String channel, IMessageCallback callback) {
+        List<Object> key = Arrays.asList(channel, callback);
+        
+        while (true) {
+            Message message;
+            
+            synchronized (heldBack) {
+                Queue<Message> queue = heldBack.get(key);
+                message = queue == null ? null : queue.poll();
                 
+                if (message == null) {
+                    heldBack.remove(key);
+                    return;
+                }
             }
+            
+            if (!dispatchMessage(channel, message, callback, 0)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Removes a message from the dead-letter store and redelivers it to its callback with a fresh
+     * set of retries. The message is delivered behind any messages held back for the callback.
+     * 
+     * @param id The id of the dead-letter entry.
+     * @return True if the message was submitted for redelivery, false if the entry was not found
+     *         or its callback is no longer subscribed to the channel.
+     */
+    public boolean replayDeadLetter(String id) {
+        DeadLetter deadLetter = deadLetters.remove(id);
+        
+        if (deadLetter == null) {
+            return false;
+        }
+        
+        final String channel = deadLetter.getChannel();
+        final Message message = deadLetter.getMessage();
+        final IMessageCallback callback = deadLetter.getCallback();
+        LinkedHashSet<IMessageCallback> callbacks = getCallbacks(channel, false, true);
+        
+        if (callbacks == null || !callbacks.contains(callback)) {
+            return false;
+        }
+        
+        StripedExecutor dispatcher = getDispatcher();
+        
+        if (dispatcher == null) {
+            dispatchMessage(channel, message, callback);
+            return true;
+        }
+        
+        try {
+            dispatcher.execute(channel, new Runnable() {
+                
+                @Override
+                public void run() {
+                    dispatchMessage(channel, message, callback);
+                }
+                
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Dispatch queue is full for channel " + channel + ", returning message to dead letters");
+            deadLetters.add(channel, message, callback, deadLetter.getAttempts(), e);
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Removes all messages from the dead-letter store and redelivers them to their callbacks.
+     * 
+     * @return The number of messages redelivered.
+     */
+    public int replayDeadLetters() {
+        int count = 0;
+        
+        for (DeadLetter deadLetter : deadLetters.getDeadLetters()) {
+            count += replayDeadLetter(deadLetter.getId()) ? 1 : 0;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Returns the store of messages that could not be delivered.
+     * 
+     * @return The dead-letter store.
+     */
+    public DeadLetterStore getDeadLetters() {
+        return deadLetters;
+    }
+    
+    /**
+     * Sets the capacity of the dead-letter store. Any messages in the current store are discarded.
+     * 
+     * @param capacity Maximum number of messages in the dead-letter store.
+     */
+    public void setDeadLetterCapacity(int capacity) {
+        deadLetters = new DeadLetterStore(capacity);
+    }
+    
+    /**
+     * Returns the failure counter for a callback class, creating it if necessary.
+     * 
+     * @param callbackClass Name of the callback class.
+     * @return The failure counter.
+     */
+    private AtomicLong getCallbackFailure(String callbackClass) {
+        AtomicLong counter = callbackFailures.get(callbackClass);
+        
+        if (counter == null) {
+            AtomicLong existing = callbackFailures.putIfAbsent(callbackClass, counter = new AtomicLong());
+            counter = existing == null ? counter : existing;
+        }
+        
+        return counter;
+    }
+    
+    /**
+     * Returns the number of failed deliveries, including retries, keyed by callback class.
+     * 
+     * @return Failure counts.
+     */
+    public Map<String, AtomicLong> getCallbackFailures() {
+        return Collections.unmodifiableMap(callbackFailures);
+    }
+    
+    /**
+     * Returns the fraction of deliveries to a callback class that failed.
+     * 
+     * @param callbackClass Name of the callback class.
+     * @return The failure rate (0 if no deliveries have been made).
+     */
+    public double getFailureRate(String callbackClass) {
+        AtomicLong failures = callbackFailures.get(callbackClass);
+        LatencyHistogram times = callbackTimes.get(callbackClass);
+        long count = times == null ? 0 : times.getCount();
+        return failures == null || count == 0 ? 0 : (double) failures.get() / count;
+    }
+    
+    /**
+     * @return The total number of retries scheduled.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+    
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+    
+    /**
+     * Sets the number of times delivery to a failing callback is retried before the message is
+     * added to the dead-letter store.
+     * 
+     * @param maxRetries Maximum number of retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+    
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+    
+    /**
+     * Sets the delay before the first retry. The delay doubles with each subsequent retry.
+     * 
+     * @param retryDelay The initial retry delay in milliseconds.
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = Math.max(1, retryDelay);
+    }
+    
+    public long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+    
+    /**
+     * Sets the maximum delay between retries.
+     * 
+     * @param maxRetryDelay The maximum retry delay in milliseconds.
+     */
+    public void setMaxRetryDelay(long maxRetryDelay) {
+        this.maxRetryDelay = Math.max(1, maxRetryDelay);
+    }
+    
+    /**
+     * Returns the scheduler used to retry failed deliveries.
+     * 
+     * @return The scheduler. If none was set, the framework's task scheduler is returned (may be
+     *         null, in which case failed deliveries are not retried).
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler != null ? scheduler : ThreadUtil.getTaskScheduler();
+    }
+    
+    /**
+     * Sets the scheduler used to retry failed deliveries.
+     * 
+     * @param scheduler The scheduler. If null, the framework's task scheduler is used.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Returns the histogram of callback times for a callback class, creating it if necessary.
+     * 
+     * @param callbackClass Name of the callback class.
+     * @return The histogram of callback times.
+     */
+    private LatencyHistogram getCallbackTime(String callbackClass) {
+        LatencyHistogram histogram = callbackTimes.get(callbackClass);
+        
+        if (histogram == null) {
+            LatencyHistogram existing = callbackTimes.putIfAbsent(callbackClass, histogram = new LatencyHistogram());
+            histogram = existing == null ? histogram : existing;
         }
+        
+        return histogram;
+    }
+    
+    /**
+     * Returns the time spent, in nanoseconds, in message callbacks, keyed by callback class.
+     * 
+     * @return Histograms of callback times.
+     */
+    public Map<String, LatencyHistogram> getCallbackTimes() {
+        return Collections.unmodifiableMap(callbackTimes);
+    }
+    
+    /**
+     * Returns the number of messages waiting to be dispatched.
+     * 
+     * @return The dispatch queue depth.
+     */
+    public int getQueueDepth() {
+        StripedExecutor dispatcher = this.dispatcher;
+        return dispatcher == null ? 0 : dispatcher.getQueueDepth();
+    }
+    
+    /**
+     * Returns the number of stripes used to dispatch messages.
+     * 
+     * @return The number of dispatch stripes. If 0, messages are dispatched on the consumer's
+     *         thread.
+     */
+    public int getDispatchStripes() {
+        return dispatchStripes;
+    }
+    
+    /**
+     * Sets the number of stripes used to dispatch messages. Messages on the same channel are always
+     * dispatched in order, while messages on channels assigned to different stripes are dispatched
+     * concurrently.
+     * 
+     * @param dispatchStripes The number of dispatch stripes. If 0, messages are dispatched on the
+     *            consumer's thread.
+     */
+    public synchronized void setDispatchStripes(int dispatchStripes) {
+        this.dispatchStripes = dispatchStripes;
+        this.dispatcher = null;
+    }
+    
+    /**
+     * Returns the maximum number of messages waiting to be dispatched on each stripe.
+     * 
+     * @return The capacity of each dispatch stripe.
+     */
+    public int getDispatchCapacity() {
+        return dispatchCapacity;
+    }
+    
+    /**
+     * Sets the maximum number of messages waiting to be dispatched on each stripe. A message
+     * received while its stripe is full is added to the dead-letter store.
+     * 
+     * @param dispatchCapacity The capacity of each dispatch stripe.
+     */
+    public synchronized void setDispatchCapacity(int dispatchCapacity) {
+        this.dispatchCapacity = dispatchCapacity;
+        this.dispatcher = null;
+    }
+    
+    /**
+     * Returns the compressor used to decompress received messages.
+     * 
+     * @return The message compressor.
+     */
+    public MessageCompressor getCompressor() {
+        return compressor;
+    }
+    
+    /**
+     * Sets the compressor used to decompress received messages. Its dictionary, if any, must match
+     * that of the publishing node.
+     * 
+     * @param compressor The message compressor.
+     */
+    public void setCompressor(MessageCompressor compressor) {
+        this.compressor = compressor;
     }
     
     @Override
@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+
+/**
+ * Bounded store of messages that could not be delivered to a callback after exhausting their
+ * retries. When the store is full, the oldest entry is evicted to make room for a new one.
+ */
+public class DeadLetterStore {
+    
+    /**
+     * A message that could not be delivered to a callback.
+     */
+    public static class DeadLetter {
+        
+        private final String id = UUID.randomUUID().toString();
+        
+        private final String channel;
+        
+        private final Message message;
+        
+        private final IMessageCallback callback;
+        
+        private final int attempts;
+        
+        private final Throwable cause;
+        
+        private final long created = System.currentTimeMillis();
+        
+        DeadLetter(String channel, Message message, IMessageCallback callback, int attempts, Throwable cause) {
+            this.channel = channel;
+            this.message = message;
+            this.callback = callback;
+            this.attempts = attempts;
+            this.cause = cause;
+        }
+        
+        /**
+         * @return The id unique to this entry.
+         */
+        public String getId() {
+            return id;
+        }
+        
+        /**
+         * @return The channel that delivered the message.
+         */
+        public String getChannel() {
+            return channel;
+        }
+        
+        /**
+         * @return The message that could not be delivered.
+         */
+        public Message getMessage() {
+            return message;
+        }
+        
+        /**
+         * @return The callback that failed to process the message.
+         */
+        public IMessageCallback getCallback() {
+            return callback;
+        }
+        
+        /**
+         * @return The number of delivery attempts.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+        
+        /**
+         * @return The exception thrown by the last delivery attempt.
+         */
+        public Throwable getCause() {
+            return cause;
+        }
+        
+        /**
+         * @return The time the message was added to the store.
+         */
+        public Date getCreated() {
+            return new Date(created);
+        }
+        
+        @Override
+        public String toString() {
+            return "Channel: " + channel + "; callback: " + callback.getClass().getName() + "; attempts: " + attempts
+                    + "; cause: " + cause + "; message: " + message;
+        }
+    }
+    
+    private final LinkedHashMap<String, DeadLetter> deadLetters = new LinkedHashMap<>();
+    
+    private final int capacity;
+    
+    private long addedCount;
+    
+    private long evictedCount;
+    
+    /**
+     * Creates a store with the specified capacity.
+     * 
+     * @param capacity Maximum number of entries.
+     */
+    public DeadLetterStore(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+    
+    /**
+     * Adds a message to the store, evicting the oldest entry if the store is full.
+     * 
+     * @param channel The channel that delivered the message.
+     * @param message The message.
+     * @param callback The callback that failed to process the message.
+     * @param attempts The number of delivery attempts.
+     * @param cause The exception thrown by the last delivery attempt.
+     * @return The new entry.
+     */
+    public synchronized DeadLetter add(String channel, Message message, IMessageCallback callback, int attempts,
+                                       Throwable cause) {
+        DeadLetter deadLetter = new DeadLetter(channel, message, callback, attempts, cause);
+        
+        if (deadLetters.size() >= capacity) {
+            Iterator<DeadLetter> iter = deadLetters.values().iterator();
+            iter.next();
+            iter.remove();
+            evictedCount++;
+        }
+        
+        deadLetters.put(deadLetter.getId(), deadLetter);
+        addedCount++;
+        return deadLetter;
+    }
+    
+    /**
+     * Returns the entries in the store, oldest first.
+     * 
+     * @return A snapshot of the entries.
+     */
+    public synchronized List<DeadLetter> getDeadLetters() {
+        return new ArrayList<>(deadLetters.values());
+    }
+    
+    /**
+     * Returns the entry with the specified id.
+     * 
+     * @param id The entry id.
+     * @return The entry, or null if not found.
+     */
+    public synchronized DeadLetter get(String id) {
+        return deadLetters.get(id);
+    }
+    
+    /**
+     * Removes the entry with the specified id.
+     * 
+     * @param id The entry id.
+     * @return The removed entry, or null if not found.
+     */
+    public synchronized DeadLetter remove(String id) {
+        return deadLetters.remove(id);
+    }
+    
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        deadLetters.clear();
+    }
+    
+    /**
+     * @return The number of entries in the store.
+     */
+    public synchronized int size() {
+        return deadLetters.size();
+    }
+    
+    /**
+     * @return The maximum number of entries.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * @return The total number of entries added to the store.
+     */
+    public synchronized long getAddedCount() {
+        return addedCount;
+    }
+    
+    /**
+     * @return The total number of entries evicted to make room for newer ones.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+    
+}
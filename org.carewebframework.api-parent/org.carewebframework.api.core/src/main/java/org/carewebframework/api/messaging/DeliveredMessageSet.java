@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the identifiers of recently delivered messages so that a message arriving by more than
+ * one transport is delivered only once. Identifiers are held in a small ring of time buckets, each
+ * an open-addressed hash set of 128-bit keys. New identifiers are added to the current bucket and
+ * the oldest bucket is cleared and reused when the current bucket's time span elapses or it
+ * becomes full. Memory use is fixed at construction and lookups and insertions take constant time
+ * with no per-message allocation for identifiers in standard UUID form.
+ * <p>
+ * An identifier is remembered for at least the specified lifetime unless the capacity is
+ * exceeded within that time, in which case the oldest identifiers are forgotten early.
+ */
+public class DeliveredMessageSet {
+    
+    private static final int BUCKETS = 4;
+    
+    private final long[][] buckets = new long[BUCKETS][];
+    
+    private final int[] counts = new int[BUCKETS];
+    
+    private final int bucketCapacity;
+    
+    private final int mask;
+    
+    private final long span;
+    
+    private int current;
+    
+    private long currentStart;
+    
+    /**
+     * Creates a set with the specified capacity and lifetime.
+     * 
+     * @param capacity Maximum number of identifiers to be remembered within the lifetime.
+     * @param life Minimum time, in milliseconds, for which an identifier is remembered.
+     */
+    public DeliveredMessageSet(int capacity, long life) {
+        bucketCapacity = Math.max(1, (capacity + BUCKETS - 2) / (BUCKETS - 1));
+        int slots = Integer.highestOneBit(bucketCapacity * 2 - 1) << 1;
+        mask = slots - 1;
+        span = Math.max(1, life / (BUCKETS - 1));
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new long[slots * 2];
+        }
+    }
+    
+    /**
+     * Adds an identifier to the set.
+     * 
+     * @param id The message identifier.
+     * @return True if the identifier was not already present.
+     */
+    public boolean add(String id) {
+        return add(id, System.currentTimeMillis());
+    }
+    
+    /**
+     * Adds an identifier to the set as of the specified time.
+     * 
+     * @param id The message identifier.
+     * @param now The current time in milliseconds.
+     * @return True if the identifier was not already present.
+     */
+    /*package*/synchronized boolean add(String id, long now) {
+        long hi;
+        long lo;
+        
+        if (isUUID(id)) {
+            hi = parseHex(id, 0, 8) << 32 | parseHex(id, 9, 13) << 16 | parseHex(id, 14, 18);
+            lo = parseHex(id, 19, 23) << 48 | parseHex(id, 24, 36);
+        } else {
+            hi = hash(id, 0xcbf29ce484222325L);
+            lo = hash(id, 0x84222325cbf29ce4L);
+        }
+        
+        if (hi == 0 && lo == 0) {
+            lo = 1;
+        }
+        
+        long elapsed = (now - currentStart) / span;
+        
+        if (elapsed > 0) {
+            for (long i = Math.min(elapsed, BUCKETS); i > 0; i--) {
+                rotate();
+            }
+            
+            currentStart = elapsed >= BUCKETS ? now : currentStart + elapsed * span;
+        }
+        
+        for (int i = 0; i < BUCKETS; i++) {
+            if (find(buckets[i], hi, lo) >= 0) {
+                return false;
+            }
+        }
+        
+        if (counts[current] >= bucketCapacity) {
+            rotate();
+            currentStart = now;
+        }
+        
+        long[] table = buckets[current];
+        int slot = ~find(table, hi, lo);
+        table[slot] = hi;
+        table[slot + 1] = lo;
+        counts[current]++;
+        return true;
+    }
+    
+    /**
+     * Removes all identifiers from the set.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            Arrays.fill(buckets[i], 0);
+            counts[i] = 0;
+        }
+    }
+    
+    /**
+     * Returns the number of identifiers currently remembered.
+     * 
+     * @return The number of identifiers.
+     */
+    public synchronized int size() {
+        int size = 0;
+        
+        for (int count : counts) {
+            size += count;
+        }
+        
+        return size;
+    }
+    
+    /**
+     * Makes the oldest bucket the current one, discarding its contents.
+     */
+    private void rotate() {
+        current = (current + 1) % BUCKETS;
+        
+        if (counts[current] > 0) {
+            Arrays.fill(buckets[current], 0);
+            counts[current] = 0;
+        }
+    }
+    
+    /**
+     * Locates a key in a bucket using linear probing.
+     * 
+     * @param table The bucket.
+     * @param hi High-order bits of the key.
+     * @param lo Low-order bits of the key.
+     * @return Index of the key if found, or the ones complement of the index of the empty slot at
+     *         which the search ended.
+     */
+    private int find(long[] table, long hi, long lo) {
+        int i = (int) (lo ^ lo >>> 32 ^ hi) & mask;
+        
+        while (true) {
+            int slot = i << 1;
+            long h = table[slot];
+            long l = table[slot + 1];
+            
+            if (h == hi && l == lo) {
+                return slot;
+            }
+            
+            if (h == 0 && l == 0) {
+                return ~slot;
+            }
+            
+            i = (i + 1) & mask;
+        }
+    }
+    
+    /**
+     * Returns true if the identifier is a UUID in standard form.
+     * 
+     * @param id The identifier.
+     * @return True if the identifier is a UUID.
+     */
+    private static boolean isUUID(String id) {
+        if (id.length() != 36) {
+            return false;
+        }
+        
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            boolean valid = i == 8 || i == 13 || i == 18 || i == 23 ? c == '-' : Character.digit(c, 16) >= 0;
+            
+            if (!valid) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Parses a range of hexadecimal digits.
+     * 
+     * @param id The identifier.
+     * @param start Start of the range (inclusive).
+     * @param end End of the range (exclusive).
+     * @return The parsed value.
+     */
+    private static long parseHex(String id, int start, int end) {
+        long value = 0;
+        
+        for (int i = start; i < end; i++) {
+            value = value << 4 | Character.digit(id.charAt(i), 16);
+        }
+        
+        return value;
+    }
+    
+    /**
+     * Computes a 64-bit FNV-1a hash of an identifier that is not a UUID.
+     * 
+     * @param id The identifier.
+     * @param seed The initial hash value.
+     * @return The hash value.
+     */
+    private static long hash(String id, long seed) {
+        long hash = seed;
+        
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        
+        return hash;
+    }
+    
+}
@@ -0,0 +1,59 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+/**
+ * Converts messages, including their metadata and payload, to and from a byte representation for
+ * transports that carry opaque message bodies. Encoders are identified by name, which a transport
+ * sends along with each encoded message so that the receiver can select the matching decoder.
+ */
+public interface IMessageEncoder {
+    
+    /**
+     * Returns the unique name of the encoding.
+     * 
+     * @return The encoding name.
+     */
+    String getName();
+    
+    /**
+     * Encodes a message.
+     * 
+     * @param message Message to encode.
+     * @return The encoded message.
+     */
+    byte[] encode(Message message);
+    
+    /**
+     * Decodes a message.
+     * 
+     * @param data The encoded message.
+     * @return The decoded message.
+     * @throws IllegalArgumentException If the data are not a valid encoded message.
+     */
+    Message decode(byte[] data);
+    
+}
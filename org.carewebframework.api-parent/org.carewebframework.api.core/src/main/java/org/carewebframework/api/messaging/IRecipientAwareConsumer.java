@@ -0,0 +1,45 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.util.Set;
+
+/**
+ * Implemented by a message consumer that can use the identities of local recipients to filter
+ * messages before they are delivered, typically by passing a selector to the messaging server.
+ * Such filtering is only an optimization. It may admit messages that are later excluded, but must
+ * never reject a message that a local recipient would accept.
+ */
+public interface IRecipientAwareConsumer extends IMessageConsumer {
+    
+    /**
+     * Called when the set of local recipients changes.
+     * 
+     * @param recipients The current local recipients. This always includes the consumer node.
+     */
+    void setLocalRecipients(Set<Recipient> recipients);
+    
+}
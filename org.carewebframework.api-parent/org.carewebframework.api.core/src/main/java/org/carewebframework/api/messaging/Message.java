@@ -26,12 +26,15 @@
 package org.carewebframework.api.messaging;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -41,6 +44,11 @@ public class Message implements Serializable {
     
     private static final long serialVersionUID = 1L;
     
+    /**
+     * Metadata key for the list of targeted recipients.
+     */
+    public static final String RECIPIENTS_METADATA = "cwf.pub.recipients";
+    
     private final String type;
     
     private final Object payload;
@@ -51,6 +59,10 @@ public class Message implements Serializable {
     
     private Map<String, Object> metadata;
     
+    private transient volatile RecipientFilter recipientFilter;
+    
+    private transient volatile byte[] encoded;
+    
     /**
      * Creates a message.
      * 
@@ -65,6 +77,21 @@ public class Message implements Serializable {
         this.created = System.currentTimeMillis();
     }
     
+    /**
+     * Recreates a message with its original identity, as when decoding it from a wire format.
+     * 
+     * @param type The type of the message.
+     * @param payload The associated payload.
+     * @param id The id unique to the message.
+     * @param created The creation timestamp.
+     */
+    protected Message(String type, Object payload, String id, long created) {
+        this.type = type;
+        this.payload = payload;
+        this.id = id;
+        this.created = created;
+    }
+    
     /**
      * @return Returns the type of message. If a type was not specified, it defaults to the channel
      *         name.
@@ -126,6 +153,25 @@ public class Message implements Serializable {
         return metadata;
     }
     
+    /**
+     * Returns the metadata map without creating it.
+     * 
+     * @return The metadata map, possibly null.
+     */
+    /*package*/ Map<String, Object> getMetadataMap() {
+        return metadata;
+    }
+    
+    /**
+     * Returns the keys of all metadata values.
+     * 
+     * @return The metadata keys (never null).
+     */
+    @JsonIgnore
+    public Set<String> getMetadataKeys() {
+        return metadata == null ? Collections.<String> emptySet() : Collections.unmodifiableSet(metadata.keySet());
+    }
+    
     /**
      * Returns a metadata value.
      * 
@@ -145,9 +191,50 @@ public class Message implements Serializable {
     public void setMetadata(String key, Object value) {
         if (value != null) {
             getMetadata().put(key, value);
+            encoded = null;
+            
+            if (RECIPIENTS_METADATA.equals(key)) {
+                recipientFilter = null;
+            }
         }
     }
     
+    /**
+     * Returns the compiled form of the message's recipient list. The list is compiled on first
+     * access and cached until the recipient list is replaced.
+     * 
+     * @return The recipient filter (never null).
+     */
+    @JsonIgnore
+    public RecipientFilter getRecipientFilter() {
+        RecipientFilter filter = recipientFilter;
+        
+        if (filter == null) {
+            recipientFilter = filter = RecipientFilter.compile((Recipient[]) getMetadata(RECIPIENTS_METADATA));
+        }
+        
+        return filter;
+    }
+    
+    /**
+     * Returns the message's encoding in the binary message format, if one was retained when the
+     * message was sized for compression. It is discarded whenever the metadata change.
+     * 
+     * @return The encoded message, or null if none was retained.
+     */
+    /*package*/ byte[] getEncoded() {
+        return encoded;
+    }
+    
+    /**
+     * Retains the message's encoding in the binary message format for reuse by the message codec.
+     * 
+     * @param encoded The encoded message.
+     */
+    /*package*/ void setEncoded(byte[] encoded) {
+        this.encoded = encoded;
+    }
+    
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
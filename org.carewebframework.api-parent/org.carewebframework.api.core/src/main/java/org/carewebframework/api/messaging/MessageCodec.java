@@ -0,0 +1,590 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import org.carewebframework.api.event.EventMessage;
+import org.carewebframework.api.event.EventMessageBatch;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.carewebframework.common.MiscUtil;
+
+/**
+ * Versioned binary wire format for messages, used by the messaging transports in place of Java
+ * serialization. An encoded message has the layout:
+ * <ul>
+ * <li>magic (2 bytes), format version (1 byte) and flags (1 byte)</li>
+ * <li>for a known message subclass, its subtype (1 byte)</li>
+ * <li>type, id, creation timestamp, metadata and payload</li>
+ * <li>an optional CRC32 checksum of all preceding bytes</li>
+ * </ul>
+ * Ids and other canonical UUID strings are written as two longs, well-known metadata keys as a
+ * single byte index into a fixed dictionary, and strings, byte arrays and other variable length
+ * values are length-prefixed. Event messages and event batches are encoded field by field, the
+ * entries of a batch each as an event name, data and codec name. Payloads of other types, and
+ * other message subclasses, fall back to Java serialization. The key and subtype dictionaries
+ * belong to the format version and may only be changed along with it.
+ */
+public class MessageCodec implements IMessageEncoder {
+    
+    /**
+     * The name of this encoding.
+     */
+    public static final String NAME = "cwf";
+    
+    public static final int VERSION = 1;
+    
+    private static final byte MAGIC_1 = 'C', MAGIC_2 = 'W';
+    
+    private static final int FLAG_CHECKSUM = 1, FLAG_SERIALIZED = 2, FLAG_SUBTYPE = 4;
+    
+    private static final int SUBTYPE_NONE = -1, SUBTYPE_EVENT = 0, SUBTYPE_EVENT_BATCH = 1;
+    
+    private static final int HEADER_SIZE = 4, CHECKSUM_SIZE = 4;
+    
+    // @formatter:off
+    private static final byte
+        TAG_NULL = 0,
+        TAG_STRING = 1,
+        TAG_UUID = 2,
+        TAG_LONG = 3,
+        TAG_INTEGER = 4,
+        TAG_TRUE = 5,
+        TAG_FALSE = 6,
+        TAG_BYTES = 7,
+        TAG_RECIPIENTS = 8,
+        TAG_SERIALIZED = 9;
+    
+    private static final String[] KEYS = {
+        "cwf.pub.node",
+        "cwf.pub.channel",
+        "cwf.pub.event",
+        "cwf.pub.when",
+        Message.RECIPIENTS_METADATA,
+        "cwf.event.codec"
+    };
+    // @formatter:on
+    
+    private static final int KEY_LITERAL = 0xFF;
+    
+    private static final Map<String, Integer> KEY_INDEX = new HashMap<>();
+    
+    private static final RecipientType[] RECIPIENT_TYPES = RecipientType.values();
+    
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_INDEX.put(KEYS[i], i);
+        }
+    }
+    
+    private final boolean checksum;
+    
+    private volatile boolean allowSerialized = true;
+    
+    /**
+     * Returns true if the data begin with the header of an encoded message.
+     * 
+     * @param data Data to examine.
+     * @return True if the data appear to be an encoded message.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length >= HEADER_SIZE && data[0] == MAGIC_1 && data[1] == MAGIC_2;
+    }
+    
+    /**
+     * Creates a codec that does not append a checksum.
+     */
+    public MessageCodec() {
+        this(false);
+    }
+    
+    /**
+     * Creates a codec.
+     * 
+     * @param checksum If true, a CRC32 checksum is appended to each encoded message. Checksums are
+     *            always verified when present, regardless of this setting.
+     */
+    public MessageCodec(boolean checksum) {
+        this.checksum = checksum;
+    }
+    
+    public boolean isChecksum() {
+        return checksum;
+    }
+    
+    public boolean isAllowSerialized() {
+        return allowSerialized;
+    }
+    
+    /**
+     * Determines whether Java-serialized messages and values are decoded. If not, decoding a
+     * message that contains them fails, so no untrusted data reach an {@link ObjectInputStream}.
+     * Event data must then be of a natively encoded type or be encoded by an event codec.
+     * 
+     * @param allowSerialized If true, serialized messages and values are decoded.
+     */
+    public void setAllowSerialized(boolean allowSerialized) {
+        this.allowSerialized = allowSerialized;
+    }
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    /**
+     * Encodes a message. If the message retains an encoding from being sized for compression, that
+     * encoding is returned unless a checksum is required.
+     * 
+     * @param message Message to encode.
+     * @return The encoded message.
+     */
+    @Override
+    public byte[] encode(Message message) {
+        byte[] encoded = checksum ? null : message.getEncoded();
+        
+        if (encoded != null) {
+            return encoded;
+        }
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            int subtype = getSubtype(message);
+            boolean serialized = subtype == SUBTYPE_NONE && message.getClass() != Message.class;
+            out.writeByte(MAGIC_1);
+            out.writeByte(MAGIC_2);
+            out.writeByte(VERSION);
+            out.writeByte((checksum ? FLAG_CHECKSUM : 0) | (serialized ? FLAG_SERIALIZED : 0)
+                    | (subtype == SUBTYPE_NONE ? 0 : FLAG_SUBTYPE));
+            
+            if (serialized) {
+                writeBytes(out, serialize(message));
+            } else {
+                if (subtype != SUBTYPE_NONE) {
+                    out.writeByte(subtype);
+                }
+                
+                writeValue(out, message.getType());
+                writeValue(out, message.getId());
+                out.writeLong(message.getCreated().getTime());
+                writeMetadata(out, message);
+                
+                if (subtype == SUBTYPE_EVENT_BATCH) {
+                    writeEntries(out, ((EventMessageBatch) message).getEntries());
+                } else {
+                    writeValue(out, message.getPayload());
+                }
+            }
+            
+            if (checksum) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray(), 0, bytes.size());
+                out.writeInt((int) crc.getValue());
+            }
+            
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+    }
+    
+    /**
+     * Decodes a message.
+     * 
+     * @param data The encoded message.
+     * @return The decoded message.
+     * @throws IllegalArgumentException If the data are not a valid encoded message.
+     */
+    @Override
+    public Message decode(byte[] data) {
+        if (!isEncoded(data)) {
+            throw new IllegalArgumentException("Data are not an encoded message.");
+        }
+        
+        int version = data[2];
+        
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported message format version: " + version);
+        }
+        
+        int flags = data[3];
+        int length = data.length;
+        
+        if ((flags & FLAG_CHECKSUM) != 0) {
+            length -= CHECKSUM_SIZE;
+            
+            if (length < HEADER_SIZE) {
+                throw new IllegalArgumentException("Encoded message is truncated.");
+            }
+            
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            
+            if ((int) crc.getValue() != ByteBuffer.wrap(data, length, CHECKSUM_SIZE).getInt()) {
+                throw new IllegalArgumentException("Encoded message failed checksum validation.");
+            }
+        }
+        
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data, HEADER_SIZE, length - HEADER_SIZE);
+            Message message;
+            
+            if ((flags & FLAG_SERIALIZED) != 0) {
+                message = (Message) deserialize(readBytes(in));
+            } else {
+                int subtype = (flags & FLAG_SUBTYPE) == 0 ? SUBTYPE_NONE : in.get();
+                String type = (String) readValue(in);
+                String id = (String) readValue(in);
+                long created = in.getLong();
+                Map<String, Object> metadata = readMetadata(in);
+                
+                switch (subtype) {
+                    case SUBTYPE_NONE:
+                        message = new Message(type, readValue(in), id, created);
+                        break;
+                    
+                    case SUBTYPE_EVENT:
+                        message = new EventMessage(type, (Serializable) readValue(in), id, created);
+                        break;
+                    
+                    case SUBTYPE_EVENT_BATCH:
+                        message = new EventMessageBatch(id, created, readEntries(in));
+                        break;
+                    
+                    default:
+                        throw new IllegalArgumentException("Unknown message subtype: " + subtype);
+                }
+                
+                for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                    message.setMetadata(entry.getKey(), entry.getValue());
+                }
+            }
+            
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Encoded message has trailing data.");
+            }
+            
+            return message;
+        } catch (BufferUnderflowException | ClassCastException e) {
+            throw new IllegalArgumentException("Encoded message is malformed.", e);
+        }
+    }
+    
+    /**
+     * Returns the subtype of a message subclass that is encoded field by field.
+     * 
+     * @param message The message.
+     * @return The subtype, or {@link #SUBTYPE_NONE} if a plain message or an unknown subclass.
+     */
+    private int getSubtype(Message message) {
+        Class<?> clazz = message.getClass();
+        return clazz == EventMessage.class ? SUBTYPE_EVENT
+                : clazz == EventMessageBatch.class ? SUBTYPE_EVENT_BATCH : SUBTYPE_NONE;
+    }
+    
+    private void writeEntries(DataOutputStream out, List<EventMessageBatch.Entry> entries) throws IOException {
+        writeLength(out, entries.size());
+        
+        for (EventMessageBatch.Entry entry : entries) {
+            writeValue(out, entry.getEventName());
+            writeValue(out, entry.getEventData());
+            writeValue(out, entry.getCodec());
+        }
+    }
+    
+    private List<EventMessageBatch.Entry> readEntries(ByteBuffer in) {
+        int size = readLength(in);
+        List<EventMessageBatch.Entry> entries = new ArrayList<>(size);
+        
+        for (int i = 0; i < size; i++) {
+            String eventName = (String) readValue(in);
+            Serializable eventData = (Serializable) readValue(in);
+            entries.add(new EventMessageBatch.Entry(eventName, eventData, (String) readValue(in)));
+        }
+        
+        return entries;
+    }
+    
+    private void writeMetadata(DataOutputStream out, Message message) throws IOException {
+        if (!message.hasMetadata()) {
+            writeLength(out, 0);
+            return;
+        }
+        
+        Map<String, Object> metadata = message.getMetadataMap();
+        writeLength(out, metadata.size());
+        
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            Integer index = KEY_INDEX.get(entry.getKey());
+            
+            if (index != null) {
+                out.writeByte(index);
+            } else {
+                out.writeByte(KEY_LITERAL);
+                writeString(out, entry.getKey());
+            }
+            
+            writeValue(out, entry.getValue());
+        }
+    }
+    
+    private Map<String, Object> readMetadata(ByteBuffer in) {
+        int size = readLength(in);
+        Map<String, Object> metadata = new HashMap<>();
+        
+        for (int i = 0; i < size; i++) {
+            int index = in.get() & 0xFF;
+            String key;
+            
+            if (index == KEY_LITERAL) {
+                key = readString(in);
+            } else if (index < KEYS.length) {
+                key = KEYS[index];
+            } else {
+                throw new IllegalArgumentException("Unknown metadata key index: " + index);
+            }
+            
+            metadata.put(key, readValue(in));
+        }
+        
+        return metadata;
+    }
+    
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            String s = (String) value;
+            
+            if (isUUID(s)) {
+                UUID uuid = UUID.fromString(s);
+                out.writeByte(TAG_UUID);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            } else {
+                out.writeByte(TAG_STRING);
+                writeString(out, s);
+            }
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof byte[]) {
+            out.writeByte(TAG_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Recipient[]) {
+            Recipient[] recipients = (Recipient[]) value;
+            out.writeByte(TAG_RECIPIENTS);
+            writeLength(out, recipients.length);
+            
+            for (Recipient recipient : recipients) {
+                out.writeByte(recipient.getType().ordinal());
+                writeString(out, recipient.getValue());
+            }
+        } else {
+            out.writeByte(TAG_SERIALIZED);
+            writeBytes(out, serialize(value));
+        }
+    }
+    
+    private Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            
+            case TAG_STRING:
+                return readString(in);
+            
+            case TAG_UUID:
+                return new UUID(in.getLong(), in.getLong()).toString();
+            
+            case TAG_LONG:
+                return in.getLong();
+            
+            case TAG_INTEGER:
+                return in.getInt();
+            
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            
+            case TAG_BYTES:
+                return readBytes(in);
+            
+            case TAG_RECIPIENTS:
+                Recipient[] recipients = new Recipient[readLength(in)];
+                
+                for (int i = 0; i < recipients.length; i++) {
+                    int type = in.get();
+                    
+                    if (type < 0 || type >= RECIPIENT_TYPES.length) {
+                        throw new IllegalArgumentException("Unknown recipient type: " + type);
+                    }
+                    
+                    recipients[i] = new Recipient(RECIPIENT_TYPES[type], readString(in));
+                }
+                
+                return recipients;
+            
+            case TAG_SERIALIZED:
+                return deserialize(readBytes(in));
+            
+            default:
+                throw new IllegalArgumentException("Unknown tag in encoded message: " + tag);
+        }
+    }
+    
+    /**
+     * Returns true if the string is a UUID in the canonical (lower case) form produced by
+     * {@link UUID#toString()}, so that it survives a round trip through its binary form unchanged.
+     * 
+     * @param s String to test.
+     * @return True if a canonical UUID.
+     */
+    private boolean isUUID(String s) {
+        if (s.length() != 36) {
+            return false;
+        }
+        
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private String readString(ByteBuffer in) {
+        int length = readLength(in);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+    
+    private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeLength(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    private byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Writes a length as an unsigned variable length integer, seven bits per byte.
+     */
+    private void writeLength(DataOutputStream out, int length) throws IOException {
+        while ((length & ~0x7F) != 0) {
+            out.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        
+        out.writeByte(length);
+    }
+    
+    /**
+     * Reads a length written by {@link #writeLength}, validating it against the remaining data.
+     */
+    private int readLength(ByteBuffer in) {
+        int length = 0;
+        
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            length |= (b & 0x7F) << shift;
+            
+            if (b >= 0) {
+                if (length < 0 || length > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid length in encoded message: " + length);
+                }
+                
+                return length;
+            }
+        }
+        
+        throw new IllegalArgumentException("Malformed length in encoded message.");
+    }
+    
+    private byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        
+        return bytes.toByteArray();
+    }
+    
+    private Object deserialize(byte[] bytes) {
+        if (!allowSerialized) {
+            throw new IllegalArgumentException("Serialized content is not accepted.");
+        }
+        
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+    }
+    
+}
@@ -0,0 +1,301 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Compresses messages whose encoded size reaches a threshold. The message is encoded in the binary
+ * message format and deflated, and the result replaces the payload of a copy of the message that
+ * retains the original's type, id and metadata, so that it can still be routed and filtered
+ * without being decompressed. The compression algorithm is recorded in the copy's metadata. An
+ * optional preset dictionary of content common to many messages improves compression of smaller
+ * payloads; the same dictionary must be configured wherever such messages are decompressed.
+ * <p>
+ * Payloads whose size is known without encoding them are checked against the threshold directly.
+ * Otherwise, the message is encoded to determine its size, and if it is not compressed, the
+ * encoding is retained on the message so that the producer does not encode it again. To guard
+ * against malicious input, decompression fails if the restored message exceeds a maximum size, and
+ * Java-serialized content within a compressed message is rejected unless explicitly allowed.
+ */
+public class MessageCompressor {
+    
+    /**
+     * Metadata key for the compression algorithm applied to a message.
+     */
+    public static final String COMPRESSION_METADATA = "cwf.pub.compression";
+    
+    /**
+     * Name of the deflate compression algorithm.
+     */
+    public static final String DEFLATE = "deflate";
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private final MessageCodec codec = new MessageCodec();
+    
+    private int threshold;
+    
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    
+    private byte[] dictionary;
+    
+    private int maxSize = 16 * 1024 * 1024;
+    
+    public MessageCompressor() {
+        codec.setAllowSerialized(false);
+    }
+    
+    /**
+     * Returns a compressed copy of the message if its encoded size reaches the threshold and
+     * compression reduces its size.
+     * 
+     * @param message The message to compress.
+     * @return The compressed copy, or the original message if it was not compressed.
+     */
+    public Message compress(Message message) {
+        if (threshold <= 0 || isSmall(message.getPayload()) || message.getMetadata(COMPRESSION_METADATA) != null) {
+            return message;
+        }
+        
+        byte[] data = codec.encode(message);
+        
+        if (data.length < threshold) {
+            message.setEncoded(data);
+            return message;
+        }
+        
+        byte[] compressed = deflate(data);
+        
+        if (compressed.length >= data.length) {
+            message.setEncoded(data);
+            return message;
+        }
+        
+        Message result = new Message(message.getType(), compressed, message.getId(), message.getCreated().getTime());
+        Map<String, Object> metadata = message.getMetadataMap();
+        
+        if (metadata != null) {
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                result.setMetadata(entry.getKey(), entry.getValue());
+            }
+        }
+        
+        result.setMetadata(COMPRESSION_METADATA, DEFLATE);
+        return result;
+    }
+    
+    /**
+     * Restores a message compressed by {@link #compress}.
+     * 
+     * @param message The message to decompress.
+     * @return The original message, or the message itself if it is not compressed.
+     * @throws IllegalArgumentException If the compression algorithm is not supported, the
+     *             compressed data are invalid, or the restored message exceeds the maximum size.
+     */
+    public Message decompress(Message message) {
+        Object algorithm = message.getMetadata(COMPRESSION_METADATA);
+        
+        if (algorithm == null) {
+            return message;
+        }
+        
+        if (!DEFLATE.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported message compression algorithm: " + algorithm);
+        }
+        
+        return codec.decode(inflate((byte[]) message.getPayload()));
+    }
+    
+    /**
+     * Returns true if the payload is known to be below the threshold without encoding it. Strings
+     * are sized approximately, by their length, and scalar values are always small.
+     * 
+     * @param payload The payload.
+     * @return True if the payload is below the threshold.
+     */
+    private boolean isSmall(Object payload) {
+        return payload == null || payload instanceof Number || payload instanceof Boolean
+                || payload instanceof Character
+                || (payload instanceof byte[] && ((byte[]) payload).length < threshold)
+                || (payload instanceof String && ((String) payload).length() < threshold);
+    }
+    
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min((long) data.length * 4, maxSize));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                
+                if (out.size() + count > maxSize) {
+                    throw new IllegalArgumentException(
+                            "Compressed message exceeds maximum size of " + maxSize + " bytes.");
+                }
+                
+                if (count > 0) {
+                    out.write(buffer, 0, count);
+                } else if (inflater.needsDictionary()) {
+                    if (dictionary == null) {
+                        throw new IllegalArgumentException("Compressed message requires a dictionary.");
+                    }
+                    
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput()) {
+                    throw new IllegalArgumentException("Compressed message is truncated.");
+                }
+            }
+            
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed message is malformed.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    /**
+     * Returns the encoded size, in bytes, at which messages are compressed.
+     * 
+     * @return The compression threshold. If 0, messages are not compressed.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    /**
+     * Sets the encoded size, in bytes, at which messages are compressed.
+     * 
+     * @param threshold The compression threshold. If 0, messages are not compressed.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+    
+    /**
+     * Returns the deflate compression level.
+     * 
+     * @return The compression level (0-9, or -1 for the default).
+     */
+    public int getLevel() {
+        return level;
+    }
+    
+    /**
+     * Sets the deflate compression level.
+     * 
+     * @param level The compression level (0-9, or -1 for the default).
+     */
+    public void setLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        
+        this.level = level;
+    }
+    
+    /**
+     * Returns the maximum size, in bytes, of a decompressed message.
+     * 
+     * @return The maximum decompressed size.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Sets the maximum size, in bytes, of a decompressed message. Decompression of a message that
+     * would exceed it fails.
+     * 
+     * @param maxSize The maximum decompressed size.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+        }
+        
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * Sets the preset dictionary, typically a sample of content common to many messages.
+     * 
+     * @param dictionary The dictionary. If empty, no dictionary is used.
+     */
+    public void setDictionary(String dictionary) {
+        this.dictionary = StringUtils.isEmpty(dictionary) ? null : dictionary.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    
+    public boolean isAllowSerialized() {
+        return codec.isAllowSerialized();
+    }
+    
+    /**
+     * Determines whether Java-serialized messages and values are accepted when decompressing a
+     * message. Rejecting them avoids deserialization of untrusted data.
+     * 
+     * @param allowSerialized If true, serialized content is accepted. The default is false.
+     */
+    public void setAllowSerialized(boolean allowSerialized) {
+        codec.setAllowSerialized(allowSerialized);
+    }
+    
+}
@@ -0,0 +1,660 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.carewebframework.common.MiscUtil;
+
+/**
+ * File-backed store for messages that could not be published, to be replayed once their producer
+ * recovers. Messages are appended, in the binary message format with a checksum, to a series of
+ * segment files in a directory. Each producer's messages are replayed in the order in which they
+ * were appended, independently of other producers, so a producer that is still failing does not
+ * hold up replay to the others. A segment is deleted once all of its messages have been replayed.
+ * Segments left by a previous run are replayed as well; since replay progress within a segment is
+ * not persisted, messages may be replayed more than once after a restart.
+ */
+public class MessageOutbox {
+    
+    /**
+     * Callback for replaying stored messages.
+     */
+    public interface IReplayCallback {
+        
+        /**
+         * Replays a stored message.
+         * 
+         * @param producer Class name of the producer that failed to publish the message.
+         * @param channel The channel on which the message was to be published.
+         * @param message The message.
+         * @return True if the message was published. If false, replay of the producer's messages
+         *         stops and is resumed with this message on the next call to
+         *         {@link MessageOutbox#drain}.
+         */
+        boolean replay(String producer, String channel, Message message);
+        
+    }
+    
+    private static final Log log = LogFactory.getLog(MessageOutbox.class);
+    
+    private static final String PREFIX = "outbox-";
+    
+    private static final String SUFFIX = ".log";
+    
+    /**
+     * A segment file and the length of its valid records.
+     */
+    private static class Segment {
+        
+        private final File file;
+        
+        private long length;
+        
+        Segment(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * The position of the next message to be replayed to a producer.
+     */
+    private static class Cursor {
+        
+        private Segment segment;
+        
+        private long position;
+        
+        Cursor(Segment segment, long position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+    
+    /**
+     * A record read from a segment.
+     */
+    private static class Record {
+        
+        private final String producer;
+        
+        private final String channel;
+        
+        private final byte[] data;
+        
+        private final int size;
+        
+        Record(String producer, String channel, byte[] data, int size) {
+            this.producer = producer;
+            this.channel = channel;
+            this.data = data;
+            this.size = size;
+        }
+    }
+    
+    private final File directory;
+    
+    private final MessageCodec codec = new MessageCodec(true);
+    
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    
+    private final Map<String, Integer> pending = new HashMap<>();
+    
+    private final Map<String, Cursor> cursors = new LinkedHashMap<>();
+    
+    private final Object drainLock = new Object();
+    
+    private long nextSequence;
+    
+    private long segmentSize = 4 * 1024 * 1024;
+    
+    private boolean sync;
+    
+    private RandomAccessFile writer;
+    
+    /**
+     * Opens the outbox in the specified directory, creating the directory if necessary. Segments
+     * left by a previous run are scanned for messages to be replayed.
+     * 
+     * @param directory The directory for segment files.
+     */
+    public MessageOutbox(File directory) {
+        this.directory = directory;
+        
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create outbox directory: " + directory);
+        }
+        
+        recover();
+    }
+    
+    /**
+     * Scans existing segments in sequence order, counting their messages and positioning each
+     * producer's cursor at its first message. A truncated record, such as one left by a crash,
+     * ends its segment.
+     */
+    private void recover() {
+        List<File> files = new ArrayList<>();
+        
+        for (File file : directory.listFiles()) {
+            if (getSequence(file) >= 0) {
+                files.add(file);
+            }
+        }
+        
+        Collections.sort(files);
+        
+        for (File file : files) {
+            nextSequence = Math.max(nextSequence, getSequence(file) + 1);
+            Segment segment = new Segment(file, 0);
+            
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                Record record;
+                
+                while ((record = readRecord(in, segment.length)) != null) {
+                    addCursor(record.producer, segment, segment.length);
+                    increment(record.producer, 1);
+                    segment.length += record.size;
+                }
+            } catch (IOException e) {
+                log.error("Error reading outbox segment " + file, e);
+            }
+            
+            if (segment.length > 0) {
+                segments.add(segment);
+            } else {
+                file.delete();
+            }
+        }
+        
+        if (!segments.isEmpty()) {
+            log.info("Recovered " + getSize() + " unpublished message(s) from outbox " + directory);
+        }
+    }
+    
+    /**
+     * Returns the sequence number of a segment file.
+     * 
+     * @param file The file.
+     * @return The sequence number, or -1 if not a segment file.
+     */
+    private long getSequence(File file) {
+        String name = file.getName();
+        
+        if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+            try {
+                return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {}
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Appends a message to the outbox.
+     * 
+     * @param producer Class name of the producer that failed to publish the message.
+     * @param channel The channel on which the message was to be published.
+     * @param message The message.
+     */
+    public void append(String producer, String channel, Message message) {
+        byte[] record = encodeRecord(producer, channel, message);
+        
+        synchronized (segments) {
+            try {
+                Segment segment = segments.peekLast();
+                
+                if (writer == null || segment.length + record.length > segmentSize) {
+                    segment = newSegment();
+                }
+                
+                writer.write(record);
+                
+                if (sync) {
+                    writer.getFD().sync();
+                }
+                
+                addCursor(producer, segment, segment.length);
+                segment.length += record.length;
+                increment(producer, 1);
+            } catch (IOException e) {
+                throw MiscUtil.toUnchecked(e);
+            }
+        }
+    }
+    
+    /**
+     * Appends a message to the outbox only if messages for the same producer are awaiting replay,
+     * so that the message is not published ahead of them.
+     * 
+     * @param producer Class name of the producer.
+     * @param channel The channel on which the message is to be published.
+     * @param message The message.
+     * @return True if the message was appended.
+     */
+    public boolean appendIfPending(String producer, String channel, Message message) {
+        synchronized (segments) {
+            if (!isPending(producer)) {
+                return false;
+            }
+            
+            append(producer, channel, message);
+            return true;
+        }
+    }
+    
+    /**
+     * Closes the current segment for writing and starts a new one.
+     * 
+     * @return The new segment.
+     * @throws IOException Error creating the segment file.
+     */
+    private Segment newSegment() throws IOException {
+        closeWriter();
+        File file = new File(directory, String.format("%s%016d%s", PREFIX, nextSequence++, SUFFIX));
+        writer = new RandomAccessFile(file, "rw");
+        writer.setLength(0);
+        Segment segment = new Segment(file, 0);
+        segments.add(segment);
+        return segment;
+    }
+    
+    /**
+     * Replays stored messages to each producer in order until none remain for the producer or one
+     * is not replayed. Only one drain runs at a time; messages may be appended while a drain is in
+     * progress.
+     * 
+     * @param callback Callback to replay each message.
+     * @return The number of messages replayed.
+     */
+    public int drain(IReplayCallback callback) {
+        synchronized (drainLock) {
+            List<String> producers;
+            int count = 0;
+            
+            synchronized (segments) {
+                producers = new ArrayList<>(cursors.keySet());
+            }
+            
+            for (String producer : producers) {
+                count += drain(producer, callback);
+            }
+            
+            synchronized (segments) {
+                removeSegments();
+            }
+            
+            return count;
+        }
+    }
+    
+    /**
+     * Replays a producer's stored messages in order until none remain or one is not replayed.
+     * Messages for other producers are passed over.
+     * 
+     * @param producer Class name of the producer.
+     * @param callback Callback to replay each message.
+     * @return The number of messages replayed.
+     */
+    private int drain(String producer, IReplayCallback callback) {
+        RandomAccessFile reader = null;
+        Segment readerSegment = null;
+        int count = 0;
+        
+        try {
+            while (true) {
+                Segment segment;
+                long position;
+                long length;
+                
+                synchronized (segments) {
+                    Cursor cursor = cursors.get(producer);
+                    
+                    if (cursor == null) {
+                        return count;
+                    }
+                    
+                    if (cursor.position >= cursor.segment.length) {
+                        int index = segments.indexOf(cursor.segment);
+                    
+                        if (index < 0 || index == segments.size() - 1) {
+                            return count;
+                        }
+                        
+                        cursor.segment = segments.get(index + 1);
+                        cursor.position = 0;
+                        continue;
+                    }
+                    
+                    segment = cursor.segment;
+                    position = cursor.position;
+                    length = segment.length;
+                }
+                
+                Record record;
+                
+                try {
+                    if (readerSegment != segment) {
+                        closeReader(reader);
+                        reader = null;
+                        reader = new RandomAccessFile(segment.file, "r");
+                        readerSegment = segment;
+                    }
+                    
+                    record = readRecord(reader, position);
+                } catch (IOException e) {
+                    log.error("Error reading outbox segment " + segment.file, e);
+                    return count;
+                }
+                
+                if (record == null) {
+                    log.error("Discarding unreadable data in outbox segment " + segment.file);
+                    advance(producer, length);
+                    continue;
+                }
+                
+                if (!record.producer.equals(producer)) {
+                    advance(producer, position + record.size);
+                    continue;
+                }
+                
+                boolean replayed;
+                
+                try {
+                    replayed = callback.replay(record.producer, record.channel, codec.decode(record.data));
+                } catch (IllegalArgumentException e) {
+                    log.error("Discarding malformed message in outbox segment " + segment.file, e);
+                    replayed = true;
+                } catch (Throwable e) {
+                    log.error("Error replaying message from outbox to " + record.channel, e);
+                    replayed = false;
+                }
+                
+                if (!replayed) {
+                    return count;
+                }
+                
+                count++;
+                
+                synchronized (segments) {
+                    advance(producer, position + record.size);
+                    increment(producer, -1);
+                }
+            }
+        } finally {
+            closeReader(reader);
+        }
+    }
+    
+    /**
+     * Moves a producer's cursor within its current segment.
+     * 
+     * @param producer Class name of the producer.
+     * @param position The new position.
+     */
+    private void advance(String producer, long position) {
+        synchronized (segments) {
+            Cursor cursor = cursors.get(producer);
+            
+            if (cursor != null) {
+                cursor.position = position;
+            }
+        }
+    }
+    
+    /**
+     * Positions a producer's cursor at a message, unless the producer already has messages
+     * awaiting replay.
+     * 
+     * @param producer Class name of the producer.
+     * @param segment The segment containing the message.
+     * @param position The position of the message.
+     */
+    private void addCursor(String producer, Segment segment, long position) {
+        if (!cursors.containsKey(producer)) {
+            cursors.put(producer, new Cursor(segment, position));
+        }
+    }
+        
+    /**
+     * Deletes leading segments that no producer's cursor has yet to pass.
+     */
+    private void removeSegments() {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+        
+            for (Cursor cursor : cursors.values()) {
+                if (cursor.segment == segment) {
+                    return;
+                }
+            }
+            
+            if (segment == segments.peekLast()) {
+                closeWriter();
+            }
+            
+            segments.removeFirst();
+            
+            if (!segment.file.delete()) {
+                log.warn("Unable to delete outbox segment " + segment.file);
+            }
+        }
+    }
+    
+    /**
+     * Reads the record at the specified position.
+     * 
+     * @param in The segment file.
+     * @param position The position of the record.
+     * @return The record, or null if there is no complete record at the position.
+     * @throws IOException Error reading the file.
+     */
+    private Record readRecord(RandomAccessFile in, long position) throws IOException {
+        if (in.length() - position < 4) {
+            return null;
+        }
+        
+        in.seek(position);
+        int size = in.readInt();
+        
+        if (size <= 0 || in.length() - position - 4 < size) {
+            return null;
+        }
+        
+        byte[] body = new byte[size];
+        in.readFully(body);
+        
+        try {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(body));
+            String producer = data.readUTF();
+            String channel = data.readUTF();
+            byte[] message = new byte[data.available()];
+            data.readFully(message);
+            return new Record(producer, channel, message, size + 4);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+    
+    private byte[] encodeRecord(String producer, String channel, Message message) {
+        try {
+            byte[] data = codec.encode(message);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeUTF(producer);
+            out.writeUTF(channel);
+            out.write(data);
+            byte[] record = bytes.toByteArray();
+            int size = record.length - 4;
+            record[0] = (byte) (size >>> 24);
+            record[1] = (byte) (size >>> 16);
+            record[2] = (byte) (size >>> 8);
+            record[3] = (byte) size;
+            return record;
+        } catch (IOException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+    }
+    
+    private void increment(String producer, int delta) {
+        Integer count = pending.get(producer);
+        count = (count == null ? 0 : count) + delta;
+        
+        if (count > 0) {
+            pending.put(producer, count);
+        } else {
+            pending.remove(producer);
+            cursors.remove(producer);
+        }
+    }
+    
+    /**
+     * Returns true if messages for the specified producer are awaiting replay.
+     * 
+     * @param producer Class name of the producer.
+     * @return True if messages are awaiting replay.
+     */
+    public boolean isPending(String producer) {
+        synchronized (segments) {
+            return pending.containsKey(producer);
+        }
+    }
+    
+    /**
+     * Returns the number of messages awaiting replay.
+     * 
+     * @return The number of messages.
+     */
+    public int getSize() {
+        synchronized (segments) {
+            int size = 0;
+            
+            for (Integer count : pending.values()) {
+                size += count;
+            }
+            
+            return size;
+        }
+    }
+    
+    /**
+     * Returns the directory containing the segment files.
+     * 
+     * @return The outbox directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Returns the size, in bytes, at which a new segment is started.
+     * 
+     * @return The segment size.
+     */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+    
+    /**
+     * Sets the size, in bytes, at which a new segment is started.
+     * 
+     * @param segmentSize The segment size.
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+    
+    /**
+     * Returns true if each append is synchronized to the storage device.
+     * 
+     * @return True if appends are synchronized.
+     */
+    public boolean isSync() {
+        return sync;
+    }
+    
+    /**
+     * Sets whether each append is synchronized to the storage device. This protects against loss
+     * of messages on a system crash, at the cost of slower appends.
+     * 
+     * @param sync True if appends are to be synchronized.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+    
+    /**
+     * Closes open segment files. Messages awaiting replay remain in the outbox.
+     */
+    public void close() {
+        synchronized (drainLock) {
+            synchronized (segments) {
+                closeWriter();
+            }
+        }
+    }
+    
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Error closing outbox segment.", e);
+            }
+            
+            writer = null;
+        }
+    }
+    
+    private void closeReader(RandomAccessFile reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.warn("Error closing outbox segment.", e);
+            }
+        }
+    }
+    
+}
@@ -56,25 +56,7 @@ public class MessageUtil {
      * @return True if the message should be excluded.
      */
     public static boolean isMessageExcluded(Message message, RecipientType recipientType, String recipientValue) {
-        Recipient[] recipients = (Recipient[]) message.getMetadata("cwf.pub.recipients");
-        
-        if (recipients == null || recipients.length == 0) {
-            return false;
-        }
-        
-        boolean excluded = false;
-        
-        for (Recipient recipient : recipients) {
-            if (recipient.getType() == recipientType) {
-                excluded = true;
-                
-                if (recipient.getValue().equals(recipientValue)) {
-                    return false;
-                }
-            }
-        }
-        
-        return excluded;
+        return message.getRecipientFilter().isExcluded(recipientType, recipientValue);
     }
     
     private MessageUtil() {
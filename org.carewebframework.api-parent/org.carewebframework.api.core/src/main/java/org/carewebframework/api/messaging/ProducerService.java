@@ -25,24 +25,134 @@
  */
 package org.carewebframework.api.messaging;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.carewebframework.api.thread.ThreadUtil;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
 
 /**
- * Aggregator for multiple producers.
+ * Aggregator for multiple producers. When more than one producer is registered, a message is
+ * handed to all producers in parallel. A thread awaiting publication runs any producer task that
+ * the executor has not yet started itself, so synchronous publication never waits on queued tasks
+ * and cannot starve the executor when called from one of its threads. Messages may also be
+ * published asynchronously, in which case they are queued per channel, up to a maximum, and
+ * published in batches by a background task, preserving their order within each channel. If a
+ * compressor is set, messages that reach its threshold are compressed before they are handed to
+ * the producers. If an outbox is set, messages that a producer fails to publish are stored in the
+ * outbox and replayed to that producer, in order, by a background task once it recovers.
  */
 public class ProducerService implements DestructionAwareBeanPostProcessor {
     
-    private final Set<IMessageProducer> producers = new LinkedHashSet<>();
+    private static final Log log = LogFactory.getLog(ProducerService.class);
+    
+    /**
+     * A message awaiting asynchronous publication.
+     */
+    private static class PendingMessage {
+        
+        private final Message message;
+        
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        
+        PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+    
+    /**
+     * Publication of a list of messages to a single producer. The task runs at most once, on
+     * whichever thread claims it first: an executor thread or a thread awaiting its result.
+     */
+    private class PublishTask implements Runnable {
+        
+        private final String channel;
+        
+        private final List<Message> messages;
+        
+        private final IMessageProducer producer;
+        
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        
+        private final CompletableFuture<boolean[]> future = new CompletableFuture<>();
+        
+        PublishTask(String channel, List<Message> messages, IMessageProducer producer) {
+            this.channel = channel;
+            this.messages = messages;
+            this.producer = producer;
+        }
+        
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                try {
+                    future.complete(publish(channel, messages, producer));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Messages awaiting asynchronous publication to a single channel. At most one batch per
+     * channel is in flight at any time.
+     */
+    private static class PendingChannel {
+        
+        private final String channel;
+        
+        private final Queue<PendingMessage> queue = new ArrayDeque<>();
+        
+        private boolean active;
+        
+        PendingChannel(String channel) {
+            this.channel = channel;
+        }
+    }
+    
+    private final Set<IMessageProducer> producers = new CopyOnWriteArraySet<>();
+    
+    private final Map<String, PendingChannel> pendingChannels = new HashMap<>();
     
     private final String nodeId = UUID.randomUUID().toString();
     
+    private Executor executor;
+    
+    private int batchSize = 100;
+    
+    private int maxPending = 10000;
+    
+    private MessageCompressor compressor;
+    
+    private MessageOutbox outbox;
+    
+    private long outboxRetryInterval = 5000;
+    
+    private boolean drainScheduled;
+    
     /**
      * @return The unique node id for this service.
      */
@@ -86,14 +196,322 @@ public class ProducerService implements DestructionAwareBeanPostProcessor {
      * @return True if successfully published.
      */
     public boolean publish(String channel, Message message, Recipient... recipients) {
-        boolean result = false;
-        prepare(channel, message, recipients);
+        List<Message> messages = Collections.singletonList(prepare(channel, message, recipients));
+        Executor executor = producers.size() > 1 ? getExecutor() : null;
+        List<PublishTask> tasks = publish(channel, messages, executor);
+        
+        for (PublishTask task : tasks) {
+            task.run();
+        }
+        
+        return combine(tasks, 1).join()[0];
+    }
+        
+    /**
+     * Publish a message asynchronously. The message is queued for its channel and returns
+     * immediately. Queued messages are published in batches on a background thread, in the order
+     * in which they were submitted for the channel. If no executor is available, the message is
+     * published on the calling thread.
+     * 
+     * @param channel The channel on which to publish the message.
+     * @param message Message to publish.
+     * @param recipients Optional list of targeted recipients.
+     * @return A future that completes with true if the message was successfully published. If the
+     *         channel's queue is full, the future completes exceptionally with a
+     *         {@link RejectedExecutionException}.
+     */
+    public CompletableFuture<Boolean> publishAsync(String channel, Message message, Recipient... recipients) {
+        Executor executor = getExecutor();
+        
+        if (executor == null) {
+            return CompletableFuture.completedFuture(publish(channel, message, recipients));
+        }
+        
+        PendingMessage pending = new PendingMessage(prepare(channel, message, recipients));
+        PendingChannel pendingChannel;
+        boolean start;
+        
+        synchronized (pendingChannels) {
+            pendingChannel = pendingChannels.get(channel);
+            
+            if (pendingChannel == null) {
+                pendingChannels.put(channel, pendingChannel = new PendingChannel(channel));
+            }
+            
+            if (pendingChannel.queue.size() >= maxPending) {
+                pending.future.completeExceptionally(new RejectedExecutionException(
+                        "Publication queue is full for channel: " + channel));
+                return pending.future;
+            }
+            
+            pendingChannel.queue.add(pending);
+            start = !pendingChannel.active;
+            pendingChannel.active = true;
+        }
+        
+        if (start) {
+            publishNext(pendingChannel, executor);
+        }
+        
+        return pending.future;
+    }
+    
+    /**
+     * Publishes the next batch of queued messages for a channel. When the batch completes, the
+     * next batch is started, until the queue is empty.
+     * 
+     * @param pendingChannel The channel's queued messages.
+     * @param executor Executor for publication tasks.
+     */
+    private void publishNext(final PendingChannel pendingChannel, final Executor executor) {
+        final List<PendingMessage> batch = new ArrayList<>();
+        
+        synchronized (pendingChannels) {
+            PendingMessage pending;
+            
+            while (batch.size() < batchSize && (pending = pendingChannel.queue.poll()) != null) {
+                batch.add(pending);
+            }
+            
+            if (batch.isEmpty()) {
+                pendingChannel.active = false;
+                pendingChannels.remove(pendingChannel.channel);
+                return;
+            }
+        }
+        
+        List<Message> messages = new ArrayList<>(batch.size());
+        
+        for (PendingMessage pending : batch) {
+            messages.add(pending.message);
+        }
+        
+        List<PublishTask> tasks = publish(pendingChannel.channel, messages, executor);
+        combine(tasks, messages.size()).whenComplete(new BiConsumer<boolean[], Throwable>() {
+            
+            @Override
+            public void accept(boolean[] results, Throwable e) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (e == null) {
+                        batch.get(i).future.complete(results[i]);
+                    } else {
+                        batch.get(i).future.completeExceptionally(e);
+                    }
+                }
+                
+                publishNext(pendingChannel, executor);
+            }
+            
+        });
+    }
+    
+    /**
+     * Starts publication of a list of messages to all registered producers. Each producer receives
+     * the messages in order. If an executor is specified, each producer is invoked on a separate
+     * task so that producers are invoked in parallel.
+     * 
+     * @param channel The channel on which to publish the messages.
+     * @param messages Messages to publish.
+     * @param executor Executor for publication tasks. If null, producers are invoked in sequence on
+     *            the calling thread.
+     * @return The publication task for each producer.
+     */
+    private List<PublishTask> publish(String channel, List<Message> messages, Executor executor) {
+        List<PublishTask> tasks = new ArrayList<>();
         
         for (IMessageProducer producer : producers) {
-            result |= producer.publish(channel, message);
+            PublishTask task = new PublishTask(channel, messages, producer);
+            tasks.add(task);
+            
+            try {
+                if (executor == null) {
+                    task.run();
+                } else {
+                    executor.execute(task);
+                }
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+        
+        return tasks;
+    }
+    
+    /**
+     * Combines the results of publication tasks.
+     * 
+     * @param tasks The publication tasks.
+     * @param count The number of messages published by each task.
+     * @return A future that completes with the result of each message's publication. A message is
+     *         successfully published if any producer accepted it.
+     */
+    private CompletableFuture<boolean[]> combine(final List<PublishTask> tasks, final int count) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks.size()];
+        
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = tasks.get(i).future;
+        }
+                
+        return CompletableFuture.allOf(futures).thenApply(new Function<Void, boolean[]>() {
+            
+            @Override
+            public boolean[] apply(Void v) {
+                boolean[] combined = new boolean[count];
+                
+                for (PublishTask task : tasks) {
+                    boolean[] published = task.future.join();
+                    
+                    for (int i = 0; i < combined.length; i++) {
+                        combined[i] |= published[i];
+                    }
+                }
+                
+                return combined;
+            }
+            
+        });
+    }
+    
+    /**
+     * Publishes a list of messages in order to a single producer.
+     * 
+     * @param channel The channel on which to publish the messages.
+     * @param messages Messages to publish.
+     * @param producer The message producer.
+     * @return The result of each message's publication.
+     */
+    private boolean[] publish(String channel, List<Message> messages, IMessageProducer producer) {
+        boolean[] results = new boolean[messages.size()];
+        
+        for (int i = 0; i < results.length; i++) {
+            results[i] = send(channel, messages.get(i), producer);
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Sends a prepared message to a single producer. Errors are logged and the message is treated
+     * as unpublished. If an outbox is set, an unpublished message is stored in the outbox, as is
+     * any message for a producer that still has messages awaiting replay, and is then considered
+     * published.
+     * 
+     * @param channel The channel on which to publish the message.
+     * @param message Message to publish.
+     * @param producer The message producer.
+     * @return True if the message was published or stored in the outbox.
+     */
+    private boolean send(String channel, Message message, IMessageProducer producer) {
+        MessageOutbox outbox = this.outbox;
+        String name = producer.getClass().getName();
+        
+        try {
+            if (outbox != null && outbox.appendIfPending(name, channel, message)) {
+                scheduleDrain();
+                return true;
+            }
+            
+            if (producer.publish(channel, message)) {
+                return true;
+            }
+        } catch (Throwable e) {
+            log.error("Error publishing message to " + channel + " via " + name, e);
+        }
+        
+        if (outbox != null) {
+            try {
+                outbox.append(name, channel, message);
+                scheduleDrain();
+                return true;
+            } catch (Throwable e) {
+                log.error("Error storing message for " + channel + " in outbox", e);
+            }
         }
         
-        return result;
+        return false;
+    }
+    
+    /**
+     * Schedules a background task to replay messages from the outbox, if one is not already
+     * scheduled.
+     */
+    private void scheduleDrain() {
+        ScheduledExecutorService scheduler;
+        
+        synchronized (this) {
+            if (drainScheduled || (scheduler = ThreadUtil.getTaskScheduler()) == null) {
+                return;
+            }
+            
+            drainScheduled = true;
+        }
+        
+        try {
+            scheduler.schedule(new Runnable() {
+                
+                @Override
+                public void run() {
+                    drainOutbox();
+                }
+                
+            }, outboxRetryInterval, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                drainScheduled = false;
+            }
+        }
+    }
+    
+    /**
+     * Replays messages from the outbox to their producers. If messages remain, another attempt is
+     * scheduled.
+     * 
+     * @return The number of messages replayed.
+     */
+    public int drainOutbox() {
+        MessageOutbox outbox = this.outbox;
+        
+        synchronized (this) {
+            drainScheduled = false;
+        }
+        
+        if (outbox == null) {
+            return 0;
+        }
+        
+        int count = outbox.drain(new MessageOutbox.IReplayCallback() {
+            
+            @Override
+            public boolean replay(String producer, String channel, Message message) {
+                IMessageProducer target = findRegisteredProducer(producer);
+                
+                if (target == null) {
+                    log.warn("Discarding message for " + channel + " from outbox: no producer " + producer);
+                    return true;
+                }
+                
+                return target.publish(channel, message);
+            }
+            
+        });
+        
+        if (outbox.getSize() > 0) {
+            scheduleDrain();
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Closes the outbox, if any. Messages awaiting replay remain in the outbox and are replayed
+     * when it is next opened.
+     */
+    public void destroy() {
+        MessageOutbox outbox = this.outbox;
+        
+        if (outbox != null) {
+            outbox.close();
+        }
     }
     
     /**
@@ -141,13 +559,28 @@ public class ProducerService implements DestructionAwareBeanPostProcessor {
      */
     private boolean publish(String channel, Message message, IMessageProducer producer, Recipient[] recipients) {
         if (producer != null) {
-            prepare(channel, message, recipients);
-            return producer.publish(channel, message);
+            return send(channel, prepare(channel, message, recipients), producer);
         }
         
         return false;
     }
     
+    /**
+     * Returns the producer with the specified class name.
+     * 
+     * @param className Class name of the producer sought.
+     * @return The producer, or null if not found.
+     */
+    private IMessageProducer findRegisteredProducer(String className) {
+        for (IMessageProducer producer : producers) {
+            if (producer.getClass().getName().equals(className)) {
+                return producer;
+            }
+        }
+        
+        return null;
+    }
+    
     /**
      * Returns a producer of the specified class.
      * 
@@ -165,18 +598,140 @@ public class ProducerService implements DestructionAwareBeanPostProcessor {
     }
     
     /**
-     * Adds publication-specific metadata to the message.
+     * Adds publication-specific metadata to the message and compresses it if a compressor is set.
      * 
+     * @param channel The channel on which the message is to be published.
      * @param message The message.
-     * @return The original message.
+     * @param recipients Optional list of targeted recipients.
+     * @return The message to publish: the original message or its compressed copy.
      */
     private Message prepare(String channel, Message message, Recipient[] recipients) {
         message.setMetadata("cwf.pub.node", nodeId);
         message.setMetadata("cwf.pub.channel", channel);
         message.setMetadata("cwf.pub.event", UUID.randomUUID().toString());
         message.setMetadata("cwf.pub.when", System.currentTimeMillis());
-        message.setMetadata("cwf.pub.recipients", recipients);
-        return message;
+        message.setMetadata(Message.RECIPIENTS_METADATA, recipients);
+        return compressor == null ? message : compressor.compress(message);
+    }
+    
+    /**
+     * Returns the executor used for parallel and asynchronous publication.
+     * 
+     * @return The executor. If none was set, the framework's task executor is returned (may be
+     *         null).
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : ThreadUtil.getTaskExecutor();
+    }
+    
+    /**
+     * Sets the executor used for parallel and asynchronous publication.
+     * 
+     * @param executor The executor. If null, the framework's task executor is used.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * Returns the maximum number of queued messages published together for a channel.
+     * 
+     * @return The maximum batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * Sets the maximum number of queued messages published together for a channel.
+     * 
+     * @param batchSize The maximum batch size.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /**
+     * Returns the maximum number of messages queued for asynchronous publication to a channel.
+     * 
+     * @return The maximum number of queued messages per channel.
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+    
+    /**
+     * Sets the maximum number of messages queued for asynchronous publication to a channel.
+     * Messages submitted while a channel's queue is full are rejected.
+     * 
+     * @param maxPending The maximum number of queued messages per channel.
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+    }
+    
+    /**
+     * Returns the compressor applied to published messages.
+     * 
+     * @return The message compressor (may be null).
+     */
+    public MessageCompressor getCompressor() {
+        return compressor;
+    }
+    
+    /**
+     * Sets the compressor applied to published messages.
+     * 
+     * @param compressor The message compressor. If null, messages are not compressed.
+     */
+    public void setCompressor(MessageCompressor compressor) {
+        this.compressor = compressor;
+    }
+    
+    /**
+     * Returns the outbox for messages that could not be published.
+     * 
+     * @return The outbox (may be null).
+     */
+    public MessageOutbox getOutbox() {
+        return outbox;
+    }
+    
+    /**
+     * Sets the outbox for messages that could not be published.
+     * 
+     * @param outbox The outbox. If null, unpublished messages are discarded.
+     */
+    public void setOutbox(MessageOutbox outbox) {
+        this.outbox = outbox;
+    }
+    
+    /**
+     * Sets the directory of the outbox for messages that could not be published, creating the
+     * outbox.
+     * 
+     * @param directory The outbox directory. If empty, there is no outbox.
+     */
+    public void setOutboxDirectory(String directory) {
+        setOutbox(StringUtils.isEmpty(directory) ? null : new MessageOutbox(new File(directory)));
+    }
+    
+    /**
+     * Returns the interval between attempts to replay messages from the outbox.
+     * 
+     * @return The retry interval in milliseconds.
+     */
+    public long getOutboxRetryInterval() {
+        return outboxRetryInterval;
+    }
+    
+    /**
+     * Sets the interval between attempts to replay messages from the outbox.
+     * 
+     * @param outboxRetryInterval The retry interval in milliseconds.
+     */
+    public void setOutboxRetryInterval(long outboxRetryInterval) {
+        this.outboxRetryInterval = Math.max(1, outboxRetryInterval);
     }
     
     @Override
@@ -188,6 +743,10 @@ public class ProducerService implements DestructionAwareBeanPostProcessor {
     public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
         if (bean instanceof IMessageProducer) {
             registerProducer((IMessageProducer) bean);
+            
+            if (outbox != null && outbox.isPending(bean.getClass().getName())) {
+                scheduleDrain();
+            }
         }
         
         return bean;
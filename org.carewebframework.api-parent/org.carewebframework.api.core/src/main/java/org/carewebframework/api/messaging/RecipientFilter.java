@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+
+/**
+ * A compiled form of a message's recipient list that supports constant-time exclusion checks. The
+ * recipients are grouped by type into hashed sets of values. A message is excluded for a recipient
+ * if the message constrains the recipient's type and the recipient's value is not among those
+ * listed for that type. Instances are immutable.
+ */
+public final class RecipientFilter {
+    
+    /**
+     * A filter that places no constraints on recipients.
+     */
+    public static final RecipientFilter NONE = new RecipientFilter(
+            Collections.<RecipientType, Set<String>> emptyMap());
+    
+    private final Map<RecipientType, Set<String>> constraints;
+    
+    /**
+     * Compiles a recipient list.
+     * 
+     * @param recipients The recipient list (may be null).
+     * @return The compiled filter.
+     */
+    public static RecipientFilter compile(Recipient... recipients) {
+        if (recipients == null || recipients.length == 0) {
+            return NONE;
+        }
+        
+        Map<RecipientType, Set<String>> constraints = new EnumMap<>(RecipientType.class);
+        
+        for (Recipient recipient : recipients) {
+            Set<String> values = constraints.get(recipient.getType());
+            
+            if (values == null) {
+                constraints.put(recipient.getType(), values = new HashSet<>());
+            }
+            
+            values.add(recipient.getValue());
+        }
+        
+        return new RecipientFilter(constraints);
+    }
+    
+    private RecipientFilter(Map<RecipientType, Set<String>> constraints) {
+        this.constraints = constraints;
+    }
+    
+    /**
+     * Returns true if the filter constrains any recipient type.
+     * 
+     * @return True if any constraints are present.
+     */
+    public boolean isConstrained() {
+        return !constraints.isEmpty();
+    }
+    
+    /**
+     * Returns true if the filter constrains the specified recipient type.
+     * 
+     * @param recipientType The type of recipient.
+     * @return True if the recipient type is constrained.
+     */
+    public boolean isConstrained(RecipientType recipientType) {
+        return constraints.containsKey(recipientType);
+    }
+    
+    /**
+     * Returns true if a recipient is excluded by the filter.
+     * 
+     * @param recipientType The type of recipient.
+     * @param recipientValue The recipient's value.
+     * @return True if the recipient is excluded.
+     */
+    public boolean isExcluded(RecipientType recipientType, String recipientValue) {
+        Set<String> values = constraints.get(recipientType);
+        return values != null && !values.contains(recipientValue);
+    }
+    
+}
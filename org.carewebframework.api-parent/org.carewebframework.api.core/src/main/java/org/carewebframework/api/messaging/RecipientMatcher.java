@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+
+/**
+ * Determines whether messages are excluded for the local publisher identity. The identity's values
+ * are read from the publisher information at the time of each check, so changes (e.g., a user
+ * logging in) take effect immediately.
+ */
+public class RecipientMatcher {
+    
+    private final PublisherInfo publisherInfo;
+    
+    private final RecipientType[] recipientTypes;
+    
+    /**
+     * Creates a matcher for the local identity.
+     * 
+     * @param publisherInfo Information about the local publisher.
+     * @param recipientTypes The recipient types to be matched.
+     */
+    public RecipientMatcher(PublisherInfo publisherInfo, RecipientType... recipientTypes) {
+        this.publisherInfo = publisherInfo;
+        this.recipientTypes = recipientTypes;
+    }
+    
+    /**
+     * Returns true if the message is excluded for the local identity, i.e., if the message
+     * constrains any of the matched recipient types and the local identity is not among the
+     * recipients for that type.
+     * 
+     * @param message The message to examine.
+     * @return True if the message should be excluded.
+     */
+    public boolean isExcluded(Message message) {
+        RecipientFilter filter = message.getRecipientFilter();
+        
+        if (!filter.isConstrained()) {
+            return false;
+        }
+        
+        for (RecipientType recipientType : recipientTypes) {
+            if (filter.isExcluded(recipientType, publisherInfo.get(recipientType))) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+}
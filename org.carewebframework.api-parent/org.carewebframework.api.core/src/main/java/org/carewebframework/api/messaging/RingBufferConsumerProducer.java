@@ -0,0 +1,379 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * In-process message consumer and producer that does not require a messaging framework, for use in
+ * place of {@link SimpleConsumerProducer} where publishers should not wait for message delivery.
+ * Published messages are placed in a preallocated ring buffer that accepts messages from any number
+ * of threads without locking. A single delivery thread removes messages in the order in which they
+ * were published and passes them to the callback in batches, sleeping when the buffer is empty and
+ * woken only when a publisher finds it asleep. Messages are passed by reference, without
+ * serialization. When the buffer is full, publishers block until the delivery thread frees space,
+ * except for the delivery thread itself, which cannot wait on itself and instead queues its own
+ * messages locally, to be delivered after those already in the buffer.
+ */
+public class RingBufferConsumerProducer implements IMessageProducer, IMessageConsumer {
+    
+    private static final Log log = LogFactory.getLog(RingBufferConsumerProducer.class);
+    
+    private static final int BATCH_SIZE = 256;
+    
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    /**
+     * Upper bound on the time a blocked publisher waits before checking for space again, in case a
+     * notification was missed.
+     */
+    private static final long WAIT_MILLIS = 1;
+    
+    /**
+     * A message published by the delivery thread while the buffer was full.
+     */
+    private static class Overflow {
+        
+        private final long sequence;
+        
+        private final String channel;
+        
+        private final Message message;
+        
+        /**
+         * @param sequence The message is delivered after all messages in the buffer with a lower
+         *            sequence number.
+         * @param channel The channel.
+         * @param message The message.
+         */
+        Overflow(long sequence, String channel, Message message) {
+            this.sequence = sequence;
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+    
+    /**
+     * Messages published by the delivery thread while the buffer was full, in publication order.
+     * Accessed only by the delivery thread.
+     */
+    private final Queue<Overflow> overflow = new ArrayDeque<>();
+    
+    /**
+     * Monitor on which publishers wait for space in the buffer.
+     */
+    private final Object space = new Object();
+    
+    private volatile int waiting;
+    
+    private final int mask;
+    
+    private final String[] channels;
+    
+    private final Message[] messages;
+    
+    /**
+     * The sequence number of the message in each slot, set when the slot is published.
+     */
+    private final AtomicLongArray published;
+    
+    /**
+     * The sequence number of the next slot to be claimed by a publisher.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    
+    /**
+     * The sequence number of the next slot to be delivered.
+     */
+    private final AtomicLong head = new AtomicLong();
+    
+    private volatile IMessageCallback callback;
+    
+    private volatile Thread deliveryThread;
+    
+    private volatile boolean sleeping;
+    
+    private volatile boolean running = true;
+    
+    /**
+     * Creates a transport with a default capacity of 1024 messages.
+     */
+    public RingBufferConsumerProducer() {
+        this(1024);
+    }
+    
+    /**
+     * Creates a transport with the specified capacity.
+     * 
+     * @param capacity Maximum number of undelivered messages. Rounded up to a power of two.
+     */
+    public RingBufferConsumerProducer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        channels = new String[size];
+        messages = new Message[size];
+        published = new AtomicLongArray(size);
+        
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+    
+    @Override
+    public void setCallback(IMessageCallback callback) {
+        this.callback = callback;
+    }
+    
+    @Override
+    public boolean subscribe(String channel) {
+        return true;
+    }
+    
+    @Override
+    public boolean unsubscribe(String channel) {
+        return true;
+    }
+    
+    @Override
+    public boolean publish(String channel, Message message) {
+        if (!running) {
+            return false;
+        }
+        
+        Thread thread = getDeliveryThread();
+        long sequence;
+        
+        while (true) {
+            sequence = tail.get();
+            
+            if (Thread.currentThread() == thread && (!overflow.isEmpty() || sequence - head.get() > mask)) {
+                overflow.add(new Overflow(sequence, channel, message));
+                return true;
+            }
+            
+            if (sequence - head.get() > mask) {
+                if (!awaitSpace(sequence)) {
+                    return false;
+                }
+            } else if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        
+        int index = (int) sequence & mask;
+        channels[index] = channel;
+        messages[index] = message;
+        published.set(index, sequence);
+        
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Blocks until the buffer has space for the message with the specified sequence number, or the
+     * transport is destroyed.
+     * 
+     * @param sequence The sequence number.
+     * @return False if the transport was destroyed.
+     */
+    private boolean awaitSpace(long sequence) {
+        synchronized (space) {
+            waiting++;
+            
+            try {
+                while (running && sequence - head.get() > mask) {
+                    space.wait(WAIT_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+        
+        return running;
+    }
+    
+    /**
+     * Wakes any publishers waiting for space in the buffer.
+     */
+    private void signalSpace() {
+        if (waiting > 0) {
+            synchronized (space) {
+                space.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Returns the delivery thread, starting it if necessary.
+     * 
+     * @return The delivery thread.
+     */
+    private Thread getDeliveryThread() {
+        Thread thread = deliveryThread;
+        
+        if (thread == null) {
+            synchronized (this) {
+                if ((thread = deliveryThread) == null) {
+                    thread = new Thread(new Runnable() {
+                        
+                        @Override
+                        public void run() {
+                            deliverMessages();
+                        }
+                        
+                    }, "cwf-ring-delivery");
+                    thread.setDaemon(true);
+                    thread.start();
+                    deliveryThread = thread;
+                }
+            }
+        }
+        
+        return thread;
+    }
+    
+    /**
+     * Main loop of the delivery thread. Delivers published messages in batches, in sequence order,
+     * and sleeps when none are available. Messages queued locally while the buffer was full are
+     * delivered as soon as all messages that preceded them in the buffer have been delivered. Any
+     * messages remaining when the transport is destroyed are discarded and logged.
+     */
+    private void deliverMessages() {
+        long next = head.get();
+        
+        while (running) {
+            int count = 0;
+            
+            while (count < BATCH_SIZE) {
+                Overflow queued = overflow.peek();
+                int index = (int) next & mask;
+                
+                if (queued != null && queued.sequence <= next) {
+                    overflow.remove();
+                    deliver(queued.channel, queued.message);
+                } else if (published.get(index) == next) {
+                    String channel = channels[index];
+                    Message message = messages[index];
+                    channels[index] = null;
+                    messages[index] = null;
+                    head.lazySet(++next);
+                    deliver(channel, message);
+                } else {
+                    break;
+                }
+                
+                count++;
+            }
+            
+            if (count > 0) {
+                signalSpace();
+            } else {
+                sleeping = true;
+                
+                if (published.get((int) next & mask) != next && running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                
+                sleeping = false;
+            }
+        }
+        
+        long discarded = tail.get() - next + overflow.size();
+        overflow.clear();
+        
+        if (discarded > 0) {
+            log.warn(String.format("Discarded %d undelivered message(s) when the transport was destroyed", discarded));
+        }
+    }
+    
+    /**
+     * Passes a message to the callback, logging any error.
+     * 
+     * @param channel The channel.
+     * @param message The message.
+     */
+    private void deliver(String channel, Message message) {
+        IMessageCallback callback = this.callback;
+        
+        if (callback != null) {
+            try {
+                callback.onMessage(channel, message);
+            } catch (Throwable e) {
+                log.error("Error delivering message on channel " + channel, e);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of published messages that have not yet been delivered.
+     * 
+     * @return The number of undelivered messages.
+     */
+    public int getBacklog() {
+        return (int) (tail.get() - head.get());
+    }
+    
+    /**
+     * Returns the maximum number of undelivered messages.
+     * 
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * Stops the delivery thread. Messages not yet delivered are discarded, with a warning, and
+     * subsequent publication requests, including those waiting for space, are rejected.
+     */
+    public void destroy() {
+        running = false;
+        Thread thread = deliveryThread;
+        
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        
+        synchronized (space) {
+            space.notifyAll();
+        }
+    }
+    
+}
@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.thread;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Executes tasks so that tasks submitted with the same key run one at a time in submission order,
+ * while tasks with keys assigned to different stripes may run concurrently. Each stripe is a queue
+ * that is drained by at most one task of the underlying executor at any time. Keys are assigned to
+ * a fixed number of stripes by hash code, so unrelated keys may share a stripe. Each stripe holds
+ * a bounded number of tasks; a task submitted to a full stripe is rejected.
+ */
+public class StripedExecutor {
+    
+    private static final Log log = LogFactory.getLog(StripedExecutor.class);
+    
+    /**
+     * Maximum number of tasks run by a single drain before yielding the executor thread.
+     */
+    private static final int DRAIN_BATCH = 64;
+    
+    /**
+     * Default maximum number of tasks queued per stripe.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+    
+    private class Stripe implements Runnable {
+        
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        
+        private boolean active;
+        
+        /**
+         * Runs queued tasks until the queue is empty. After each batch of tasks, the drain is
+         * resubmitted to the executor so that other work may proceed. If the executor rejects it,
+         * draining continues on the current thread, which remains the stripe's only drain.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                for (int i = 0; i < DRAIN_BATCH; i++) {
+                    Runnable task;
+                
+                    synchronized (this) {
+                        task = queue.poll();
+                    
+                        if (task == null) {
+                            active = false;
+                            return;
+                        }
+                    }
+                    
+                    queueDepth.decrementAndGet();
+                    
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        log.error("Error executing striped task.", e);
+                    }
+                }
+                
+                if (schedule(this)) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private final Executor executor;
+    
+    private final Stripe[] stripes;
+    
+    private final int capacity;
+    
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    
+    /**
+     * Creates a striped executor with the default stripe capacity.
+     * 
+     * @param executor The underlying executor.
+     * @param stripeCount The number of stripes.
+     */
+    public StripedExecutor(Executor executor, int stripeCount) {
+        this(executor, stripeCount, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Creates a striped executor.
+     * 
+     * @param executor The underlying executor.
+     * @param stripeCount The number of stripes.
+     * @param capacity The maximum number of tasks queued per stripe.
+     */
+    public StripedExecutor(Executor executor, int stripeCount, int capacity) {
+        this.executor = executor;
+        this.capacity = Math.max(1, capacity);
+        this.stripes = new Stripe[Math.max(1, stripeCount)];
+        
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    /**
+     * Submits a task for execution after all previously submitted tasks with the same key.
+     * 
+     * @param key Key that determines the task's stripe.
+     * @param task The task.
+     * @throws RejectedExecutionException If the task's stripe is full.
+     */
+    public void execute(Object key, Runnable task) {
+        int hash = key == null ? 0 : key.hashCode();
+        Stripe stripe = stripes[((hash ^ hash >>> 16) & Integer.MAX_VALUE) % stripes.length];
+        boolean start;
+        
+        synchronized (stripe) {
+            if (stripe.queue.size() >= capacity) {
+                throw new RejectedExecutionException("Stripe capacity of " + capacity + " tasks exceeded.");
+            }
+            
+            stripe.queue.add(task);
+            queueDepth.incrementAndGet();
+            start = !stripe.active;
+            stripe.active = true;
+        }
+        
+        if (start && !schedule(stripe)) {
+            // The stripe was idle, so the calling thread becomes its only drain.
+            log.warn("Striped task was rejected; executing on caller's thread.");
+            stripe.run();
+        }
+    }
+    
+    /**
+     * Returns the number of tasks waiting to run.
+     * 
+     * @return The number of queued tasks.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+    
+    /**
+     * Returns the number of stripes.
+     * 
+     * @return The number of stripes.
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+    
+    /**
+     * Returns the maximum number of tasks queued per stripe.
+     * 
+     * @return The stripe capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Submits a stripe's drain to the executor.
+     * 
+     * @param stripe The stripe.
+     * @return False if the executor rejected the drain.
+     */
+    private boolean schedule(Stripe stripe) {
+        try {
+            executor.execute(stripe);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+    
+}
@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class EventCoalescerTest {
+    
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    
+    private final List<String> received = new ArrayList<>();
+    
+    private final IGenericEvent<Object> target = new IGenericEvent<Object>() {
+        
+        @Override
+        public void eventCallback(String eventName, Object eventData) {
+            synchronized (received) {
+                received.add(eventName + "=" + eventData);
+            }
+        }
+        
+    };
+    
+    private final EventCoalescer coalescer = new EventCoalescer(target, scheduler);
+    
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+    
+    private String getReceived() {
+        synchronized (received) {
+            return received.toString();
+        }
+    }
+    
+    @Test
+    public void testRuleLookup() {
+        assertFalse(coalescer.isCoalescible("TEST"));
+        coalescer.register("TEST", 60000);
+        assertTrue(coalescer.isCoalescible("TEST"));
+        assertTrue(coalescer.isCoalescible("TEST.CHILD.GRANDCHILD"));
+        assertFalse(coalescer.isCoalescible("TESTING"));
+        assertFalse(coalescer.isCoalescible("OTHER.TEST"));
+        assertFalse(coalescer.isCoalescible(""));
+        coalescer.unregister("TEST");
+        assertFalse(coalescer.isCoalescible("TEST.CHILD"));
+        assertFalse(coalescer.coalesce("TEST.CHILD", 1));
+    }
+    
+    @Test
+    public void testMerge() {
+        coalescer.register("TEST", 60000, new IEventMerger<Integer>() {
+            
+            @Override
+            public Integer merge(String eventName, Integer pendingData, Integer eventData) {
+                return pendingData + eventData;
+            }
+            
+        });
+        
+        coalescer.register("TEST.LAST", 60000);
+        assertTrue(coalescer.coalesce("TEST.SUM", 1));
+        assertTrue(coalescer.coalesce("TEST.SUM", 2));
+        assertTrue(coalescer.coalesce("TEST.LAST", 1));
+        assertTrue(coalescer.coalesce("TEST.LAST", 2));
+        assertTrue(coalescer.coalesce("TEST.SUM", 3));
+        assertEquals("[]", getReceived());
+        coalescer.flush();
+        assertTrue(getReceived().contains("TEST.SUM=6"));
+        assertTrue(getReceived().contains("TEST.LAST=2"));
+        assertEquals(2, received.size());
+    }
+    
+    @Test
+    public void testWindow() throws Exception {
+        coalescer.register("TEST", 100);
+        assertTrue(coalescer.coalesce("TEST", 1));
+        assertTrue(coalescer.coalesce("TEST", 2));
+        assertEquals("[]", getReceived());
+        long timeout = System.currentTimeMillis() + 5000;
+        
+        while (getReceived().equals("[]") && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        
+        assertEquals("[TEST=2]", getReceived());
+        // A new window is opened by the next occurrence.
+        assertTrue(coalescer.coalesce("TEST", 3));
+        coalescer.clear();
+        Thread.sleep(200);
+        assertEquals("[TEST=2]", getReceived());
+    }
+    
+}
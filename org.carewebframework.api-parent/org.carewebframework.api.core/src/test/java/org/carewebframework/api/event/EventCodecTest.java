@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EventCodecTest {
+    
+    @Test
+    public void testBinaryCodec() {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        Map<Object, Object> map = new LinkedHashMap<>();
+        List<Object> list = new ArrayList<>();
+        list.add("text");
+        list.add(123);
+        list.add(456L);
+        list.add(1.5);
+        list.add(true);
+        list.add(null);
+        list.add(new Date(1000));
+        map.put("list", list);
+        map.put(7, 2.5f);
+        assertTrue(codec.canEncode(map));
+        assertFalse(codec.canEncode(new Object()));
+        Serializable encoded = codec.encode(map);
+        assertTrue(encoded instanceof byte[]);
+        assertEquals(map, codec.decode(encoded));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) codec.decode(codec.encode(new byte[] { 1, 2, 3 })));
+    }
+    
+    @Test
+    public void testMalformedBinaryData() throws IOException {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        // Lengths that are negative or exceed the remaining data.
+        assertRejected(codec, 9, Integer.MAX_VALUE);
+        assertRejected(codec, 10, Integer.MAX_VALUE);
+        assertRejected(codec, 8, -1);
+        assertRejected(codec, 1, 100, 0);
+        // Nesting beyond the maximum depth.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        
+        for (int i = 0; i < 10000; i++) {
+            out.writeByte(9);
+            out.writeInt(1);
+        }
+        
+        out.writeByte(0);
+        assertRejected(codec, bytes.toByteArray());
+    }
+    
+    /**
+     * Asserts that binary event data consisting of the version, a tag and the specified integers is
+     * rejected.
+     */
+    private void assertRejected(BinaryEventCodec codec, int tag, int... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeByte(tag);
+        
+        for (int value : values) {
+            out.writeInt(value);
+        }
+        
+        assertRejected(codec, bytes.toByteArray());
+    }
+    
+    private void assertRejected(BinaryEventCodec codec, byte[] data) {
+        try {
+            codec.decode(data);
+            fail("Expected malformed data to be rejected.");
+        } catch (RuntimeException e) {}
+    }
+    
+    @Test
+    public void testRegistry() {
+        EventCodecRegistry registry = new EventCodecRegistry();
+        registry.setEventCodecs(new String[] { "PATIENT:binary" });
+        registry.mapType(byte[].class, RawEventCodec.NAME);
+        assertSame(registry.get(BinaryEventCodec.NAME), registry.select("PATIENT.SELECTED", "12345"));
+        assertNull(registry.select("PATIENT.SELECTED", new Object()));
+        assertNull(registry.select("USER.SELECTED", "12345"));
+        assertSame(registry.get(RawEventCodec.NAME), registry.select("USER.SELECTED", new byte[0]));
+    }
+    
+}
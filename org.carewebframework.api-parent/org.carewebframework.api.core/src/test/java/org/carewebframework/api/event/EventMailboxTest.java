@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.carewebframework.api.event.EventMailbox.OverflowPolicy;
+import org.junit.Test;
+
+public class EventMailboxTest {
+    
+    /**
+     * Executor that defers tasks until explicitly run.
+     */
+    private static class ManualExecutor implements Executor {
+        
+        private final Queue<Runnable> tasks = new LinkedList<>();
+        
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+        
+        void runAll() {
+            Runnable task;
+            
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+    
+    private final List<String> received = new ArrayList<>();
+    
+    private final IGenericEvent<Object> subscriber = new IGenericEvent<Object>() {
+        
+        @Override
+        public void eventCallback(String eventName, Object eventData) {
+            received.add(eventName + "=" + eventData);
+        }
+        
+    };
+    
+    private EventMailbox<Object> fill(OverflowPolicy overflowPolicy) {
+        ManualExecutor executor = new ManualExecutor();
+        EventMailbox<Object> mailbox = new EventMailbox<>(subscriber, executor, 2, overflowPolicy);
+        mailbox.eventCallback("A", 1);
+        mailbox.eventCallback("B", 2);
+        mailbox.eventCallback("A", 3);
+        assertEquals(0, received.size());
+        executor.runAll();
+        return mailbox;
+    }
+    
+    @Test
+    public void testDropNewest() {
+        EventMailbox<Object> mailbox = fill(OverflowPolicy.DROP_NEWEST);
+        assertEquals("[A=1, B=2]", received.toString());
+        assertEquals(1, mailbox.getDroppedCount());
+    }
+    
+    @Test
+    public void testDropOldest() {
+        EventMailbox<Object> mailbox = fill(OverflowPolicy.DROP_OLDEST);
+        assertEquals("[B=2, A=3]", received.toString());
+        assertEquals(1, mailbox.getDroppedCount());
+    }
+    
+    @Test
+    public void testCoalesce() {
+        EventMailbox<Object> mailbox = fill(OverflowPolicy.COALESCE);
+        assertEquals("[A=3, B=2]", received.toString());
+        assertEquals(0, mailbox.getDroppedCount());
+    }
+    
+    @Test
+    public void testClose() {
+        ManualExecutor executor = new ManualExecutor();
+        EventMailbox<Object> mailbox = new EventMailbox<>(subscriber, executor, 2, OverflowPolicy.BLOCK);
+        mailbox.eventCallback("A", 1);
+        mailbox.close();
+        mailbox.eventCallback("B", 2);
+        executor.runAll();
+        assertEquals(0, received.size());
+        assertEquals(0, mailbox.getQueueSize());
+    }
+    
+}
@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class EventManagerTest {
+    
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    
+    private final List<String> received = new ArrayList<>();
+    
+    private final IGenericEvent<Object> subscriber = new IGenericEvent<Object>() {
+        
+        @Override
+        public synchronized void eventCallback(String eventName, Object eventData) {
+            received.add(eventName + "=" + eventData);
+        }
+        
+    };
+    
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+    
+    @Test
+    public void testCriticalNotCoalesced() {
+        EventManager eventManager = new EventManager();
+        eventManager.getEventCoalescer().setScheduler(scheduler);
+        eventManager.setCoalescedEvents(new String[] { "TEST:60000" });
+        eventManager.setEventPriorities(new String[] { "TEST.CRITICAL:critical" });
+        eventManager.subscribe("TEST", subscriber);
+        eventManager.fireLocalEvent("TEST.CRITICAL", 1);
+        eventManager.fireLocalEvent("TEST.CRITICAL", 2);
+        eventManager.fireLocalEvent("TEST.OTHER", 3);
+        eventManager.fireLocalEvent("TEST.OTHER", 4, EventPriority.CRITICAL);
+        eventManager.fireLocalEvent("TEST.OTHER", 5);
+        assertEquals("[TEST.CRITICAL=1, TEST.CRITICAL=2, TEST.OTHER=4]", received.toString());
+        eventManager.getEventCoalescer().flush();
+        assertEquals("[TEST.CRITICAL=1, TEST.CRITICAL=2, TEST.OTHER=4, TEST.OTHER=5]", received.toString());
+        eventManager.destroy();
+    }
+    
+    
+    @Test
+    public void testFireEventName() {
+        EventManager eventManager = new EventManager();
+        eventManager.subscribe("TEST", subscriber);
+        eventManager.subscribe("TEST.CHILD", subscriber);
+        eventManager.subscribe("TEST.OTHER", subscriber);
+        // Subscribers to the event and each of its ancestors receive it, once per subscription.
+        eventManager.fireLocalEvent(EventName.valueOf("TEST.CHILD.GRANDCHILD"), 1);
+        assertEquals("[TEST.CHILD.GRANDCHILD=1, TEST.CHILD.GRANDCHILD=1]", received.toString());
+        received.clear();
+        eventManager.fireLocalEvent(EventName.valueOf("TEST"), 2);
+        assertEquals("[TEST=2]", received.toString());
+        eventManager.destroy();
+    }
+    
+    
+    @Test
+    public void testAsyncUnsubscribe() throws Exception {
+        final EventManager eventManager = new EventManager();
+        assertEquals(EventMailbox.OverflowPolicy.COALESCE, eventManager.getOverflowPolicy());
+        List<Thread> threads = new ArrayList<>();
+        
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        eventManager.subscribeAsync("TEST", subscriber);
+                        eventManager.unsubscribe("TEST", subscriber);
+                    }
+                }
+                
+            }));
+        }
+        
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        // No closed mailbox may remain subscribed once every subscription has been removed.
+        assertFalse(eventManager.getMailboxes().iterator().hasNext());
+        assertFalse(eventManager.hasSubscribers("TEST"));
+        eventManager.destroy();
+    }
+    
+}
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class EventNameTest {
+    
+    @Test
+    public void testCached() {
+        EventName name = EventName.valueOf("TEST.CACHED.CHILD");
+        assertSame(name, EventName.valueOf("TEST.CACHED.CHILD"));
+        assertEquals(name.getParent(), EventName.valueOf("TEST.CACHED"));
+        assertEquals("TEST.CACHED.CHILD", name.getName());
+        assertEquals("TEST.CACHED.CHILD", name.toString());
+    }
+    
+    @Test
+    public void testHierarchy() {
+        EventName name = EventName.valueOf("TEST.HIERARCHY.CHILD.GRANDCHILD");
+        StringBuilder sb = new StringBuilder();
+        
+        for (EventName parent = name; parent != null; parent = parent.getParent()) {
+            sb.append(sb.length() == 0 ? "" : ",").append(parent.getName());
+        }
+        
+        assertEquals("TEST.HIERARCHY.CHILD.GRANDCHILD,TEST.HIERARCHY.CHILD,TEST.HIERARCHY,TEST", sb.toString());
+        assertNull(EventName.valueOf("TEST").getParent());
+        // A leading period does not denote a level.
+        assertNull(EventName.valueOf(".TEST").getParent());
+    }
+    
+    @Test
+    public void testChannelName() {
+        String channelName = EventUtil.EVENT_PREFIX + "TEST";
+        assertEquals(channelName, EventName.valueOf("TEST").getChannelName());
+        assertEquals(channelName, EventName.valueOf("TEST.CHANNEL.CHILD").getChannelName());
+        assertEquals(channelName, EventUtil.getChannelName("TEST.CHANNEL.CHILD"));
+        assertEquals(EventUtil.EVENT_PREFIX + "OTHER", EventName.valueOf("OTHER.CHILD").getChannelName());
+    }
+    
+    @Test
+    public void testEquality() {
+        EventName name = EventName.valueOf("TEST.EQUALITY");
+        assertEquals(name, EventName.valueOf("TEST.EQUALITY"));
+        assertEquals(name.hashCode(), "TEST.EQUALITY".hashCode());
+        assertFalse(name.equals(EventName.valueOf("TEST.EQUALITY.CHILD")));
+        assertFalse(name.equals(EventName.valueOf("test.equality")));
+        assertFalse(name.equals("TEST.EQUALITY"));
+        assertFalse(name.equals(null));
+    }
+    
+    @Test
+    public void testCacheBound() {
+        EventName name = EventName.valueOf("TEST.BOUND.CHILD");
+        
+        // Many more dynamic names than the cache holds.
+        for (int i = 0; i < 100000; i++) {
+            EventName.valueOf("TEST.BOUND.DYNAMIC." + i);
+        }
+        
+        // Names displaced from the cache are recreated, and compare and behave as before.
+        EventName name2 = EventName.valueOf("TEST.BOUND.CHILD");
+        assertEquals(name, name2);
+        assertEquals(name.hashCode(), name2.hashCode());
+        assertEquals(name.getParent(), name2.getParent());
+        assertEquals(EventName.valueOf("TEST.BOUND"), name2.getParent());
+        assertEquals(EventUtil.EVENT_PREFIX + "TEST", name2.getChannelName());
+        // Names in use continue to be found in the cache.
+        assertSame(name2, EventName.valueOf("TEST.BOUND.CHILD"));
+    }
+    
+}
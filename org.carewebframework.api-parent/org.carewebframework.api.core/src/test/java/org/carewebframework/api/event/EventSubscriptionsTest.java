@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EventSubscriptionsTest {
+    
+    private final List<String> received = new ArrayList<>();
+    
+    private IGenericEvent<Object> newSubscriber(final String id) {
+        return new IGenericEvent<Object>() {
+            
+            @Override
+            public void eventCallback(String eventName, Object eventData) {
+                received.add(id + ":" + eventName);
+            }
+            
+        };
+    }
+    
+    @Test
+    public void testSubscriptions() {
+        EventSubscriptions<Object> subscriptions = new EventSubscriptions<>();
+        IGenericEvent<Object> sub1 = newSubscriber("sub1");
+        IGenericEvent<Object> sub2 = newSubscriber("sub2");
+        IGenericEvent<Object> sub3 = newSubscriber("sub3");
+        assertEquals(1, subscriptions.addSubscriber("A", sub1));
+        assertEquals(1, subscriptions.addSubscriber("A.B.C", sub2));
+        assertEquals(2, subscriptions.addSubscriber("A.B.C", sub3));
+        assertTrue(subscriptions.hasSubscribers("A"));
+        assertFalse(subscriptions.hasSubscribers("A.B"));
+        assertTrue(subscriptions.hasSubscribers("A.B", false));
+        assertFalse(subscriptions.hasSubscribers("A.B", true));
+        assertTrue(subscriptions.hasSubscribers("A.B.C.D", false));
+        assertFalse(subscriptions.hasSubscribers("X.Y", false));
+        assertNull(subscriptions.getSubscribers("A.B"));
+        
+        subscriptions.invokeCallbacks("A.B.C.D", null);
+        assertEquals("[sub2:A.B.C.D, sub3:A.B.C.D, sub1:A.B.C.D]", received.toString());
+        received.clear();
+        subscriptions.invokeCallbacks("A.X", null);
+        assertEquals("[sub1:A.X]", received.toString());
+        received.clear();
+        
+        assertEquals(1, subscriptions.removeSubscriber("A.B.C", sub2));
+        assertEquals(-1, subscriptions.removeSubscriber("A.B", sub2));
+        assertEquals(0, subscriptions.removeSubscriber("A.B.C", sub3));
+        assertFalse(subscriptions.hasSubscribers("A.B.C"));
+        subscriptions.invokeCallbacks("A.B.C.D", null);
+        assertEquals("[sub1:A.B.C.D]", received.toString());
+        received.clear();
+        
+        assertEquals(0, subscriptions.removeSubscriber("A", sub1));
+        assertFalse(subscriptions.getEvents().iterator().hasNext());
+        subscriptions.invokeCallbacks("A.B.C.D", null);
+        assertTrue(received.isEmpty());
+        
+        subscriptions.addSubscriber("A.B", sub1);
+        subscriptions.invokeCallbacks("A.B.C.D", null);
+        assertEquals("[sub1:A.B.C.D]", received.toString());
+        subscriptions.clear();
+        assertFalse(subscriptions.hasSubscribers("A.B"));
+    }
+    
+    @Test
+    public void testPatterns() {
+        EventSubscriptions<Object> subscriptions = new EventSubscriptions<>();
+        IGenericEvent<Object> sub1 = newSubscriber("sub1");
+        IGenericEvent<Object> sub2 = newSubscriber("sub2");
+        IGenericEvent<Object> sub3 = newSubscriber("sub3");
+        assertEquals(1, subscriptions.addSubscriber("PATIENT.*.UPDATED", sub1));
+        assertEquals(1, subscriptions.addSubscriber("**.ERROR", sub2));
+        assertEquals(1, subscriptions.addSubscriber("PATIENT.**.**", sub3));
+        assertTrue(subscriptions.hasSubscribers("PATIENT.*.UPDATED"));
+        assertTrue(subscriptions.hasSubscribers("PATIENT.**"));
+        assertFalse(subscriptions.hasSubscribers("PATIENT.1.UPDATED"));
+        assertTrue(subscriptions.hasSubscribers("PATIENT.1.UPDATED", false));
+        assertFalse(subscriptions.hasSubscribers("USER.1.UPDATED", false));
+        assertEquals("PATIENT", EventSubscriptions.getPatternPrefix("PATIENT.*.UPDATED"));
+        assertEquals("", EventSubscriptions.getPatternPrefix("**.ERROR"));
+        
+        subscriptions.invokeCallbacks("PATIENT.1.UPDATED.NAME", null);
+        assertEquals("[sub3:PATIENT.1.UPDATED.NAME, sub1:PATIENT.1.UPDATED.NAME]", received.toString());
+        received.clear();
+        subscriptions.invokeCallbacks("PATIENT.UPDATED", null);
+        assertEquals("[sub3:PATIENT.UPDATED]", received.toString());
+        received.clear();
+        subscriptions.invokeCallbacks("ERROR", null);
+        subscriptions.invokeCallbacks("A.B.ERROR", null);
+        subscriptions.invokeCallbacks("A.ERRORS", null);
+        assertEquals("[sub2:ERROR, sub2:A.B.ERROR]", received.toString());
+        received.clear();
+        
+        assertEquals(0, subscriptions.removeSubscriber("PATIENT.*.UPDATED", sub1));
+        assertEquals(0, subscriptions.removeSubscriber("PATIENT.**", sub3));
+        subscriptions.invokeCallbacks("PATIENT.1.UPDATED", null);
+        assertTrue(received.isEmpty());
+        assertEquals("[**.ERROR]", subscriptions.getEvents().toString());
+        subscriptions.clear();
+        subscriptions.invokeCallbacks("ERROR", null);
+        assertTrue(received.isEmpty());
+    }
+    
+    @Test
+    public void testPriorities() {
+        EventSubscriptions<Object> subscriptions = new EventSubscriptions<>();
+        IGenericEvent<Object> sub1 = newSubscriber("sub1");
+        IGenericEvent<Object> sub2 = newSubscriber("sub2");
+        IGenericEvent<Object> sub3 = newSubscriber("sub3");
+        assertEquals(1, subscriptions.addSubscriber("A.B", sub1, EventPriority.BACKGROUND));
+        assertEquals(2, subscriptions.addSubscriber("A.B", sub2));
+        assertEquals(EventPriority.NORMAL, subscriptions.getPriority("A.B"));
+        assertEquals(1, subscriptions.addSubscriber("A", sub3, EventPriority.CRITICAL));
+        assertEquals(EventPriority.CRITICAL, subscriptions.getPriority("A.B.C"));
+        assertNull(subscriptions.getPriority("X"));
+        
+        subscriptions.invokeCallbacks("A.B.C", null);
+        assertEquals("[sub3:A.B.C, sub2:A.B.C, sub1:A.B.C]", received.toString());
+        assertEquals("[" + sub2 + ", " + sub1 + "]", subscriptions.getSubscribers("A.B").toString());
+        received.clear();
+        
+        assertEquals(1, subscriptions.removeSubscriber("A.B", sub2));
+        assertEquals(0, subscriptions.removeSubscriber("A", sub3));
+        assertEquals(EventPriority.BACKGROUND, subscriptions.getPriority("A.B"));
+        subscriptions.invokeCallbacks("A.B", null);
+        assertEquals("[sub1:A.B]", received.toString());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        new EventSubscriptions<>().addSubscriber("PATIENT.UPD*", newSubscriber("sub1"));
+    }
+    
+}
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.carewebframework.api.event.EventTracer.TraceRecord;
+import org.junit.Test;
+
+public class EventTracerTest {
+    
+    @Test
+    public void testRecording() {
+        EventTracer tracer = new EventTracer(3);
+        assertEquals(4, tracer.getCapacity());
+        tracer.recordEvent("IGNORED", false, 0, 0);
+        assertEquals(0, tracer.getRecordCount());
+        tracer.setEnabled(true);
+        
+        for (int i = 0; i < 6; i++) {
+            tracer.recordEvent("EVENT" + i, i % 2 == 0, i, i * 1000);
+        }
+        
+        List<TraceRecord> records = tracer.getRecords();
+        assertEquals(4, records.size());
+        assertEquals(2, records.get(0).getSequence());
+        assertEquals("EVENT2", records.get(0).getEventName());
+        assertEquals("EVENT5", records.get(3).getEventName());
+        assertEquals(5, records.get(3).getSubscriberCount());
+        assertEquals(Thread.currentThread().getName(), records.get(3).getThreadName());
+        tracer.clear();
+        assertEquals(0, tracer.getRecordCount());
+        assertTrue(tracer.getRecords().isEmpty());
+        tracer.recordEvent("EVENT6", false, -1, 0);
+        records = tracer.getRecords();
+        assertEquals(1, records.size());
+        assertEquals("EVENT6", records.get(0).getEventName());
+        assertEquals(1, tracer.getRecordCount());
+    }
+    
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final EventTracer tracer = new EventTracer(16);
+        final AtomicBoolean torn = new AtomicBoolean();
+        tracer.setEnabled(true);
+        Thread[] writers = new Thread[4];
+        
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread("writer" + i) {
+                
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20000; j++) {
+                        tracer.recordEvent(getName(), false, j, j);
+                    }
+                }
+                
+            };
+            
+            writers[i].start();
+        }
+        
+        boolean running = true;
+        
+        while (running) {
+            running = false;
+            
+            for (Thread writer : writers) {
+                running |= writer.isAlive();
+            }
+            
+            long previous = -1;
+            
+            for (TraceRecord record : tracer.getRecords()) {
+                torn.compareAndSet(false, !record.getEventName().equals(record.getThreadName())
+                        || record.getSubscriberCount() != record.getElapsed() || record.getSequence() <= previous);
+                previous = record.getSequence();
+            }
+        }
+        
+        assertEquals(80000, tracer.getRecordCount());
+        assertEquals(16, tracer.getRecords().size());
+        assertFalse(torn.get());
+    }
+    
+}
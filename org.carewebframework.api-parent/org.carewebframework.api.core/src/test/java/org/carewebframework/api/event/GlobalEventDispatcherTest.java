@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.carewebframework.api.messaging.ConsumerService;
+import org.carewebframework.api.messaging.IMessageProducer;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.ProducerService;
+import org.carewebframework.api.messaging.Recipient;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobalEventDispatcherTest {
+    
+    /**
+     * Producer that records the events in published messages.
+     */
+    private static class TestProducer implements IMessageProducer {
+        
+        private final List<String> published = new ArrayList<>();
+        
+        @Override
+        public synchronized boolean publish(String channel, Message message) {
+            if (message instanceof EventMessageBatch) {
+                List<String> events = new ArrayList<>();
+                
+                for (EventMessageBatch.Entry entry : ((EventMessageBatch) message).getEntries()) {
+                    events.add(entry.getEventName() + "=" + entry.getEventData());
+                }
+                
+                published.add(events.toString());
+            } else {
+                published.add(message.getType() + "=" + message.getPayload());
+            }
+            
+            return true;
+        }
+        
+        synchronized String getPublished() {
+            return published.toString();
+        }
+    }
+    
+    private final TestProducer producer = new TestProducer();
+    
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    
+    private GlobalEventDispatcher dispatcher;
+    
+    @Before
+    public void setUp() {
+        ProducerService producerService = new ProducerService();
+        producerService.registerProducer(producer);
+        dispatcher = new GlobalEventDispatcher(null, producerService, new ConsumerService());
+        dispatcher.setScheduler(scheduler);
+        dispatcher.setBatchSize(3);
+        dispatcher.setBatchLinger(60000);
+    }
+    
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+    
+    @Test
+    public void testBatching() {
+        Recipient user1 = new Recipient(RecipientType.USER, "user1");
+        Recipient user2 = new Recipient(RecipientType.USER, "user2");
+        dispatcher.fireRemoteEvent("TEST", 1);
+        dispatcher.fireRemoteEvent("TEST", 2);
+        assertEquals("[]", producer.getPublished());
+        dispatcher.fireRemoteEvent("TEST", 3);
+        assertEquals("[[TEST=1, TEST=2, TEST=3]]", producer.getPublished());
+        // A change of recipients closes the pending batch, preserving the order of events.
+        dispatcher.fireRemoteEvent("TEST", 4, user1);
+        dispatcher.fireRemoteEvent("TEST", 5, user2);
+        assertEquals("[[TEST=1, TEST=2, TEST=3], TEST=4]", producer.getPublished());
+        dispatcher.flush();
+        assertEquals("[[TEST=1, TEST=2, TEST=3], TEST=4, TEST=5]", producer.getPublished());
+    }
+    
+    @Test
+    public void testLinger() throws Exception {
+        dispatcher.setBatchLinger(100);
+        dispatcher.fireRemoteEvent("TEST", 1);
+        dispatcher.fireRemoteEvent("TEST", 2);
+        assertEquals("[]", producer.getPublished());
+        long timeout = System.currentTimeMillis() + 5000;
+        
+        while (producer.getPublished().equals("[]") && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        
+        assertEquals("[[TEST=1, TEST=2]]", producer.getPublished());
+    }
+    
+    @Test
+    public void testDestroy() {
+        dispatcher.fireRemoteEvent("TEST", 1);
+        dispatcher.fireRemoteEvent("OTHER", 2);
+        dispatcher.destroy();
+        assertTrue(producer.getPublished().contains("TEST=1"));
+        assertTrue(producer.getPublished().contains("OTHER=2"));
+    }
+    
+}
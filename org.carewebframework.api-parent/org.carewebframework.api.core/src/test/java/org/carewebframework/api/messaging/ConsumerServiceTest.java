@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.carewebframework.api.messaging.DeadLetterStore.DeadLetter;
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+import org.junit.Test;
+
+public class ConsumerServiceTest {
+    
+    /**
+     * Callback that records received payloads and fails while so configured.
+     */
+    private static class TestCallback implements IMessageCallback {
+        
+        private final List<Object> received = new ArrayList<>();
+        
+        private boolean fail = true;
+        
+        private int failures;
+        
+        @Override
+        public synchronized void onMessage(String channel, Message message) {
+            if (fail || failures-- > 0) {
+                throw new IllegalStateException("failed");
+            }
+            
+            received.add(message.getPayload());
+        }
+        
+        synchronized String getReceived() {
+            return received.toString();
+        }
+    }
+    
+    @Test
+    public void testDeadLetters() {
+        ConsumerService service = new ConsumerService();
+        service.setDeadLetterCapacity(2);
+        TestCallback callback = new TestCallback();
+        service.subscribe("A", callback);
+        
+        // Without a task scheduler, failed messages go straight to the dead-letter store.
+        for (int i = 1; i <= 3; i++) {
+            service.onMessage("A", new Message("test", i));
+        }
+        
+        DeadLetterStore deadLetters = service.getDeadLetters();
+        assertEquals(2, deadLetters.size());
+        assertEquals(1, deadLetters.getEvictedCount());
+        DeadLetter deadLetter = deadLetters.getDeadLetters().get(0);
+        assertEquals(2, deadLetter.getMessage().getPayload());
+        assertSame(callback, deadLetter.getCallback());
+        assertEquals(1, deadLetter.getAttempts());
+        assertTrue(deadLetter.getCause() instanceof IllegalStateException);
+        String callbackClass = TestCallback.class.getName();
+        assertEquals(3, service.getCallbackFailures().get(callbackClass).get());
+        assertEquals(1.0, service.getFailureRate(callbackClass), 0);
+        
+        callback.fail = false;
+        assertTrue(service.replayDeadLetter(deadLetter.getId()));
+        assertFalse(service.replayDeadLetter(deadLetter.getId()));
+        assertEquals("[2]", callback.received.toString());
+        service.unsubscribe("A", callback);
+        assertEquals(0, service.replayDeadLetters());
+        assertEquals(0, deadLetters.size());
+        assertEquals(0.75, service.getFailureRate(callbackClass), 0);
+    }
+    
+    @Test
+    public void testRetryOrder() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        
+        try {
+            ConsumerService service = new ConsumerService();
+            service.setScheduler(scheduler);
+            service.setRetryDelay(100);
+            TestCallback callback = new TestCallback();
+            callback.fail = false;
+            callback.failures = 2;
+            service.subscribe("A", callback);
+            
+            // Later messages are held back until the failed message has been redelivered.
+            for (int i = 1; i <= 3; i++) {
+                service.onMessage("A", new Message("test", i));
+            }
+            
+            assertEquals("[]", callback.getReceived());
+            long timeout = System.currentTimeMillis() + 5000;
+            
+            while (!callback.getReceived().equals("[1, 2, 3]") && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            
+            assertEquals("[1, 2, 3]", callback.getReceived());
+            assertEquals(2, service.getRetryCount());
+            service.onMessage("A", new Message("test", 4));
+            assertEquals("[1, 2, 3, 4]", callback.getReceived());
+            assertEquals(0, service.getDeadLetters().size());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    
+    @Test
+    public void testRetryRejected() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.shutdown();
+        ConsumerService service = new ConsumerService();
+        service.setScheduler(scheduler);
+        TestCallback callback = new TestCallback();
+        service.subscribe("A", callback);
+        
+        // A retry that cannot be scheduled sends the message to the dead-letter store.
+        service.onMessage("A", new Message("test", 1));
+        assertEquals(0, service.getRetryCount());
+        assertEquals(1, service.getDeadLetters().size());
+        assertEquals(1, service.getDeadLetters().getDeadLetters().get(0).getMessage().getPayload());
+        callback.fail = false;
+        service.onMessage("A", new Message("test", 2));
+        assertEquals("[2]", callback.getReceived());
+    }
+    
+}
@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import java.util.UUID;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.ehcache.EhCacheCache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+/**
+ * Compares the cost of tracking delivered messages using {@link DeliveredMessageSet} with the
+ * ehcache-based tracking it replaced. Run as a Java application. Each round offers a stream of
+ * message identifiers in which every identifier appears twice, as when a message arrives via two
+ * transports.
+ */
+public class DeliveredMessageSetBenchmark {
+    
+    private static final int CAPACITY = 10000;
+    
+    private static final int LIFE = 300;
+    
+    private static final int MESSAGES = 200000;
+    
+    private static final int ROUNDS = 10;
+    
+    private interface IDeliveredTracker {
+        
+        boolean add(String id);
+    }
+    
+    public static void main(String[] args) {
+        String[] ids = new String[MESSAGES];
+        
+        for (int i = 0; i < MESSAGES; i++) {
+            ids[i] = UUID.randomUUID().toString();
+        }
+        
+        final DeliveredMessageSet set = new DeliveredMessageSet(CAPACITY, LIFE * 1000L);
+        CacheManager cacheManager = CacheManager.create();
+        CacheConfiguration config = new CacheConfiguration("benchmark", CAPACITY).eternal(false)
+                .timeToIdleSeconds(LIFE).timeToLiveSeconds(0).memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU);
+        net.sf.ehcache.Cache ehcache = new net.sf.ehcache.Cache(config);
+        cacheManager.addCache(ehcache);
+        final Cache cache = new EhCacheCache(ehcache);
+        
+        try {
+            for (int round = 1; round <= ROUNDS; round++) {
+                set.clear();
+                ehcache.removeAll();
+                
+                long setTime = run(ids, new IDeliveredTracker() {
+                    
+                    @Override
+                    public boolean add(String id) {
+                        return set.add(id);
+                    }
+                    
+                });
+                
+                long cacheTime = run(ids, new IDeliveredTracker() {
+                    
+                    @Override
+                    public boolean add(String id) {
+                        return cache.putIfAbsent(id, "") == null;
+                    }
+                    
+                });
+                
+                System.out.println(String.format("Round %d: DeliveredMessageSet %.1f ns/op, ehcache %.1f ns/op", round,
+                    (double) setTime / (MESSAGES * 2), (double) cacheTime / (MESSAGES * 2)));
+            }
+        } finally {
+            cacheManager.shutdown();
+        }
+    }
+    
+    private static long run(String[] ids, IDeliveredTracker tracker) {
+        long start = System.nanoTime();
+        int delivered = 0;
+        
+        for (int i = 0; i < ids.length; i++) {
+            delivered += tracker.add(ids[i]) ? 1 : 0;
+            delivered += tracker.add(ids[i]) ? 1 : 0;
+        }
+        
+        if (delivered != ids.length) {
+            throw new IllegalStateException("Unexpected delivery count: " + delivered);
+        }
+        
+        return System.nanoTime() - start;
+    }
+    
+}
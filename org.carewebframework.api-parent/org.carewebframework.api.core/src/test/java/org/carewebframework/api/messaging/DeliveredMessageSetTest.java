@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class DeliveredMessageSetTest {
+    
+    @Test
+    public void testDuplicates() {
+        DeliveredMessageSet set = new DeliveredMessageSet(100, 3000);
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        assertTrue(set.add(id1, 1000));
+        assertTrue(set.add(id2, 1000));
+        assertFalse(set.add(id1, 1001));
+        assertTrue(set.add("not-a-uuid", 1001));
+        assertFalse(set.add("not-a-uuid", 1002));
+        assertTrue(set.add("not-a-uuie", 1002));
+        assertEquals(4, set.size());
+        // Remembered for at least the lifetime...
+        assertFalse(set.add(id1, 3999));
+        // ...but forgotten once its bucket is reused.
+        assertTrue(set.add(id1, 5000));
+        set.clear();
+        assertEquals(0, set.size());
+        assertTrue(set.add(id2, 5000));
+    }
+    
+    @Test
+    public void testCapacity() {
+        DeliveredMessageSet set = new DeliveredMessageSet(30, 60000);
+        
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(set.add(UUID.randomUUID().toString(), 0));
+            assertTrue(set.size() <= 40);
+        }
+    }
+    
+}
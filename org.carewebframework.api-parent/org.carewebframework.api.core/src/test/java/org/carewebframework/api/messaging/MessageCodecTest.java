@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.carewebframework.api.event.EventMessage;
+import org.carewebframework.api.event.EventMessageBatch;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.junit.Test;
+
+public class MessageCodecTest {
+    
+    @Test
+    public void testRoundTrip() {
+        MessageCodec codec = new MessageCodec();
+        Message message = new Message("test", "payload");
+        message.setMetadata("cwf.pub.node", UUID.randomUUID().toString());
+        message.setMetadata("cwf.pub.channel", "channel");
+        message.setMetadata("cwf.pub.when", 12345L);
+        message.setMetadata("custom", Boolean.TRUE);
+        message.setMetadata(Message.RECIPIENTS_METADATA, new Recipient[] { new Recipient(RecipientType.USER, "user1"),
+                new Recipient(RecipientType.SESSION, "session1") });
+        byte[] data = codec.encode(message);
+        assertTrue(MessageCodec.isEncoded(data));
+        Message decoded = codec.decode(data);
+        assertEquals(message, decoded);
+        assertEquals("test", decoded.getType());
+        assertEquals("payload", decoded.getPayload());
+        assertEquals(message.getCreated(), decoded.getCreated());
+        assertEquals(message.getMetadata("cwf.pub.node"), decoded.getMetadata("cwf.pub.node"));
+        assertEquals("channel", decoded.getMetadata("cwf.pub.channel"));
+        assertEquals(12345L, decoded.getMetadata("cwf.pub.when"));
+        assertEquals(Boolean.TRUE, decoded.getMetadata("custom"));
+        assertArrayEquals((Recipient[]) message.getMetadata(Message.RECIPIENTS_METADATA),
+            (Recipient[]) decoded.getMetadata(Message.RECIPIENTS_METADATA));
+        assertTrue(MessageUtil.isMessageExcluded(decoded, RecipientType.USER, "user2"));
+    }
+    
+    @Test
+    public void testPayloads() {
+        MessageCodec codec = new MessageCodec();
+        byte[] bytes = { 1, 2, 3 };
+        assertArrayEquals(bytes, (byte[]) codec.decode(codec.encode(new Message("test", bytes))).getPayload());
+        assertEquals(null, codec.decode(codec.encode(new Message(null, null))).getPayload());
+        String upper = UUID.randomUUID().toString().toUpperCase();
+        assertEquals(upper, codec.decode(codec.encode(new Message("test", upper))).getPayload());
+        ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        assertEquals(list, codec.decode(codec.encode(new Message("test", list))).getPayload());
+    }
+    
+    @Test
+    public void testEventMessages() {
+        MessageCodec codec = new MessageCodec();
+        EventMessage event = new EventMessage("EVENT.TEST", "data");
+        event.setMetadata("cwf.event.codec", "json");
+        byte[] data = codec.encode(event);
+        assertFalse("Event message was serialized", isSerialized(data));
+        Message decoded = codec.decode(data);
+        assertEquals(EventMessage.class, decoded.getClass());
+        assertEquals(event, decoded);
+        assertEquals("EVENT.TEST", decoded.getType());
+        assertEquals("data", decoded.getPayload());
+        assertEquals(event.getCreated(), decoded.getCreated());
+        assertEquals("json", decoded.getMetadata("cwf.event.codec"));
+        
+        EventMessageBatch batch = new EventMessageBatch();
+        batch.add("event1", "data1");
+        batch.add("event2", 2, "codec2");
+        data = codec.encode(batch);
+        assertFalse("Event batch was serialized", isSerialized(data));
+        decoded = codec.decode(data);
+        assertEquals(EventMessageBatch.class, decoded.getClass());
+        assertEquals(batch, decoded);
+        EventMessageBatch decodedBatch = (EventMessageBatch) decoded;
+        assertEquals(2, decodedBatch.getCount());
+        assertEquals("event1", decodedBatch.getEntries().get(0).getEventName());
+        assertEquals("data1", decodedBatch.getEntries().get(0).getEventData());
+        assertEquals(null, decodedBatch.getEntries().get(0).getCodec());
+        assertEquals(2, decodedBatch.getEntries().get(1).getEventData());
+        assertEquals("codec2", decodedBatch.getEntries().get(1).getCodec());
+    }
+    
+    @Test
+    public void testAllowSerialized() {
+        MessageCodec codec = new MessageCodec();
+        byte[] serializedPayload = codec.encode(new Message("test", new ArrayList<>(Arrays.asList("a"))));
+        byte[] event = codec.encode(new EventMessage("EVENT.TEST", "data"));
+        codec.setAllowSerialized(false);
+        assertEquals("data", codec.decode(event).getPayload());
+        
+        try {
+            codec.decode(serializedPayload);
+            fail("Expected serialized payload to be rejected.");
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    /**
+     * Returns true if the flag indicating a Java-serialized message is set in the header.
+     */
+    private boolean isSerialized(byte[] data) {
+        return (data[3] & 2) != 0;
+    }
+    
+    @Test
+    public void testChecksum() {
+        MessageCodec codec = new MessageCodec(true);
+        Message message = new Message("test", "payload");
+        byte[] data = codec.encode(message);
+        assertEquals(message, new MessageCodec().decode(data));
+        data[data.length / 2] ^= 1;
+        
+        try {
+            codec.decode(data);
+            fail("Expected checksum failure.");
+        } catch (IllegalArgumentException e) {}
+        
+        assertFalse(MessageCodec.isEncoded(new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 }));
+    }
+    
+}
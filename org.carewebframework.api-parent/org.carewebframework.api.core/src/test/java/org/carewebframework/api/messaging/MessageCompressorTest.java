@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+public class MessageCompressorTest {
+    
+    @Test
+    public void testCompression() {
+        MessageCompressor compressor = new MessageCompressor();
+        String payload = StringUtils.repeat("patient context snapshot ", 200);
+        Message message = new Message("test", payload);
+        message.setMetadata("cwf.pub.channel", "channel");
+        assertSame(message, compressor.compress(message));
+        compressor.setThreshold(1000);
+        assertSame(message, compressor.decompress(message));
+        Message small = new Message("test", "small");
+        assertSame(small, compressor.compress(small));
+        Message compressed = compressor.compress(message);
+        assertNotSame(message, compressed);
+        assertEquals(message.getId(), compressed.getId());
+        assertEquals("channel", compressed.getMetadata("cwf.pub.channel"));
+        assertEquals(MessageCompressor.DEFLATE, compressed.getMetadata(MessageCompressor.COMPRESSION_METADATA));
+        assertTrue(((byte[]) compressed.getPayload()).length < payload.length() / 10);
+        Message decompressed = compressor.decompress(compressed);
+        assertEquals(payload, decompressed.getPayload());
+        assertEquals(message.getCreated(), decompressed.getCreated());
+        assertEquals("channel", decompressed.getMetadata("cwf.pub.channel"));
+    }
+    
+    @Test
+    public void testDictionary() {
+        MessageCompressor compressor = new MessageCompressor();
+        compressor.setThreshold(100);
+        compressor.setDictionary("patient context snapshot");
+        Message compressed = compressor.compress(new Message("test", StringUtils.repeat("patient context ", 20)));
+        assertEquals(StringUtils.repeat("patient context ", 20),
+            compressor.decompress(compressed).getPayload());
+        
+        try {
+            new MessageCompressor().decompress(compressed);
+            fail("Expected missing dictionary.");
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    @Test
+    public void testEncodingReused() {
+        MessageCompressor compressor = new MessageCompressor();
+        compressor.setThreshold(1000);
+        Message message = new Message("test", new StringBuilder("unsized payload"));
+        assertSame(message, compressor.compress(message));
+        MessageCodec codec = new MessageCodec();
+        byte[] encoded = codec.encode(message);
+        assertSame(encoded, codec.encode(message));
+        assertNotSame(encoded, new MessageCodec(true).encode(message));
+        message.setMetadata("cwf.pub.channel", "channel");
+        assertNull(message.getEncoded());
+    }
+    
+    @Test
+    public void testMaxSize() {
+        MessageCompressor compressor = new MessageCompressor();
+        compressor.setThreshold(100);
+        String payload = StringUtils.repeat("x", 100000);
+        Message compressed = compressor.compress(new Message("test", payload));
+        compressor.setMaxSize(50000);
+        
+        try {
+            compressor.decompress(compressed);
+            fail("Expected maximum size to be exceeded.");
+        } catch (IllegalArgumentException e) {}
+        
+        compressor.setMaxSize(200000);
+        assertEquals(payload, compressor.decompress(compressed).getPayload());
+    }
+    
+    
+    @Test
+    public void testSerializedRejected() {
+        MessageCompressor compressor = new MessageCompressor();
+        compressor.setThreshold(100);
+        ArrayList<String> payload = new ArrayList<>(Collections.nCopies(100, "patient context"));
+        Message compressed = compressor.compress(new Message("test", payload));
+        assertEquals(MessageCompressor.DEFLATE, compressed.getMetadata(MessageCompressor.COMPRESSION_METADATA));
+        
+        try {
+            compressor.decompress(compressed);
+            fail("Expected serialized content to be rejected.");
+        } catch (IllegalArgumentException e) {}
+        
+        compressor.setAllowSerialized(true);
+        assertEquals(payload, compressor.decompress(compressed).getPayload());
+    }
+    
+}
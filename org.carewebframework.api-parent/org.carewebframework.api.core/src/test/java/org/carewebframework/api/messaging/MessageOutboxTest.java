@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MessageOutboxTest {
+    
+    /**
+     * Replay callback that records replayed payloads, accepting a limited number of messages.
+     */
+    private static class TestCallback implements MessageOutbox.IReplayCallback {
+        
+        private final List<Object> replayed = new ArrayList<>();
+        
+        private int limit;
+        
+        private String failing;
+        
+        TestCallback(int limit) {
+            this.limit = limit;
+        }
+        
+        @Override
+        public boolean replay(String producer, String channel, Message message) {
+            if (producer.equals(failing) || limit-- <= 0) {
+                return false;
+            }
+            
+            replayed.add(producer + ":" + channel + ":" + message.getPayload());
+            return true;
+        }
+    }
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void testOutbox() throws Exception {
+        File directory = folder.newFolder();
+        MessageOutbox outbox = new MessageOutbox(directory);
+        outbox.setSegmentSize(300);
+        
+        for (int i = 1; i <= 10; i++) {
+            outbox.append(i % 2 == 0 ? "P2" : "P1", "A", new Message("test", i));
+        }
+        
+        assertEquals(10, outbox.getSize());
+        assertTrue(outbox.isPending("P1"));
+        assertTrue(directory.list().length > 1);
+        TestCallback callback = new TestCallback(3);
+        assertEquals(3, outbox.drain(callback));
+        assertEquals("[P1:A:1, P1:A:3, P1:A:5]", callback.replayed.toString());
+        outbox.close();
+        
+        // Progress within a segment is not persisted, so recovery may replay messages again.
+        outbox = new MessageOutbox(directory);
+        assertTrue(outbox.getSize() >= 7);
+        assertTrue(outbox.appendIfPending("P1", "B", new Message("test", 11)));
+        callback = new TestCallback(Integer.MAX_VALUE);
+        assertEquals(outbox.getSize(), outbox.drain(callback));
+        List<Object> replayed = callback.replayed;
+        assertEquals("P1:B:11", replayed.get(replayed.indexOf("P2:A:2") - 1));
+        assertEquals("P2:A:10", replayed.get(replayed.size() - 1));
+        assertEquals(0, outbox.getSize());
+        assertFalse(outbox.isPending("P1"));
+        assertFalse(outbox.appendIfPending("P1", "B", new Message("test", 12)));
+        assertEquals(0, directory.list().length);
+        outbox.close();
+    }
+    
+    @Test
+    public void testFailedProducer() throws Exception {
+        File directory = folder.newFolder();
+        MessageOutbox outbox = new MessageOutbox(directory);
+        outbox.setSegmentSize(300);
+        
+        for (int i = 1; i <= 6; i++) {
+            outbox.append(i % 2 == 0 ? "P2" : "P1", "A", new Message("test", i));
+        }
+        
+        TestCallback callback = new TestCallback(Integer.MAX_VALUE);
+        callback.failing = "P1";
+        // Messages for the failing producer do not hold up those for other producers.
+        assertEquals(3, outbox.drain(callback));
+        assertEquals("[P2:A:2, P2:A:4, P2:A:6]", callback.replayed.toString());
+        assertFalse(outbox.isPending("P2"));
+        assertFalse(outbox.appendIfPending("P2", "A", new Message("test", 7)));
+        assertTrue(outbox.appendIfPending("P1", "A", new Message("test", 8)));
+        assertEquals(4, outbox.getSize());
+        callback = new TestCallback(Integer.MAX_VALUE);
+        assertEquals(4, outbox.drain(callback));
+        assertEquals("[P1:A:1, P1:A:3, P1:A:5, P1:A:8]", callback.replayed.toString());
+        assertEquals(0, directory.list().length);
+        outbox.close();
+    }
+    
+}
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProducerServiceTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    /**
+     * Executor that defers tasks until explicitly run.
+     */
+    private static class ManualExecutor implements Executor {
+        
+        private final Queue<Runnable> tasks = new LinkedList<>();
+        
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+        
+        int runAll() {
+            int count = 0;
+            Runnable task;
+            
+            while ((task = tasks.poll()) != null) {
+                task.run();
+                count++;
+            }
+            
+            return count;
+        }
+    }
+    
+    /**
+     * Producer that records the payloads of published messages.
+     */
+    private static class TestProducer implements IMessageProducer {
+        
+        private final List<Object> published = new ArrayList<>();
+        
+        private boolean result;
+        
+        TestProducer(boolean result) {
+            this.result = result;
+        }
+        
+        @Override
+        public boolean publish(String channel, Message message) {
+            published.add(channel + ":" + message.getPayload());
+            return result;
+        }
+    }
+    
+    @Test
+    public void testPublishAsync() {
+        ManualExecutor executor = new ManualExecutor();
+        ProducerService service = new ProducerService();
+        TestProducer producer1 = new TestProducer(true);
+        TestProducer producer2 = new TestProducer(false);
+        service.setExecutor(executor);
+        service.setBatchSize(2);
+        service.registerProducer(producer1);
+        service.registerProducer(producer2);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        
+        for (int i = 1; i <= 3; i++) {
+            futures.add(service.publishAsync("A", new Message("test", i)));
+        }
+        
+        futures.add(service.publishAsync("B", new Message("test", 4)));
+        assertTrue(producer1.published.isEmpty());
+        assertFalse(futures.get(0).isDone());
+        // The first message of each channel is dispatched at once; the rest are batched behind it.
+        assertEquals(4, executor.tasks.size());
+        executor.runAll();
+        executor.runAll();
+        
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.join());
+        }
+        
+        assertEquals("[A:1, B:4, A:2, A:3]", producer1.published.toString());
+        assertEquals(producer1.published, producer2.published);
+        assertEquals(0, executor.runAll());
+        
+        service.unregisterProducer(producer1);
+        CompletableFuture<Boolean> future = service.publishAsync("A", new Message("test", 5));
+        executor.runAll();
+        assertFalse(future.join());
+    }
+    
+    @Test
+    public void testPublish() {
+        ManualExecutor executor = new ManualExecutor();
+        ProducerService service = new ProducerService();
+        TestProducer producer = new TestProducer(true);
+        service.setExecutor(executor);
+        assertFalse(service.publish("A", new Message("test", 1)));
+        service.registerProducer(producer);
+        assertTrue(service.publish("A", new Message("test", 2)));
+        assertEquals("[A:2]", producer.published.toString());
+        // Tasks not yet started by the executor are run by the publishing thread.
+        service.registerProducer(new TestProducer(false));
+        assertTrue(service.publish("A", new Message("test", 3)));
+        assertEquals("[A:2, A:3]", producer.published.toString());
+        assertEquals(2, executor.runAll());
+        assertEquals("[A:2, A:3]", producer.published.toString());
+    }
+    
+    @Test
+    public void testMaxPending() {
+        ManualExecutor executor = new ManualExecutor();
+        ProducerService service = new ProducerService();
+        TestProducer producer = new TestProducer(true);
+        service.setExecutor(executor);
+        service.setMaxPending(2);
+        service.registerProducer(producer);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        
+        for (int i = 1; i <= 4; i++) {
+            futures.add(service.publishAsync("A", new Message("test", i)));
+        }
+        
+        assertTrue(futures.get(3).isCompletedExceptionally());
+        executor.runAll();
+        assertTrue(futures.get(2).join());
+        assertEquals("[A:1, A:2, A:3]", producer.published.toString());
+    }
+    
+    @Test
+    public void testOutbox() throws Exception {
+        ProducerService service = new ProducerService();
+        TestProducer producer = new TestProducer(false);
+        service.setOutbox(new MessageOutbox(folder.newFolder()));
+        service.registerProducer(producer);
+        assertTrue(service.publish("A", new Message("test", 1)));
+        producer.result = true;
+        // Published behind the stored message to preserve order.
+        assertTrue(service.publish("A", new Message("test", 2)));
+        assertEquals("[A:1]", producer.published.toString());
+        assertEquals(2, service.getOutbox().getSize());
+        assertEquals(2, service.drainOutbox());
+        assertEquals(0, service.getOutbox().getSize());
+        assertTrue(service.publish("A", new Message("test", 3)));
+        assertEquals("[A:1, A:1, A:2, A:3]", producer.published.toString());
+    }
+    
+}
@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.junit.Test;
+
+public class RecipientFilterTest {
+    
+    @Test
+    public void testFilter() {
+        Message message = new Message("test", null);
+        assertSame(RecipientFilter.NONE, message.getRecipientFilter());
+        assertFalse(MessageUtil.isMessageExcluded(message, RecipientType.USER, "user1"));
+        message.setMetadata(Message.RECIPIENTS_METADATA, new Recipient[] { new Recipient(RecipientType.USER, "user1"),
+                new Recipient(RecipientType.USER, "user2"), new Recipient(RecipientType.SESSION, "session1") });
+        RecipientFilter filter = message.getRecipientFilter();
+        assertSame(filter, message.getRecipientFilter());
+        assertTrue(filter.isConstrained(RecipientType.USER));
+        assertFalse(filter.isConstrained(RecipientType.APPLICATION));
+        assertFalse(MessageUtil.isMessageExcluded(message, RecipientType.USER, "user2"));
+        assertTrue(MessageUtil.isMessageExcluded(message, RecipientType.USER, "user3"));
+        assertTrue(MessageUtil.isMessageExcluded(message, RecipientType.USER, null));
+        assertFalse(MessageUtil.isMessageExcluded(message, RecipientType.APPLICATION, "app"));
+        assertFalse(MessageUtil.isMessageExcluded(message, new Recipient(RecipientType.SESSION, "session1")));
+    }
+    
+    @Test
+    public void testMatcher() {
+        PublisherInfo publisherInfo = new PublisherInfo();
+        RecipientMatcher matcher = new RecipientMatcher(publisherInfo, RecipientType.USER, RecipientType.SESSION);
+        Message message = new Message("test", null);
+        assertFalse(matcher.isExcluded(message));
+        message.setMetadata(Message.RECIPIENTS_METADATA, new Recipient[] { new Recipient(RecipientType.USER, "user1"),
+                new Recipient(RecipientType.CONSUMER, "node") });
+        assertTrue(matcher.isExcluded(message));
+        publisherInfo.setUserId("user1");
+        assertFalse(matcher.isExcluded(message));
+        message.setMetadata(Message.RECIPIENTS_METADATA,
+            new Recipient[] { new Recipient(RecipientType.SESSION, "session1") });
+        assertTrue(matcher.isExcluded(message));
+    }
+    
+}
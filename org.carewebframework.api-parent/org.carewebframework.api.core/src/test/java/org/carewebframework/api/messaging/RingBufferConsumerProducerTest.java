@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+import org.junit.Test;
+
+public class RingBufferConsumerProducerTest {
+    
+    private static final int PRODUCERS = 4;
+    
+    private static final int MESSAGES = 10000;
+    
+    @Test
+    public void testDelivery() throws Exception {
+        final RingBufferConsumerProducer transport = new RingBufferConsumerProducer(6);
+        final Map<String, List<Integer>> received = new HashMap<>();
+        final CountDownLatch done = new CountDownLatch(PRODUCERS * MESSAGES + 1);
+        assertEquals(8, transport.getCapacity());
+        
+        transport.setCallback(new IMessageCallback() {
+            
+            @Override
+            public void onMessage(String channel, Message message) {
+                List<Integer> list = received.get(channel);
+                
+                if (list == null) {
+                    received.put(channel, list = new ArrayList<>());
+                }
+                
+                list.add((Integer) message.getPayload());
+                
+                // Publishing from the delivery thread must not deadlock when the buffer is full.
+                if ("P0".equals(channel) && list.size() == MESSAGES) {
+                    for (int i = 0; i < 20; i++) {
+                        transport.publish("loop", new Message("test", i));
+                    }
+                }
+                
+                if (!"loop".equals(channel) || ((Integer) message.getPayload()) == 19) {
+                    done.countDown();
+                }
+            }
+            
+        });
+        
+        List<Thread> threads = new ArrayList<>();
+        
+        for (int p = 0; p < PRODUCERS; p++) {
+            final String channel = "P" + p;
+            
+            threads.add(new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        transport.publish(channel, new Message("test", i));
+                    }
+                }
+                
+            }));
+        }
+        
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        
+        for (int p = 0; p < PRODUCERS; p++) {
+            List<Integer> list = received.get("P" + p);
+            assertEquals(MESSAGES, list.size());
+            
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals(i, list.get(i).intValue());
+            }
+        }
+        
+        assertEquals(20, received.get("loop").size());
+        transport.destroy();
+        assertFalse(transport.publish("P0", new Message("test", 0)));
+    }
+    
+    
+    @Test
+    public void testOverflowOrder() throws Exception {
+        final RingBufferConsumerProducer transport = new RingBufferConsumerProducer(2);
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        
+        transport.setCallback(new IMessageCallback() {
+            
+            @Override
+            public void onMessage(String channel, Message message) {
+                received.add(message.getPayload());
+                
+                if (Integer.valueOf(0).equals(message.getPayload())) {
+                    delivering.countDown();
+                    
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    
+                    // The buffer is full, so this must be queued behind the messages it holds.
+                    transport.publish("A", new Message("test", "reply"));
+                } else if ("reply".equals(message.getPayload())) {
+                    done.countDown();
+                }
+            }
+            
+        });
+        
+        transport.publish("A", new Message("test", 0));
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+        transport.publish("A", new Message("test", 1));
+        transport.publish("A", new Message("test", 2));
+        assertEquals(2, transport.getBacklog());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.<Object> asList(0, 1, 2, "reply"), received);
+        transport.destroy();
+    }
+    
+    @Test
+    public void testDestroy() throws Exception {
+        final RingBufferConsumerProducer transport = new RingBufferConsumerProducer(2);
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean published = new AtomicBoolean(true);
+        
+        transport.setCallback(new IMessageCallback() {
+            
+            @Override
+            public void onMessage(String channel, Message message) {
+                delivering.countDown();
+                
+                try {
+                    release.await();
+                } catch (InterruptedException e) {}
+            }
+            
+        });
+        
+        transport.publish("A", new Message("test", 0));
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+        transport.publish("A", new Message("test", 1));
+        transport.publish("A", new Message("test", 2));
+        
+        Thread publisher = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                published.set(transport.publish("A", new Message("test", 3)));
+            }
+            
+        });
+        
+        publisher.start();
+        
+        while (publisher.getState() != Thread.State.TIMED_WAITING && publisher.isAlive()) {
+            Thread.sleep(1);
+        }
+        
+        // A publisher waiting for space is rejected when the transport is destroyed.
+        transport.destroy();
+        publisher.join(5000);
+        assertFalse(publisher.isAlive());
+        assertFalse(published.get());
+        release.countDown();
+    }
+    
+}
@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.api.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class StripedExecutorTest {
+    
+    /**
+     * Executor that defers tasks until explicitly run.
+     */
+    private static class ManualExecutor implements Executor {
+        
+        private final Queue<Runnable> tasks = new LinkedList<>();
+        
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+    }
+    
+    private final List<String> executed = new ArrayList<>();
+    
+    private Runnable newTask(final String id) {
+        return new Runnable() {
+            
+            @Override
+            public void run() {
+                executed.add(id);
+            }
+            
+        };
+    }
+    
+    @Test
+    public void testOrdering() {
+        ManualExecutor executor = new ManualExecutor();
+        StripedExecutor striped = new StripedExecutor(executor, 16);
+        String key1 = "A";
+        String key2 = "B";
+        striped.execute(key1, newTask("A1"));
+        striped.execute(key1, newTask("A2"));
+        striped.execute(key2, newTask("B1"));
+        striped.execute(key1, newTask("A3"));
+        assertEquals(4, striped.getQueueDepth());
+        // One drain task per active stripe.
+        assertEquals(2, executor.tasks.size());
+        Runnable drainA = executor.tasks.poll();
+        Runnable drainB = executor.tasks.poll();
+        drainA.run();
+        assertEquals("[A1, A2, A3]", executed.toString());
+        assertEquals(1, striped.getQueueDepth());
+        drainB.run();
+        assertEquals("[A1, A2, A3, B1]", executed.toString());
+        assertEquals(0, striped.getQueueDepth());
+        striped.execute(key2, newTask("B2"));
+        assertEquals(1, executor.tasks.size());
+    }
+    
+    @Test
+    public void testCapacity() {
+        ManualExecutor executor = new ManualExecutor();
+        StripedExecutor striped = new StripedExecutor(executor, 1, 2);
+        striped.execute("A", newTask("A1"));
+        striped.execute("A", newTask("A2"));
+        
+        try {
+            striped.execute("A", newTask("A3"));
+            fail("Expected task to be rejected.");
+        } catch (RejectedExecutionException e) {}
+        
+        executor.tasks.poll().run();
+        assertEquals("[A1, A2]", executed.toString());
+        striped.execute("A", newTask("A4"));
+        assertEquals(1, striped.getQueueDepth());
+    }
+    
+    @Test
+    public void testRejected() {
+        final List<Runnable> drains = new ArrayList<>();
+        final boolean[] reject = { false };
+        Executor executor = new Executor() {
+            
+            @Override
+            public void execute(Runnable task) {
+                if (reject[0]) {
+                    throw new RejectedExecutionException();
+                }
+                
+                drains.add(task);
+            }
+            
+        };
+        
+        StripedExecutor striped = new StripedExecutor(executor, 1);
+        striped.execute("A", newTask("A1"));
+        striped.execute("A", newTask("A2"));
+        reject[0] = true;
+        // The stripe is already being drained, so the caller does not run it.
+        striped.execute("A", newTask("A3"));
+        assertEquals("[]", executed.toString());
+        drains.get(0).run();
+        assertEquals("[A1, A2, A3]", executed.toString());
+        // An idle stripe is drained by the caller when its drain is rejected.
+        striped.execute("A", newTask("A4"));
+        assertEquals("[A1, A2, A3, A4]", executed.toString());
+        assertEquals(1, drains.size());
+    }
+    
+}
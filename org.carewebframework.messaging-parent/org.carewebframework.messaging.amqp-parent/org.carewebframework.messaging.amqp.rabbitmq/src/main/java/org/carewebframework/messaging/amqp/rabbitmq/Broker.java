@@ -25,25 +25,58 @@
  */
 package org.carewebframework.messaging.amqp.rabbitmq;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.MessageCodec;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.Binding.DestinationType;
 import org.springframework.amqp.core.Exchange;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.Connection;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 
 /**
  * AMQP broker administration.
+ * <p>
+ * The broker caches the channels (i.e., queues and their bindings to the exchange) that are known
+ * to exist, so that sending a message does not require a round trip to the server to verify the
+ * channel each time. Since channel queues are deleted by the server once their last consumer goes
+ * away, cached entries expire after a configurable interval. They are also discarded when a
+ * connection is created or closed, when a send fails, and when a local consumer unsubscribes.
  */
 public class Broker {
     
+    private static final Log log = LogFactory.getLog(Broker.class);
+    
+    /**
+     * Content type of messages in the binary message format.
+     */
+    public static final String CONTENT_TYPE = "application/x-cwf-message";
+    
     private final ConnectionFactory connectionFactory;
     
     private final Exchange exchange;
     
     private final RabbitAdmin admin;
     
+    private final MessageCodec codec = new MessageCodec();
+    
+    private final Map<String, Long> knownChannels = new ConcurrentHashMap<>();
+    
+    private volatile boolean exchangeDeclared;
+    
+    private long topologyTTL = 60000;
+    
+    private String[] bootstrapChannels;
+    
     /**
      * Creates a broker instance with the specified connection factory and default exchange.
      * 
@@ -54,6 +87,52 @@ public class Broker {
         this.connectionFactory = connectionFactory;
         admin = new RabbitAdmin(connectionFactory);
         this.exchange = exchange;
+        
+        connectionFactory.addConnectionListener(new ConnectionListener() {
+            
+            @Override
+            public void onCreate(Connection connection) {
+                invalidate();
+            }
+            
+            @Override
+            public void onClose(Connection connection) {
+                invalidate();
+            }
+            
+        });
+    }
+    
+    /**
+     * Declares the bootstrap channels, if any. Failure to do so is logged, since channels are
+     * otherwise declared on demand.
+     */
+    public void init() {
+        if (bootstrapChannels != null && bootstrapChannels.length > 0) {
+            try {
+                declareChannels(bootstrapChannels);
+            } catch (Exception e) {
+                log.warn("Unable to declare bootstrap channels: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Sets the time for which a channel known to exist is assumed to still exist.
+     * 
+     * @param topologyTTL The time in milliseconds (0 to verify a channel on every use).
+     */
+    public void setTopologyTTL(long topologyTTL) {
+        this.topologyTTL = topologyTTL;
+    }
+    
+    /**
+     * Sets the channels to be declared at initialization.
+     * 
+     * @param bootstrapChannels The channel names.
+     */
+    public void setBootstrapChannels(String... bootstrapChannels) {
+        this.bootstrapChannels = bootstrapChannels;
     }
     
     public ConnectionFactory getConnectionFactory() {
@@ -66,11 +145,73 @@ public class Broker {
      * @param channel The channel name.
      */
     public void ensureChannel(String channel) {
-        if (!channelExists(channel)) {
+        if (isKnownChannel(channel)) {
+            return;
+        }
+        
+        if (channelExists(channel)) {
+            addKnownChannel(channel);
+        } else {
             createChannel(channel);
         }
     }
     
+    /**
+     * Creates any of the specified channels that do not exist.
+     * 
+     * @param channels The channel names.
+     */
+    public synchronized void declareChannels(String... channels) {
+        for (String channel : channels) {
+            ensureChannel(channel);
+        }
+    }
+    
+    /**
+     * Discards a channel from the cache of known channels, so that its existence is verified on
+     * next use.
+     * 
+     * @param channel The channel name.
+     */
+    public void invalidateChannel(String channel) {
+        knownChannels.remove(channel);
+    }
+    
+    /**
+     * Discards all cached topology.
+     */
+    public void invalidate() {
+        knownChannels.clear();
+        exchangeDeclared = false;
+    }
+    
+    /**
+     * Returns true if the channel is known to exist and its cache entry has not expired.
+     * 
+     * @param channel The channel name.
+     * @return True if the channel is known to exist.
+     */
+    private boolean isKnownChannel(String channel) {
+        Long expires = knownChannels.get(channel);
+        return expires != null && expires > System.currentTimeMillis();
+    }
+    
+    private void addKnownChannel(String channel) {
+        if (topologyTTL > 0) {
+            knownChannels.put(channel, System.currentTimeMillis() + topologyTTL);
+        }
+    }
+    
+    /**
+     * Declares the exchange if it has not already been declared on the current connection.
+     */
+    private void ensureExchange() {
+        if (!exchangeDeclared) {
+            admin.declareExchange(exchange);
+            exchangeDeclared = true;
+        }
+    }
+    
     /**
      * Returns true if the named channel already exists.
      * 
@@ -87,26 +228,53 @@ public class Broker {
      * @param channel Name of event handled by queue.
      */
     private synchronized void createChannel(String channel) {
+        if (isKnownChannel(channel)) {
+            return;
+        }
+        
         if (!channelExists(channel)) {
+            ensureExchange();
             Queue queue = new Queue(channel, true, false, true);
             admin.declareQueue(queue);
             Binding binding = new Binding(channel, DestinationType.QUEUE, exchange.getName(), channel + ".#", null);
             admin.declareBinding(binding);
         }
+        
+        addKnownChannel(channel);
     }
     
     /**
-     * Sends an event to the default exchange.
+     * Sends an event to the default exchange, encoded in the binary message format.
      * 
      * @param channel Name of the channel.
      * @param message Message to send.
      */
     public void sendMessage(String channel, Message message) {
         ensureChannel(channel);
-        admin.getRabbitTemplate().convertAndSend(exchange.getName(), channel, message);
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(CONTENT_TYPE);
+        
+        try {
+            admin.getRabbitTemplate().send(exchange.getName(), channel,
+                new org.springframework.amqp.core.Message(codec.encode(message), properties));
+        } catch (AmqpException e) {
+            invalidateChannel(channel);
+            throw e;
+        }
     }
     
+    /**
+     * Converts an AMQP message to a message. Messages in the binary message format are decoded
+     * directly, others by the template's message converter.
+     * 
+     * @param message The AMQP message.
+     * @return The converted message.
+     */
     public Message convertMessage(org.springframework.amqp.core.Message message) {
+        if (CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            return codec.decode(message.getBody());
+        }
+        
         Object msg = admin.getRabbitTemplate().getMessageConverter().fromMessage(message);
         return msg instanceof Message ? (Message) msg : new Message("amqpMessage", msg);
     }
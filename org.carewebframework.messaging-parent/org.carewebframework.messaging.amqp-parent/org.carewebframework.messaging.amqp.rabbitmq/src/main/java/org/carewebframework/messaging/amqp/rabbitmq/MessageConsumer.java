@@ -94,6 +94,7 @@ public class MessageConsumer implements IMessageConsumer {
     public boolean unsubscribe(String channel) {
         if (subscribers.containsKey(channel)) {
             subscribers.remove(channel).stop();
+            broker.invalidateChannel(channel);
             return true;
         }
         
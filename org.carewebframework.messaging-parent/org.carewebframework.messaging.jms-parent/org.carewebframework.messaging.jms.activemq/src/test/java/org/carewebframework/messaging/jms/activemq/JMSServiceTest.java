@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.messaging.jms.activemq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.messaging.jms.JMSService;
+import org.carewebframework.messaging.jms.MessageConsumer;
+import org.carewebframework.messaging.jms.MessageProducer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * Tests recovery of subscriptions when a session cannot be created or the connection breaks.
+ */
+public class JMSServiceTest {
+    
+    private static final String BROKER_NAME = "cwf-service-test";
+    
+    private static final String BROKER_URL = "vm://" + BROKER_NAME + "?create=false";
+    
+    private static final String CHANNEL = "cwf-service-test";
+    
+    /**
+     * Connection factory whose connections can be made to refuse new sessions.
+     */
+    private static class TestConnectionFactory extends ActiveMQConnectionFactory {
+        
+        private final List<Connection> connections = new ArrayList<>();
+        
+        private volatile boolean refuseSessions;
+        
+        TestConnectionFactory() {
+            super(BROKER_URL);
+        }
+        
+        @Override
+        public Connection createConnection() throws JMSException {
+            final Connection connection = super.createConnection();
+            connections.add(connection);
+            
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                new InvocationHandler() {
+                    
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (refuseSessions && "createSession".equals(method.getName())) {
+                            throw new JMSException("Session refused");
+                        }
+                        
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                    
+                });
+        }
+    }
+    
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    
+    private final TestConnectionFactory factory = new TestConnectionFactory();
+    
+    private BrokerService broker;
+    
+    private JMSService producerService;
+    
+    private JMSService consumerService;
+    
+    private MessageProducer producer;
+    
+    private MessageConsumer consumer;
+    
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        broker.setAdvisorySupport(false);
+        broker.start();
+        broker.waitUntilStarted();
+        ActiveMQConnectionFactory producerFactory = new ActiveMQConnectionFactory(BROKER_URL);
+        producerService = new JMSService(new JmsTemplate(producerFactory), producerFactory);
+        producer = new MessageProducer(producerService);
+        consumerService = new JMSService(new JmsTemplate(factory), factory);
+        consumerService.setHealthCheckInterval(0);
+        consumer = new MessageConsumer(consumerService);
+        consumer.setCallback(new IMessageCallback() {
+            
+            @Override
+            public void onMessage(String channel, Message message) {
+                received.add(message.getPayload());
+            }
+            
+        });
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        consumer.removeSubscriptions();
+        consumerService.destroy();
+        producerService.destroy();
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+    
+    @Test
+    public void testSessionRefused() throws Exception {
+        consumer.subscribe(CHANNEL);
+        assertReceived(1);
+        // A healthy connection that cannot supply a session is not reset.
+        factory.refuseSessions = true;
+        
+        try {
+            consumer.subscribe(CHANNEL + ".other");
+            fail("Expected subscription to fail.");
+        } catch (RuntimeException e) {}
+        
+        factory.refuseSessions = false;
+        assertEquals(1, factory.connections.size());
+        assertReceived(2);
+    }
+    
+    @Test
+    public void testConnectionBroken() throws Exception {
+        consumer.subscribe(CHANNEL);
+        assertReceived(1);
+        factory.connections.get(0).close();
+        // The broken connection is reset and the existing subscription renewed on the new one.
+        consumer.subscribe(CHANNEL + ".other");
+        assertEquals(2, factory.connections.size());
+        assertEquals(2, consumerService.getSubscriberCount());
+        assertReceived(2);
+    }
+    
+    private void assertReceived(int value) throws InterruptedException {
+        producer.publish(CHANNEL, new Message("test", value));
+        assertEquals(value, received.poll(5, TimeUnit.SECONDS));
+    }
+    
+}
@@ -0,0 +1,483 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.messaging.jms.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.usage.MemoryUsage;
+import org.carewebframework.api.event.LatencyHistogram;
+import org.carewebframework.api.messaging.ConsumerService;
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.ProducerService;
+import org.carewebframework.messaging.jms.JMSService;
+import org.carewebframework.messaging.jms.MessageConsumer;
+import org.carewebframework.messaging.jms.MessageProducer;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * Throughput and latency harness for the JMS messaging adapter. Starts an embedded, non-persistent
+ * ActiveMQ broker and connects a single producer node and one or more consumer nodes to it, each
+ * with its own connection and its own producer or consumer service, over either the vm:// or the
+ * tcp:// transport. The producer publishes messages of a given size round-robin across a number
+ * of topics, to which every consumer node subscribes, optionally throttled to a fixed rate. After
+ * a warmup, the harness reports publish and delivery throughput, end-to-end latency percentiles
+ * and the peak memory usage of the broker.
+ * <p>
+ * Run {@link #main} from the test classpath, e.g.:
+ * 
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) -Dcwf.harness.subscribers=4 \
+ *     org.carewebframework.messaging.jms.activemq.MessagingHarness
+ * </pre>
+ * 
+ * The settings are read from system properties prefixed by "cwf.harness." (see {@link #main}).
+ */
+public class MessagingHarness {
+    
+    /**
+     * Metadata key for the time (from {@link System#nanoTime}) at which a message was published.
+     */
+    private static final String SENT_METADATA = "cwf.harness.sent";
+    
+    private static final String BROKER_NAME = "cwf-harness";
+    
+    /**
+     * The transport over which nodes connect to the broker.
+     */
+    public enum Transport {
+        VM, TCP
+    }
+    
+    /**
+     * The results of a run.
+     */
+    public static class Result {
+        
+        private final Transport transport;
+        
+        private final long sent;
+        
+        private final long expected;
+        
+        private final long delivered;
+        
+        private final long publishNanos;
+        
+        private final long deliveryNanos;
+        
+        private final LatencyHistogram latency;
+        
+        private final long brokerMemoryPeak;
+        
+        private final long brokerMemoryLimit;
+        
+        private Result(Transport transport, long sent, long expected, long delivered, long publishNanos,
+            long deliveryNanos, LatencyHistogram latency, long brokerMemoryPeak, long brokerMemoryLimit) {
+            this.transport = transport;
+            this.sent = sent;
+            this.expected = expected;
+            this.delivered = delivered;
+            this.publishNanos = publishNanos;
+            this.deliveryNanos = deliveryNanos;
+            this.latency = latency;
+            this.brokerMemoryPeak = brokerMemoryPeak;
+            this.brokerMemoryLimit = brokerMemoryLimit;
+        }
+        
+        public Transport getTransport() {
+            return transport;
+        }
+        
+        /**
+         * @return The number of messages published.
+         */
+        public long getSent() {
+            return sent;
+        }
+        
+        /**
+         * @return The number of deliveries expected (messages published times consumer nodes).
+         */
+        public long getExpected() {
+            return expected;
+        }
+        
+        /**
+         * @return The number of deliveries received.
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+        
+        /**
+         * @return Messages published per second.
+         */
+        public double getPublishRate() {
+            return rate(sent, publishNanos);
+        }
+        
+        /**
+         * @return Deliveries received per second, from the first publication to the last delivery.
+         */
+        public double getDeliveryRate() {
+            return rate(delivered, deliveryNanos);
+        }
+        
+        /**
+         * Returns a latency percentile.
+         * 
+         * @param percentile The percentile (0-100).
+         * @return The latency in microseconds.
+         */
+        public double getLatency(double percentile) {
+            return latency.getPercentile(percentile) / 1000.0;
+        }
+        
+        /**
+         * @return The maximum latency in microseconds.
+         */
+        public double getMaxLatency() {
+            return latency.getMax() / 1000.0;
+        }
+        
+        /**
+         * @return The peak memory usage of the broker, in bytes.
+         */
+        public long getBrokerMemoryPeak() {
+            return brokerMemoryPeak;
+        }
+        
+        private double rate(long count, long nanos) {
+            return nanos <= 0 ? 0 : count * 1e9 / nanos;
+        }
+        
+        @Override
+        public String toString() {
+            // @formatter:off
+            return String.format(
+                "%s: sent=%d delivered=%d/%d publish=%.0f msg/s delivery=%.0f msg/s%n"
+                + "    latency (us): p50=%.0f p90=%.0f p99=%.0f p99.9=%.0f max=%.0f%n"
+                + "    broker memory: peak=%.1f KB (%.2f%% of %.0f MB)",
+                transport, sent, delivered, expected, getPublishRate(), getDeliveryRate(),
+                getLatency(50), getLatency(90), getLatency(99), getLatency(99.9), getMaxLatency(),
+                brokerMemoryPeak / 1024.0, brokerMemoryLimit == 0 ? 0 : brokerMemoryPeak * 100.0 / brokerMemoryLimit,
+                brokerMemoryLimit / 1048576.0);
+            // @formatter:on
+        }
+    }
+    
+    /**
+     * A producer or consumer node with its own connection to the broker.
+     */
+    private static class Node {
+        
+        private final CachingConnectionFactory factory;
+        
+        private final JMSService service;
+        
+        Node(String brokerUrl) {
+            factory = new CachingConnectionFactory(new ActiveMQConnectionFactory(brokerUrl));
+            factory.setCacheConsumers(false);
+            service = new JMSService(new JmsTemplate(factory), factory);
+        }
+        
+        void destroy() {
+            service.destroy();
+            factory.destroy();
+        }
+    }
+    
+    /**
+     * Samples the memory usage of the broker on a background thread.
+     */
+    private static class MemorySampler extends Thread {
+        
+        private final MemoryUsage memoryUsage;
+        
+        private volatile boolean running = true;
+        
+        private volatile long peak;
+        
+        MemorySampler(MemoryUsage memoryUsage) {
+            super("cwf-harness-sampler");
+            this.memoryUsage = memoryUsage;
+            setDaemon(true);
+        }
+        
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, memoryUsage.getUsage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+        
+        /**
+         * Stops sampling and waits for the sampler to terminate.
+         * 
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        void finish() throws InterruptedException {
+            running = false;
+            join();
+            peak = Math.max(peak, memoryUsage.getUsage());
+        }
+    }
+    
+    private int messages = 10000;
+    
+    private int warmup = 1000;
+    
+    private int messageSize = 1024;
+    
+    private int topics = 1;
+    
+    private int subscribers = 1;
+    
+    private int rate;
+    
+    private long timeout = 60000;
+    
+    private final LatencyHistogram latency = new LatencyHistogram();
+    
+    private final AtomicLong delivered = new AtomicLong();
+    
+    private final AtomicLong lastDelivery = new AtomicLong();
+    
+    private final IMessageCallback callback = new IMessageCallback() {
+        
+        @Override
+        public void onMessage(String channel, Message message) {
+            long now = System.nanoTime();
+            Long sent = (Long) message.getMetadata(SENT_METADATA);
+            
+            if (sent != null) {
+                latency.record(now - sent);
+            }
+            
+            lastDelivery.set(now);
+            delivered.incrementAndGet();
+        }
+        
+    };
+    
+    /**
+     * Runs the harness using settings from system properties:
+     * <ul>
+     * <li>cwf.harness.transport - VM, TCP or ALL (default ALL)</li>
+     * <li>cwf.harness.messages - messages published per run (default 10000)</li>
+     * <li>cwf.harness.warmup - messages published before measuring (default 1000)</li>
+     * <li>cwf.harness.size - payload size in bytes (default 1024)</li>
+     * <li>cwf.harness.topics - number of topics (default 1)</li>
+     * <li>cwf.harness.subscribers - number of consumer nodes (default 1)</li>
+     * <li>cwf.harness.rate - messages published per second, or 0 for no limit (default 0)</li>
+     * </ul>
+     * 
+     * @param args Not used.
+     * @throws Exception Unspecified exception.
+     */
+    public static void main(String[] args) throws Exception {
+        MessagingHarness harness = new MessagingHarness();
+        harness.setMessages(Integer.getInteger("cwf.harness.messages", harness.messages));
+        harness.setWarmup(Integer.getInteger("cwf.harness.warmup", harness.warmup));
+        harness.setMessageSize(Integer.getInteger("cwf.harness.size", harness.messageSize));
+        harness.setTopics(Integer.getInteger("cwf.harness.topics", harness.topics));
+        harness.setSubscribers(Integer.getInteger("cwf.harness.subscribers", harness.subscribers));
+        harness.setRate(Integer.getInteger("cwf.harness.rate", harness.rate));
+        String transport = System.getProperty("cwf.harness.transport", "ALL").toUpperCase();
+        
+        for (Transport value : Transport.values()) {
+            if ("ALL".equals(transport) || value.name().equals(transport)) {
+                System.out.println(harness.run(value));
+            }
+        }
+    }
+    
+    public void setMessages(int messages) {
+        this.messages = messages;
+    }
+    
+    public void setWarmup(int warmup) {
+        this.warmup = warmup;
+    }
+    
+    public void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+    
+    public void setTopics(int topics) {
+        this.topics = Math.max(1, topics);
+    }
+    
+    public void setSubscribers(int subscribers) {
+        this.subscribers = Math.max(1, subscribers);
+    }
+    
+    /**
+     * Sets the rate at which messages are published.
+     * 
+     * @param rate Messages per second, or 0 for no limit.
+     */
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+    
+    /**
+     * Sets the maximum time to wait for outstanding deliveries at the end of a run.
+     * 
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * Starts a broker, performs a warmup and a measured run over the specified transport, and
+     * stops the broker.
+     * 
+     * @param transport The transport.
+     * @return The results of the measured run.
+     * @throws Exception Unspecified exception.
+     */
+    public Result run(Transport transport) throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        broker.setAdvisorySupport(false);
+        broker.addConnector("tcp://localhost:0");
+        broker.start();
+        broker.waitUntilStarted();
+        List<Node> nodes = new ArrayList<>();
+        reset();
+        
+        try {
+            String url = transport == Transport.VM ? "vm://" + BROKER_NAME + "?create=false"
+                    : broker.getTransportConnectors().get(0).getPublishableConnectString();
+            Node producerNode = new Node(url);
+            nodes.add(producerNode);
+            ProducerService producerService = new ProducerService();
+            producerService.registerProducer(new MessageProducer(producerNode.service));
+            
+            for (int i = 0; i < subscribers; i++) {
+                Node consumerNode = new Node(url);
+                nodes.add(consumerNode);
+                ConsumerService consumerService = new ConsumerService();
+                consumerService.registerConsumer(new MessageConsumer(consumerNode.service));
+                
+                for (int j = 0; j < topics; j++) {
+                    consumerService.subscribe(getTopic(j), callback);
+                }
+            }
+            
+            publish(producerService, warmup);
+            awaitDelivery((long) warmup * subscribers);
+            reset();
+            MemorySampler sampler = new MemorySampler(broker.getSystemUsage().getMemoryUsage());
+            sampler.start();
+            long start = System.nanoTime();
+            long publishNanos = publish(producerService, messages);
+            long expected = (long) messages * subscribers;
+            awaitDelivery(expected);
+            sampler.finish();
+            return new Result(transport, messages, expected, delivered.get(), publishNanos, lastDelivery.get() - start,
+                    latency, sampler.peak, sampler.memoryUsage.getLimit());
+        } finally {
+            for (Node node : nodes) {
+                node.destroy();
+            }
+            
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+    
+    /**
+     * Clears the delivery statistics.
+     */
+    private void reset() {
+        latency.reset();
+        delivered.set(0);
+        lastDelivery.set(0);
+    }
+    
+    /**
+     * Publishes messages round-robin across the topics, throttled to the configured rate.
+     * 
+     * @param producerService The producer service.
+     * @param count The number of messages to publish.
+     * @return The elapsed time in nanoseconds.
+     */
+    private long publish(ProducerService producerService, int count) {
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long start = System.nanoTime();
+        
+        for (int i = 0; i < count; i++) {
+            if (interval > 0) {
+                long wait = start + i * interval - System.nanoTime();
+                
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            
+            Message message = new Message("harness", new byte[messageSize]);
+            message.setMetadata(SENT_METADATA, System.nanoTime());
+            producerService.publish(getTopic(i % topics), message);
+        }
+        
+        return System.nanoTime() - start;
+    }
+    
+    /**
+     * Waits until the expected number of deliveries have been received, or the timeout elapses.
+     * 
+     * @param expected The expected number of deliveries.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void awaitDelivery(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        
+        while (delivered.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+    
+    private String getTopic(int index) {
+        return "harness" + index;
+    }
+    
+}
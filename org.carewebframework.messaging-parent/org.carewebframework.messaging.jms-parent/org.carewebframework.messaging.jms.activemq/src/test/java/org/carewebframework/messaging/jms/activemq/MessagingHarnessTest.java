@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.messaging.jms.activemq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.carewebframework.messaging.jms.activemq.MessagingHarness.Result;
+import org.carewebframework.messaging.jms.activemq.MessagingHarness.Transport;
+import org.junit.Test;
+
+/**
+ * Runs the messaging harness briefly over each transport.
+ */
+public class MessagingHarnessTest {
+    
+    @Test
+    public void testHarness() throws Exception {
+        MessagingHarness harness = new MessagingHarness();
+        harness.setMessages(200);
+        harness.setWarmup(50);
+        harness.setMessageSize(256);
+        harness.setTopics(2);
+        harness.setSubscribers(2);
+        
+        for (Transport transport : Transport.values()) {
+            Result result = harness.run(transport);
+            assertEquals(result.toString(), result.getExpected(), result.getDelivered());
+            assertTrue(result.getLatency(50) > 0);
+            assertTrue(result.getDeliveryRate() > 0);
+        }
+    }
+    
+}
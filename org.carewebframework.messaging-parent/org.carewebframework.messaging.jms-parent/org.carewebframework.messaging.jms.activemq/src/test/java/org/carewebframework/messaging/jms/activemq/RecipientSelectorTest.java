@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.messaging.jms.activemq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.carewebframework.api.messaging.IMessageConsumer.IMessageCallback;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.Recipient;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
+import org.carewebframework.messaging.jms.JMSService;
+import org.carewebframework.messaging.jms.MessageConsumer;
+import org.carewebframework.messaging.jms.MessageConsumer.SelectorMode;
+import org.carewebframework.messaging.jms.MessageProducer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * Tests the filtering of messages by recipient selectors on an embedded broker.
+ */
+public class RecipientSelectorTest {
+    
+    private static final String BROKER_NAME = "cwf-selector-test";
+    
+    private static final String CHANNEL = "cwf-selector-test";
+    
+    private static final String END = "end";
+    
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    
+    private final List<CachingConnectionFactory> factories = new ArrayList<>();
+    
+    private final List<JMSService> services = new ArrayList<>();
+    
+    private BrokerService broker;
+    
+    private MessageProducer producer;
+    
+    private MessageConsumer consumer;
+    
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        broker.setAdvisorySupport(false);
+        broker.start();
+        broker.waitUntilStarted();
+        producer = new MessageProducer(createService());
+        consumer = new MessageConsumer(createService());
+        consumer.setLocalRecipients(new HashSet<>(Arrays.asList(new Recipient(RecipientType.CONSUMER, "node1"),
+            new Recipient(RecipientType.USER, "user1"), new Recipient(RecipientType.SESSION, "session1"))));
+        consumer.setCallback(new IMessageCallback() {
+            
+            @Override
+            public void onMessage(String channel, Message message) {
+                received.add(message.getType());
+            }
+            
+        });
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        consumer.removeSubscriptions();
+        
+        for (JMSService service : services) {
+            service.destroy();
+        }
+        
+        for (CachingConnectionFactory factory : factories) {
+            factory.destroy();
+        }
+        
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+    
+    private JMSService createService() {
+        CachingConnectionFactory factory = new CachingConnectionFactory(
+                new ActiveMQConnectionFactory("vm://" + BROKER_NAME + "?create=false"));
+        factory.setCacheConsumers(false);
+        factories.add(factory);
+        JMSService service = new JMSService(new JmsTemplate(factory), factory);
+        services.add(service);
+        return service;
+    }
+    
+    @Test
+    public void testNoneMode() throws Exception {
+        consumer.setSelectorMode(SelectorMode.NONE);
+        assertNull(consumer.getSelector());
+        consumer.subscribe(CHANNEL);
+        publish("node2", RecipientType.CONSUMER, "node2");
+        publish("user2", RecipientType.USER, "user2");
+        publish("all");
+        assertReceived("node2", "user2", "all");
+    }
+    
+    @Test
+    public void testConsumerMode() throws Exception {
+        consumer.setSelectorMode(SelectorMode.CONSUMER);
+        consumer.subscribe(CHANNEL);
+        publish("node2", RecipientType.CONSUMER, "node2");
+        publish("node1", RecipientType.CONSUMER, "node1");
+        publish("nodes", RecipientType.CONSUMER, "node2", "node1");
+        publish("user2", RecipientType.USER, "user2");
+        publish("all");
+        assertReceived("node1", "nodes", "user2", "all");
+    }
+    
+    @Test
+    public void testRecipientMode() throws Exception {
+        consumer.setSelectorMode(SelectorMode.RECIPIENT);
+        consumer.subscribe(CHANNEL);
+        publish("node2", RecipientType.CONSUMER, "node2");
+        publish("user2", RecipientType.USER, "user2");
+        publish("user1", RecipientType.USER, "user1");
+        publish("session2", RecipientType.SESSION, "session2");
+        publish("session1", RecipientType.SESSION, "session1");
+        publish("application", RecipientType.APPLICATION, "app");
+        publish("all");
+        assertReceived("user1", "session1", "all");
+    }
+    
+    @Test
+    public void testRenewal() throws Exception {
+        consumer.setSelectorMode(SelectorMode.NONE);
+        consumer.subscribe(CHANNEL);
+        publish("node2", RecipientType.CONSUMER, "node2");
+        publish("user2", RecipientType.USER, "user2");
+        assertReceived("node2", "user2");
+        // Changing the mode renews the subscription with the new selector.
+        consumer.setSelectorMode(SelectorMode.RECIPIENT);
+        String selector = consumer.getSelector();
+        publish("node2", RecipientType.CONSUMER, "node2");
+        publish("user2", RecipientType.USER, "user2");
+        assertReceived();
+        // Adding a local recipient renews the subscription to admit it.
+        consumer.setLocalRecipients(new HashSet<>(Arrays.asList(new Recipient(RecipientType.CONSUMER, "node1"),
+            new Recipient(RecipientType.USER, "user2"))));
+        assertNotEquals(selector, consumer.getSelector());
+        publish("node2", RecipientType.CONSUMER, "node2");
+        publish("user2", RecipientType.USER, "user2");
+        publish("user1", RecipientType.USER, "user1");
+        assertReceived("user2");
+        // An unchanged selector leaves the subscription in place.
+        selector = consumer.getSelector();
+        consumer.setSelectorMode(SelectorMode.RECIPIENT);
+        assertEquals(selector, consumer.getSelector());
+        publish("user2", RecipientType.USER, "user2");
+        assertReceived("user2");
+    }
+    
+    private void publish(String type, RecipientType recipientType, String... values) {
+        Recipient[] recipients = new Recipient[values.length];
+        
+        for (int i = 0; i < values.length; i++) {
+            recipients[i] = new Recipient(recipientType, values[i]);
+        }
+        
+        Message message = new Message(type, null);
+        message.setMetadata(Message.RECIPIENTS_METADATA, recipients);
+        producer.publish(CHANNEL, message);
+    }
+    
+    private void publish(String type) {
+        producer.publish(CHANNEL, new Message(type, null));
+    }
+    
+    /**
+     * Publishes an end marker and asserts that exactly the expected messages, in order, precede it.
+     * 
+     * @param expected The types of the expected messages.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void assertReceived(String... expected) throws InterruptedException {
+        publish(END);
+        List<String> types = new ArrayList<>();
+        String type;
+        
+        while ((type = received.poll(5, TimeUnit.SECONDS)) != null && !END.equals(type)) {
+            types.add(type);
+        }
+        
+        assertEquals(END, type);
+        assertEquals(Arrays.asList(expected), types);
+    }
+    
+}
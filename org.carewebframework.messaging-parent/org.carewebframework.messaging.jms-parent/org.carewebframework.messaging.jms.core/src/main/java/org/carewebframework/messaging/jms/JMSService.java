@@ -26,13 +26,25 @@
 package org.carewebframework.messaging.jms;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
 import javax.jms.Topic;
+import javax.jms.TopicPublisher;
 import javax.jms.TopicSession;
 import javax.jms.TopicSubscriber;
 
@@ -41,21 +53,142 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.carewebframework.common.MiscUtil;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
  * JMX-based messaging service.
+ * <p>
+ * JMS sessions are not thread-safe, so topic traffic is spread across a bounded pool of sessions.
+ * A thread borrows a session for the duration of a single operation and returns it afterwards.
+ * Each pooled session caches a topic publisher per destination. Sessions are validated when
+ * borrowed (at most once per health check interval) and discarded if they fail. Subscribers
+ * receive a dedicated session, since asynchronous delivery ties a session to its delivery thread.
+ * If the connection is found to be broken, it is reset and registered listeners are notified so
+ * that they may renew their subscriptions.
  */
 @ManagedResource(description = "Runtime messaging support.")
 public class JMSService {
     
     private static final Log log = LogFactory.getLog(JMSService.class);
     
+    /**
+     * Listener notified when the connection to the JMS server has been reset.
+     */
+    public interface IConnectionListener {
+        
+        /**
+         * Called after the connection has been reset. Subscribers created on the previous
+         * connection no longer receive messages and must be replaced.
+         */
+        void onConnectionReset();
+    }
+    
+    /**
+     * A pooled topic session with its cached publishers.
+     */
+    private class PooledSession {
+        
+        private final TopicSession session;
+        
+        private final int generation;
+        
+        private final Map<String, TopicPublisher> publishers = new HashMap<>();
+        
+        private long lastChecked = System.currentTimeMillis();
+        
+        PooledSession(TopicSession session, int generation) {
+            this.session = session;
+            this.generation = generation;
+        }
+        
+        /**
+         * Returns the cached publisher for a destination, creating it if necessary.
+         * 
+         * @param destinationName The destination name.
+         * @return The topic publisher.
+         * @throws JMSException Error creating the publisher.
+         */
+        TopicPublisher getPublisher(String destinationName) throws JMSException {
+            TopicPublisher publisher = publishers.get(destinationName);
+            
+            if (publisher == null) {
+                publisher = session.createPublisher(session.createTopic(destinationName));
+                publishers.put(destinationName, publisher);
+            }
+            
+            return publisher;
+        }
+        
+        /**
+         * Returns true if the session belongs to the current connection and, if the health check
+         * interval has elapsed, still responds to requests.
+         * 
+         * @return True if the session may be used.
+         */
+        boolean isHealthy() {
+            if (generation != JMSService.this.generation) {
+                return false;
+            }
+            
+            long now = System.currentTimeMillis();
+            
+            if (now - lastChecked < healthCheckInterval) {
+                return true;
+            }
+            
+            try {
+                session.getAcknowledgeMode();
+                lastChecked = now;
+                return true;
+            } catch (Exception e) {
+                log.warn("Discarding unhealthy JMS session: " + e.getMessage());
+                return false;
+            }
+        }
+        
+        void close() {
+            for (TopicPublisher publisher : publishers.values()) {
+                try {
+                    publisher.close();
+                } catch (Exception e) {
+                    log.debug("Error closing JMS topic publisher.", e);
+                }
+            }
+            
+            publishers.clear();
+            
+            try {
+                session.close();
+            } catch (Exception e) {
+                log.debug("Error closing JMS topic session.", e);
+            }
+        }
+    }
+    
     private Connection connection;
     
-    private TopicSession session;
+    private volatile int generation;
+    
+    private final BlockingQueue<PooledSession> idleSessions = new LinkedBlockingQueue<>();
+    
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    
+    private final Map<TopicSubscriber, TopicSession> subscriberSessions = new ConcurrentHashMap<>();
+    
+    private int sessionPoolSize = 4;
+    
+    private long sessionTimeout = 10000;
+    
+    private long healthCheckInterval = 30000;
     
-    private final JmsTemplate jmsTopicTemplate;
+    private final List<IConnectionListener> connectionListeners = new CopyOnWriteArrayList<>();
+    
+    private final ReentrantLock resetLock = new ReentrantLock();
+    
+    private final AtomicInteger resets = new AtomicInteger();
+    
+    private volatile int notifiedResets;
     
     private final JmsTemplate jmsQueueTemplate;
     
@@ -64,12 +197,10 @@ public class JMSService {
     /**
      * Create the service.
      * 
-     * @param jmsTopicTemplate The JMS topic template.
      * @param jmsQueueTemplate The JMP queue template.
      * @param factory The connection factory.
      */
-    public JMSService(JmsTemplate jmsTopicTemplate, JmsTemplate jmsQueueTemplate, ConnectionFactory factory) {
-        this.jmsTopicTemplate = jmsTopicTemplate;
+    public JMSService(JmsTemplate jmsQueueTemplate, ConnectionFactory factory) {
         this.jmsQueueTemplate = jmsQueueTemplate;
         this.factory = factory;
     }
@@ -88,7 +219,7 @@ public class JMSService {
      * 
      * @return True if successful.
      */
-    private boolean connect() {
+    private synchronized boolean connect() {
         if (this.factory == null) {
             return false;
         }
@@ -99,7 +230,6 @@ public class JMSService {
         
         try {
             this.connection = this.factory.createConnection();
-            this.session = (TopicSession) this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             this.connection.start();
             return true;
         } catch (Exception e) {
@@ -110,15 +240,15 @@ public class JMSService {
     }
     
     /**
-     * Disconnect from the JMS server.
+     * Disconnect from the JMS server. Pooled sessions are closed and any sessions still on loan
+     * are discarded when returned.
      */
-    private void disconnect() {
-        if (this.session != null) {
-            try {
-                this.session.close();
-            } catch (Exception e) {
-                log.error("Error closing JMS topic session.", e);
-            }
+    private synchronized void disconnect() {
+        generation++;
+        PooledSession pooledSession;
+        
+        while ((pooledSession = idleSessions.poll()) != null) {
+            discardSession(pooledSession);
         }
         
         if (this.connection != null) {
@@ -130,10 +260,86 @@ public class JMSService {
             }
         }
         
-        this.session = null;
         this.connection = null;
     }
     
+    /**
+     * Returns true if the current connection no longer responds to requests.
+     * 
+     * @return True if the connection is broken.
+     */
+    private synchronized boolean isConnectionBroken() {
+        if (this.connection == null) {
+            return false;
+        }
+        
+        try {
+            this.connection.getMetaData();
+            return false;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+    
+    /**
+     * Resets a broken connection. Connection listeners are notified once a new connection has been
+     * established.
+     * 
+     * @param cause The error that revealed the broken connection.
+     */
+    private void resetConnection(Exception cause) {
+        log.warn("Resetting JMS connection: " + cause.getMessage());
+        disconnect();
+        resets.incrementAndGet();
+    }
+    
+    /**
+     * Notifies connection listeners of any resets not yet reported. Must be called without holding
+     * the lock on this service, after a connection is established. Only one thread notifies at a
+     * time. A thread that finds another already notifying leaves the reset it observed to be
+     * reported by that thread, which checks again after releasing the lock, so that a listener
+     * renewing subscriptions under its own lock cannot deadlock with a thread awaiting this one.
+     */
+    private void notifyConnectionListeners() {
+        while (notifiedResets != resets.get() && resetLock.tryLock()) {
+            try {
+                int count = resets.get();
+                
+                if (notifiedResets != count) {
+                    notifiedResets = count;
+                    
+                    for (IConnectionListener listener : connectionListeners) {
+                        try {
+                            listener.onConnectionReset();
+                        } catch (Exception e) {
+                            log.error("Error notifying JMS connection listener.", e);
+                        }
+                    }
+                }
+            } finally {
+                resetLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Registers a listener to be notified when the connection is reset.
+     * 
+     * @param listener The connection listener.
+     */
+    public void addConnectionListener(IConnectionListener listener) {
+        connectionListeners.add(listener);
+    }
+    
+    /**
+     * Removes a connection listener.
+     * 
+     * @param listener The connection listener.
+     */
+    public void removeConnectionListener(IConnectionListener listener) {
+        connectionListeners.remove(listener);
+    }
+    
     /**
      * Initialize after setting all requisite properties.
      */
@@ -145,27 +351,229 @@ public class JMSService {
      * Cleanup this instance.
      */
     public void destroy() {
+        for (TopicSubscriber subscriber : subscriberSessions.keySet()) {
+            closeSubscriber(subscriber);
+        }
+        
         disconnect();
     }
     
+    /**
+     * Sets the maximum number of pooled sessions available for publishing.
+     * 
+     * @param sessionPoolSize The maximum pool size (must be at least 1).
+     */
+    public void setSessionPoolSize(int sessionPoolSize) {
+        this.sessionPoolSize = Math.max(1, sessionPoolSize);
+    }
+    
+    @ManagedAttribute(description = "The maximum number of pooled JMS sessions.")
+    public int getSessionPoolSize() {
+        return sessionPoolSize;
+    }
+    
+    /**
+     * Sets the time to wait for a pooled session when all are in use.
+     * 
+     * @param sessionTimeout The wait time in milliseconds.
+     */
+    public void setSessionTimeout(long sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+    
+    /**
+     * Sets the minimum interval between health checks of a pooled session.
+     * 
+     * @param healthCheckInterval The interval in milliseconds (0 to check on every use).
+     */
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+    
+    @ManagedAttribute(description = "The number of open pooled JMS sessions.")
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+    
+    @ManagedAttribute(description = "The number of idle pooled JMS sessions.")
+    public int getIdleSessionCount() {
+        return idleSessions.size();
+    }
+    
+    @ManagedAttribute(description = "The number of JMS subscriber sessions.")
+    public int getSubscriberCount() {
+        return subscriberSessions.size();
+    }
+    
+    /**
+     * Borrows a healthy session from the pool, creating one if the pool has not reached its
+     * maximum size. The session must be returned with {@link #releaseSession} when done.
+     * 
+     * @return A pooled session.
+     * @throws JMSException Error creating a session, or none available within the timeout.
+     */
+    private PooledSession borrowSession() throws JMSException {
+        while (true) {
+            PooledSession pooledSession = idleSessions.poll();
+            
+            if (pooledSession == null) {
+                if (sessionCount.incrementAndGet() <= sessionPoolSize) {
+                    return createPooledSession();
+                }
+                
+                sessionCount.decrementAndGet();
+                
+                try {
+                    pooledSession = idleSessions.poll(sessionTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JMSException("Interrupted waiting for a JMS session.");
+                }
+                
+                if (pooledSession == null) {
+                    throw new JMSException("Timed out waiting for a JMS session.");
+                }
+            }
+            
+            if (pooledSession.isHealthy()) {
+                return pooledSession;
+            }
+            
+            discardSession(pooledSession);
+        }
+    }
+    
+    /**
+     * Creates a new pooled session. The caller must already have reserved a slot in the session
+     * count.
+     * 
+     * @return The new pooled session.
+     * @throws JMSException Error creating the session.
+     */
+    private PooledSession createPooledSession() throws JMSException {
+        try {
+            int gen = generation;
+            return new PooledSession(createTopicSession(), gen);
+        } catch (JMSException | RuntimeException e) {
+            sessionCount.decrementAndGet();
+            throw e;
+        }
+    }
+    
+    /**
+     * Creates a topic session on the current connection, connecting if necessary. If the
+     * connection fails to supply a session because it is broken, it is reset and the attempt
+     * repeated once. Other failures leave the connection, and the subscribers sharing it, intact.
+     * 
+     * @return The new topic session.
+     * @throws JMSException Error creating the session.
+     */
+    private TopicSession createTopicSession() throws JMSException {
+        for (int attempt = 0;; attempt++) {
+            if (!connect()) {
+                throw new JMSException("Unable to connect to JMS server.");
+            }
+            
+            notifyConnectionListeners();
+            
+            try {
+                return (TopicSession) connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            } catch (JMSException e) {
+                if (attempt > 0 || !isConnectionBroken()) {
+                    throw e;
+                }
+                
+                resetConnection(e);
+            }
+        }
+    }
+    
+    /**
+     * Returns a borrowed session to the pool.
+     * 
+     * @param pooledSession The borrowed session.
+     * @param failed If true, the session encountered an error and is discarded.
+     */
+    private void releaseSession(PooledSession pooledSession, boolean failed) {
+        if (failed || pooledSession.generation != generation) {
+            discardSession(pooledSession);
+        } else {
+            idleSessions.offer(pooledSession);
+        }
+    }
+    
+    private void discardSession(PooledSession pooledSession) {
+        sessionCount.decrementAndGet();
+        pooledSession.close();
+    }
+    
     public Topic createTopic(String name) {
+        PooledSession pooledSession = null;
+        boolean failed = true;
+        
         try {
-            return getSession().createTopic(name);
+            pooledSession = borrowSession();
+            Topic topic = pooledSession.session.createTopic(name);
+            failed = false;
+            return topic;
         } catch (JMSException e) {
             throw MiscUtil.toUnchecked(e);
+        } finally {
+            if (pooledSession != null) {
+                releaseSession(pooledSession, failed);
+            }
         }
     }
     
+    /**
+     * Creates a subscriber on a dedicated session, so that message delivery for each subscription
+     * proceeds independently. Close the subscriber with {@link #closeSubscriber}.
+     * 
+     * @param topic The topic.
+     * @param selector The message selector (may be null).
+     * @return The topic subscriber.
+     */
     public TopicSubscriber createSubscriber(Topic topic, String selector) {
+        TopicSession session = null;
+        
         try {
-            return getSession().createSubscriber(topic, selector, false);
+            session = createTopicSession();
+            TopicSubscriber subscriber = session.createSubscriber(topic, selector, false);
+            subscriberSessions.put(subscriber, session);
+            return subscriber;
         } catch (JMSException e) {
+            closeQuietly(session);
             throw MiscUtil.toUnchecked(e);
         }
     }
     
     /**
-     * Produces topic message. Uses JmsTemplate to send to local broker and forwards (based on
+     * Closes a subscriber and its dedicated session.
+     * 
+     * @param subscriber The subscriber created by {@link #createSubscriber}.
+     */
+    public void closeSubscriber(TopicSubscriber subscriber) {
+        try {
+            subscriber.close();
+        } catch (Exception e) {
+            log.debug("Error closing JMS subscriber.", e);
+        }
+        
+        closeQuietly(subscriberSessions.remove(subscriber));
+    }
+    
+    private void closeQuietly(Session session) {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (Exception e) {
+                log.debug("Error closing JMS session.", e);
+            }
+        }
+    }
+    
+    /**
+     * Produces topic message. Uses a pooled session to send to local broker and forwards (based on
      * demand) to broker network.
      * 
      * @param destinationName The destination name.
@@ -173,18 +581,28 @@ public class JMSService {
      * @param recipients Comma-delimited list of recipient ids.
      */
     public void produceTopicMessage(String destinationName, String messageData, String recipients) {
-        Message msg = createObjectMessage(messageData, "anonymous", recipients);
-        sendMessage(destinationName, msg);
+        try {
+            Message msg = createTextMessage(messageData, "anonymous", recipients);
+            sendMessage(destinationName, msg);
+        } catch (JMSException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
     }
     
     public void produceQueueMessage(String destinationName, String messageData) {
-        Message msg = createObjectMessage(messageData, "anynomyous", null);
-        jmsQueueTemplate.convertAndSend(destinationName, msg);
+        try {
+            Message msg = createTextMessage(messageData, "anynomyous", null);
+            jmsQueueTemplate.convertAndSend(destinationName, msg);
+        } catch (JMSException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
     }
     
     /**
      * Creates an ObjectMessage from a given session and sets properties of the message (JMSType,
-     * {@value #MESSAGE_SENDER_PROPERTY}, {@value #MESSAGE_RECIPIENTS_PROPERTY}.
+     * {@value #MESSAGE_SENDER_PROPERTY}, {@value #MESSAGE_RECIPIENTS_PROPERTY}. Object messages
+     * require Java serialization and matching classes on every node, so bytes messages are
+     * preferred.
      * 
      * @param session The session for which to create the message.
      * @param messageData Message data.
@@ -194,10 +612,48 @@ public class JMSService {
      * @throws JMSException if error thrown from creation of object message
      */
     public Message createObjectMessage(Serializable messageData, String sender, String recipients) {
+        PooledSession pooledSession = null;
+        boolean failed = true;
+        
+        try {
+            pooledSession = borrowSession();
+            Message message = pooledSession.session.createObjectMessage(messageData);
+            failed = false;
+            return decorateMessage(message, sender, recipients);
+        } catch (JMSException e) {
+            throw MiscUtil.toUnchecked(e);
+        } finally {
+            if (pooledSession != null) {
+                releaseSession(pooledSession, failed);
+            }
+        }
+    }
+    
+    /**
+     * Creates a BytesMessage from a given session and sets properties of the message (JMSType,
+     * {@value #MESSAGE_SENDER_PROPERTY}, {@value #MESSAGE_RECIPIENTS_PROPERTY}.
+     * 
+     * @param data Message data.
+     * @param sender Sender client ID.
+     * @param recipients Comma-delimited list of recipient client IDs
+     * @return The newly created message.
+     */
+    public Message createBytesMessage(byte[] data, String sender, String recipients) {
+        PooledSession pooledSession = null;
+        boolean failed = true;
+        
         try {
-            return decorateMessage(getSession().createObjectMessage(messageData), sender, recipients);
+            pooledSession = borrowSession();
+            BytesMessage message = pooledSession.session.createBytesMessage();
+            failed = false;
+            message.writeBytes(data);
+            return decorateMessage(message, sender, recipients);
         } catch (JMSException e) {
             throw MiscUtil.toUnchecked(e);
+        } finally {
+            if (pooledSession != null) {
+                releaseSession(pooledSession, failed);
+            }
         }
     }
     
@@ -213,7 +669,16 @@ public class JMSService {
      * @throws JMSException if error thrown from creation of object message
      */
     public Message createTextMessage(String text, String sender, String recipients) throws JMSException {
-        return decorateMessage(getSession().createTextMessage(text), sender, recipients);
+        PooledSession pooledSession = borrowSession();
+        boolean failed = true;
+        
+        try {
+            Message message = pooledSession.session.createTextMessage(text);
+            failed = false;
+            return decorateMessage(message, sender, recipients);
+        } finally {
+            releaseSession(pooledSession, failed);
+        }
     }
     
     /**
@@ -233,16 +698,27 @@ public class JMSService {
         return message;
     }
     
+    /**
+     * Publishes a message to a topic using a pooled session and its cached publisher for the
+     * destination.
+     * 
+     * @param destinationName The destination name.
+     * @param msg The message to publish.
+     */
     public void sendMessage(String destinationName, Message msg) {
+        PooledSession pooledSession = null;
+        boolean failed = true;
+        
         try {
-            jmsTopicTemplate.convertAndSend(destinationName, msg);
+            pooledSession = borrowSession();
+            pooledSession.getPublisher(destinationName).publish(msg);
+            failed = false;
         } catch (Exception e) {
             throw MiscUtil.toUnchecked(e);
+        } finally {
+            if (pooledSession != null) {
+                releaseSession(pooledSession, failed);
+            }
         }
     }
-    
-    private TopicSession getSession() {
-        connect();
-        return session;
-    }
 }
@@ -25,10 +25,19 @@
  */
 package org.carewebframework.messaging.jms;
 
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
 import javax.jms.Connection;
 import javax.jms.JMSException;
 
 import org.carewebframework.api.messaging.IPublisherInfo;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.Recipient;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
 import org.carewebframework.api.spring.SpringUtil;
 import org.springframework.jms.core.JmsTemplate;
 
@@ -53,6 +62,35 @@ public final class JMSUtil {
      */
     public static final String MESSAGE_SENDER_PROPERTY = "Sender";
     
+    /**
+     * Prefix for message properties carrying recipients of a given type (e.g., cwfRecipientUSER).
+     * The property value is a comma-delimited list of recipient values with leading and trailing
+     * commas. For use in message selectors.
+     */
+    public static final String RECIPIENT_PROPERTY_PREFIX = "cwfRecipient";
+    
+    /**
+     * Message property. The name of the encoding of a bytes message body.
+     */
+    public static final String ENCODING_PROPERTY = "cwfEncoding";
+    
+    /**
+     * Message property. The id of the encoded message.
+     */
+    public static final String MESSAGE_ID_PROPERTY = "cwfMessageId";
+    
+    /**
+     * Message property. The creation timestamp of the encoded message.
+     */
+    public static final String CREATED_PROPERTY = "cwfCreated";
+    
+    /**
+     * Prefix for message properties carrying scalar metadata values of the encoded message. Any
+     * character of the metadata key that is not valid in a property name is replaced by an
+     * underscore (e.g., cwf.pub.node becomes cwfMeta_cwf_pub_node).
+     */
+    public static final String METADATA_PROPERTY_PREFIX = "cwfMeta_";
+    
     private static final String JMS_TOPIC_TEMPLATE = "jmsTopicTemplate";
     
     private static final String JMS_QUEUE_TEMPLATE = "jmsQueueTemplate";
@@ -120,4 +158,166 @@ public final class JMSUtil {
         }
     }
     
+    /**
+     * Copies the header of a message to properties of the JMS message that carries it in encoded
+     * form. The JMS type is set to the message type, and properties are set for the encoding, the
+     * message id and creation timestamp, scalar metadata values and recipients. These properties
+     * allow the JMS server to inspect and select messages without decoding them. They are not used
+     * when decoding, since the encoded body is complete.
+     * 
+     * @param jmsMessage The JMS message to receive the properties.
+     * @param message The message whose header is to be added.
+     * @param encoding The name of the encoding of the message body.
+     * @throws JMSException Error setting a property.
+     */
+    public static void setHeaderProperties(javax.jms.Message jmsMessage, Message message, String encoding)
+        throws JMSException {
+        jmsMessage.setJMSType(message.getType());
+        jmsMessage.setStringProperty(ENCODING_PROPERTY, encoding);
+        jmsMessage.setStringProperty(MESSAGE_ID_PROPERTY, message.getId());
+        jmsMessage.setLongProperty(CREATED_PROPERTY, message.getCreated().getTime());
+        
+        for (String key : message.getMetadataKeys()) {
+            Object value = message.getMetadata(key);
+            
+            if (isPropertyValue(value)) {
+                jmsMessage.setObjectProperty(getMetadataProperty(key), value);
+            }
+        }
+        
+        setRecipientProperties(jmsMessage, message);
+    }
+    
+    /**
+     * Returns true if the value is of a type permitted for a message property.
+     * 
+     * @param value The value.
+     * @return True if the value may be set as a message property.
+     */
+    private static boolean isPropertyValue(Object value) {
+        return value instanceof String || value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte || value instanceof Double || value instanceof Float;
+    }
+    
+    /**
+     * Returns the name of the message property carrying the metadata value for the specified key.
+     * 
+     * @param key The metadata key.
+     * @return The property name.
+     */
+    public static String getMetadataProperty(String key) {
+        StringBuilder sb = new StringBuilder(METADATA_PROPERTY_PREFIX.length() + key.length());
+        sb.append(METADATA_PROPERTY_PREFIX);
+        
+        for (char c : key.toCharArray()) {
+            sb.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Returns the name of the message property carrying recipients of the specified type.
+     * 
+     * @param recipientType The type of recipient.
+     * @return The property name.
+     */
+    public static String getRecipientProperty(RecipientType recipientType) {
+        return RECIPIENT_PROPERTY_PREFIX + recipientType.name();
+    }
+    
+    /**
+     * Sets a message property for each recipient type constrained by a message. Recipient types
+     * with a value containing a comma are omitted, which leaves them unconstrained by selectors.
+     * 
+     * @param jmsMessage The JMS message to receive the properties.
+     * @param message The message whose recipients are to be added.
+     * @throws JMSException Error setting a property.
+     */
+    public static void setRecipientProperties(javax.jms.Message jmsMessage, Message message) throws JMSException {
+        Recipient[] recipients = (Recipient[]) message.getMetadata(Message.RECIPIENTS_METADATA);
+        
+        if (recipients == null || recipients.length == 0) {
+            return;
+        }
+        
+        Map<RecipientType, StringBuilder> values = new EnumMap<>(RecipientType.class);
+        
+        for (Recipient recipient : recipients) {
+            RecipientType recipientType = recipient.getType();
+            String value = recipient.getValue();
+            
+            if (value.contains(",")) {
+                values.put(recipientType, null);
+            } else if (!values.containsKey(recipientType)) {
+                values.put(recipientType, new StringBuilder(",").append(value).append(','));
+            } else if (values.get(recipientType) != null) {
+                values.get(recipientType).append(value).append(',');
+            }
+        }
+        
+        for (Map.Entry<RecipientType, StringBuilder> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                jmsMessage.setStringProperty(getRecipientProperty(entry.getKey()), entry.getValue().toString());
+            }
+        }
+    }
+    
+    /**
+     * Creates a message selector that admits only messages that do not constrain the specified
+     * recipient types, or that include at least one of the local recipients for each constrained
+     * type. Local recipients of other types are ignored.
+     * 
+     * @param recipients The local recipients.
+     * @param recipientTypes The recipient types to be selected.
+     * @return The message selector, or null if no recipient types were specified.
+     */
+    public static String getRecipientSelector(Collection<Recipient> recipients, RecipientType... recipientTypes) {
+        StringBuilder sb = new StringBuilder();
+        
+        for (RecipientType recipientType : recipientTypes) {
+            String property = getRecipientProperty(recipientType);
+            Set<String> values = new TreeSet<>();
+            
+            for (Recipient recipient : recipients) {
+                if (recipient.getType() == recipientType && !recipient.getValue().contains(",")) {
+                    values.add(recipient.getValue());
+                }
+            }
+            
+            sb.append(sb.length() == 0 ? "" : " AND ").append('(').append(property).append(" IS NULL");
+            
+            for (String value : values) {
+                sb.append(" OR ").append(property).append(" LIKE '%,").append(escapeLike(value))
+                        .append(",%' ESCAPE '!'");
+            }
+            
+            sb.append(')');
+        }
+        
+        return sb.length() == 0 ? null : sb.toString();
+    }
+    
+    /**
+     * Escapes a value for use within a quoted LIKE pattern using '!' as the escape character.
+     * 
+     * @param value The value to escape.
+     * @return The escaped value.
+     */
+    private static String escapeLike(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        
+        for (char c : value.toCharArray()) {
+            if (c == '!' || c == '%' || c == '_') {
+                sb.append('!');
+            } else if (c == '\'') {
+                sb.append('\'');
+            }
+            
+            sb.append(c);
+        }
+        
+        return sb.toString();
+    }
+    
 }
@@ -27,8 +27,12 @@ package org.carewebframework.messaging.jms;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
@@ -38,17 +42,53 @@ import javax.jms.TopicSubscriber;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.carewebframework.api.messaging.IMessageConsumer;
+import org.carewebframework.api.messaging.IMessageEncoder;
+import org.carewebframework.api.messaging.IRecipientAwareConsumer;
 import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.MessageCodec;
+import org.carewebframework.api.messaging.Recipient;
+import org.carewebframework.api.messaging.Recipient.RecipientType;
 import org.carewebframework.common.MiscUtil;
+import org.carewebframework.messaging.jms.JMSService.IConnectionListener;
 
 /**
- * JMS-based message consumer.
+ * JMS-based message consumer. Depending on the selector mode, subscriptions may use a selector
+ * built from the local recipients, so that messages not addressed to this node are discarded by
+ * the JMS server rather than delivered and then excluded. Subscriptions are renewed whenever the
+ * selector changes, and whenever the service resets its connection to the JMS server.
  */
-public class MessageConsumer implements IMessageConsumer {
+public class MessageConsumer implements IRecipientAwareConsumer {
     
     private static final Log log = LogFactory.getLog(MessageConsumer.class);
     
+    /**
+     * Determines which recipient types are filtered by subscription selectors.
+     */
+    public enum SelectorMode {
+        /**
+         * No selector is used. Every message on a subscribed topic is delivered.
+         */
+        NONE(),
+        /**
+         * Messages addressed to other consumer nodes are filtered. This is always safe, as such
+         * messages are discarded by the consumer service.
+         */
+        CONSUMER(RecipientType.CONSUMER),
+        /**
+         * Messages addressed to other consumer nodes, or to users, applications or sessions that
+         * are not present on this node, are filtered. This is safe only if every subscriber on
+         * this node applies recipient filtering to the messages it receives, as does the global
+         * event dispatcher. Subscriptions are renewed as sessions come and go.
+         */
+        RECIPIENT(RecipientType.CONSUMER, RecipientType.USER, RecipientType.APPLICATION, RecipientType.SESSION);
+        
+        private final RecipientType[] recipientTypes;
+        
+        SelectorMode(RecipientType... recipientTypes) {
+            this.recipientTypes = recipientTypes;
+        }
+    }
+    
     private class Subscriber implements MessageListener {
         
         private final String topic;
@@ -62,7 +102,13 @@ public class MessageConsumer implements IMessageConsumer {
             try {
                 Object payload;
                 
-                if (message instanceof ObjectMessage) {
+                if (message instanceof BytesMessage) {
+                    payload = decode((BytesMessage) message);
+                } else if (message instanceof ObjectMessage) {
+                    if (!acceptObjectMessages) {
+                        throw new Exception("Ignoring object message");
+                    }
+                    
                     payload = ((ObjectMessage) message).getObject();
                 } else if (message instanceof TextMessage) {
                     payload = ((TextMessage) message).getText();
@@ -86,10 +132,154 @@ public class MessageConsumer implements IMessageConsumer {
     
     private final JMSService service;
     
+    private final Map<String, IMessageEncoder> encoders = new ConcurrentHashMap<>();
+    
+    private final MessageCodec codec = new MessageCodec();
+    
+    private boolean acceptObjectMessages = true;
+    
     private IMessageCallback callback;
     
+    private SelectorMode selectorMode = SelectorMode.CONSUMER;
+    
+    private Set<Recipient> localRecipients = Collections.emptySet();
+    
+    private String selector;
+    
     public MessageConsumer(JMSService service) {
         this.service = service;
+        registerEncoder(codec);
+        service.addConnectionListener(new IConnectionListener() {
+            
+            @Override
+            public void onConnectionReset() {
+                assertSubscriptions();
+            }
+            
+        });
+    }
+    
+    /**
+     * Registers a decoder for bytes messages, replacing any registered under the same name.
+     * 
+     * @param encoder The message encoder.
+     */
+    public void registerEncoder(IMessageEncoder encoder) {
+        encoders.put(encoder.getName(), encoder);
+    }
+    
+    /**
+     * Registers additional decoders for bytes messages.
+     * 
+     * @param encoders The message encoders.
+     */
+    public void setEncoders(List<IMessageEncoder> encoders) {
+        for (IMessageEncoder encoder : encoders) {
+            registerEncoder(encoder);
+        }
+    }
+    
+    public boolean isAcceptObjectMessages() {
+        return acceptObjectMessages;
+    }
+    
+    /**
+     * Determines whether Java-serialized content is accepted. This covers object messages, as sent
+     * by earlier versions, and messages in the binary message format that contain serialized
+     * messages or values. Rejecting them avoids deserialization of untrusted data.
+     * 
+     * @param acceptObjectMessages If true, serialized content is accepted.
+     */
+    public void setAcceptObjectMessages(boolean acceptObjectMessages) {
+        this.acceptObjectMessages = acceptObjectMessages;
+        codec.setAllowSerialized(acceptObjectMessages);
+    }
+    
+    /**
+     * Decodes the body of a bytes message using the encoder named by its encoding property. A
+     * message without an encoding property is decoded in the binary message format if it is
+     * recognized as such, and is otherwise returned as raw bytes.
+     * 
+     * @param message The bytes message.
+     * @return The decoded message, or the raw bytes.
+     * @throws Exception Unsupported encoding or error decoding the message.
+     */
+    private Object decode(BytesMessage message) throws Exception {
+        byte[] data = new byte[(int) message.getBodyLength()];
+        message.readBytes(data);
+        String encoding = message.getStringProperty(JMSUtil.ENCODING_PROPERTY);
+        
+        if (encoding == null) {
+            return MessageCodec.isEncoded(data) ? encoders.get(MessageCodec.NAME).decode(data) : data;
+        }
+        
+        IMessageEncoder encoder = encoders.get(encoding);
+        
+        if (encoder == null) {
+            throw new Exception("Unsupported message encoding: " + encoding);
+        }
+        
+        return encoder.decode(data);
+    }
+    
+    public SelectorMode getSelectorMode() {
+        return selectorMode;
+    }
+    
+    /**
+     * Sets the selector mode. Existing subscriptions are renewed if the selector changes.
+     * 
+     * @param selectorMode The selector mode.
+     */
+    public synchronized void setSelectorMode(SelectorMode selectorMode) {
+        this.selectorMode = selectorMode;
+        updateSelector();
+    }
+    
+    /**
+     * Returns the selector used for subscriptions.
+     * 
+     * @return The selector (may be null).
+     */
+    public String getSelector() {
+        return selector;
+    }
+    
+    @Override
+    public synchronized void setLocalRecipients(Set<Recipient> recipients) {
+        this.localRecipients = recipients;
+        updateSelector();
+    }
+    
+    /**
+     * Compiles the selector from the local recipients and, if it has changed, renews existing
+     * subscriptions. Each new subscriber is created before the one it replaces is closed, so no
+     * messages are lost. Any duplicate deliveries are discarded by the consumer service.
+     */
+    private void updateSelector() {
+        String newSelector = JMSUtil.getRecipientSelector(localRecipients, selectorMode.recipientTypes);
+        
+        if (newSelector == null ? selector == null : newSelector.equals(selector)) {
+            return;
+        }
+        
+        selector = newSelector;
+        
+        for (String channel : subscribers.keySet().toArray(new String[0])) {
+            TopicSubscriber oldSubscriber = subscribers.remove(channel);
+            
+            try {
+                subscribe(channel);
+            } catch (RuntimeException e) {
+                log.error(String.format("Error renewing subscription to Topic[%s]", channel), e);
+                subscribers.put(channel, oldSubscriber);
+                continue;
+            }
+            
+            if (oldSubscriber != null) {
+                closeSubscriber(oldSubscriber);
+            }
+        }
     }
     
     @Override
@@ -98,7 +288,7 @@ public class MessageConsumer implements IMessageConsumer {
     }
     
     @Override
-    public boolean subscribe(String channel) {
+    public synchronized boolean subscribe(String channel) {
         if (subscribers.get(channel) != null) {
             if (log.isDebugEnabled()) {
                 log.debug(String.format("Already subscribed to Topic[%s]", channel));
@@ -109,7 +299,6 @@ public class MessageConsumer implements IMessageConsumer {
         if (log.isDebugEnabled()) {
             log.debug(String.format("Subscribing to Topic[%s]", channel));
         }
-        String selector = null; //JMSUtil.getMessageSelector(channel, getPublisherInfo());
         
         // This doesn't actually create a physical topic.  In ActiveMQ, a topic is created on-demand when someone with the
         // authority to create topics submits something to a topic.  By default, everyone has the authority to create topics.  See
@@ -120,6 +309,7 @@ public class MessageConsumer implements IMessageConsumer {
         try {
             subscriber.setMessageListener(new Subscriber(channel));
         } catch (JMSException e) {
+            service.closeSubscriber(subscriber);
             throw MiscUtil.toUnchecked(e);
         }
         
@@ -128,7 +318,7 @@ public class MessageConsumer implements IMessageConsumer {
     }
     
     @Override
-    public boolean unsubscribe(String channel) {
+    public synchronized boolean unsubscribe(String channel) {
         TopicSubscriber subscriber = this.subscribers.remove(channel);
         
         if (subscriber == null) {
@@ -136,25 +326,34 @@ public class MessageConsumer implements IMessageConsumer {
         }
         
         log.debug(String.format("Unsubscribing Subscriber[%s] for Topic [%s].", subscriber, channel));
+        closeSubscriber(subscriber);
+        return true;
+    }
         
+    private void closeSubscriber(TopicSubscriber subscriber) {
         try {
             subscriber.setMessageListener(null);
-            subscriber.close();
         } catch (JMSException e) {}
         
-        return true;
+        service.closeSubscriber(subscriber);
     }
     
     /**
-     * Reassert subscriptions.
+     * Reassert subscriptions, replacing each subscriber with a new one.
      */
-    public void assertSubscriptions() {
-        for (String channel : subscribers.keySet()) {
+    public synchronized void assertSubscriptions() {
+        for (String channel : subscribers.keySet().toArray(new String[0])) {
+            TopicSubscriber oldSubscriber = subscribers.remove(channel);
+            
+            if (oldSubscriber != null) {
+                closeSubscriber(oldSubscriber);
+            }
+            
             try {
-                subscribers.put(channel, null);
                 subscribe(channel);
-            } catch (Throwable e) {
-                break;
+            } catch (RuntimeException e) {
+                log.error(String.format("Error reasserting subscription to Topic[%s]", channel), e);
+                subscribers.put(channel, null);
             }
         }
     }
@@ -162,10 +361,10 @@ public class MessageConsumer implements IMessageConsumer {
     /**
      * Remove all remote subscriptions.
      */
-    public void removeSubscriptions() {
+    public synchronized void removeSubscriptions() {
         for (TopicSubscriber subscriber : subscribers.values()) {
             try {
-                subscriber.close();
+                service.closeSubscriber(subscriber);
             } catch (Throwable e) {
                 log.debug("Error closing subscriber", e);//is level appropriate - previously hidden exception -afranken
             }
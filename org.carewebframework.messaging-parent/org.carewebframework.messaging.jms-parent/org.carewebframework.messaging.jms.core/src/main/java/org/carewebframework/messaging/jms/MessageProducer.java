@@ -25,20 +25,55 @@
  */
 package org.carewebframework.messaging.jms;
 
+import javax.jms.JMSException;
+
+import org.carewebframework.api.messaging.IMessageEncoder;
 import org.carewebframework.api.messaging.IMessageProducer;
 import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.MessageCodec;
+import org.carewebframework.common.MiscUtil;
 
+/**
+ * JMS-based message producer. Messages are sent as bytes messages encoded by a pluggable encoder,
+ * by default in the binary message format. The message header (type, id, creation time, scalar
+ * metadata and recipients) and the name of the encoding are also set as message properties, so
+ * that consumers may select the matching decoder and filter messages using selectors.
+ */
 public class MessageProducer implements IMessageProducer {
     
     private final JMSService service;
     
+    private IMessageEncoder encoder = new MessageCodec();
+    
     public MessageProducer(JMSService service) {
         this.service = service;
     }
     
+    public IMessageEncoder getEncoder() {
+        return encoder;
+    }
+    
+    /**
+     * Sets the encoder for outgoing messages. Consumers must have a decoder registered under the
+     * same name.
+     * 
+     * @param encoder The message encoder.
+     */
+    public void setEncoder(IMessageEncoder encoder) {
+        this.encoder = encoder;
+    }
+    
     @Override
     public boolean publish(String channel, Message message) {
-        javax.jms.Message msg = service.createObjectMessage(message, null, null);
+        IMessageEncoder encoder = this.encoder;
+        javax.jms.Message msg = service.createBytesMessage(encoder.encode(message), null, null);
+        
+        try {
+            JMSUtil.setHeaderProperties(msg, message, encoder.getName());
+        } catch (JMSException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+        
         service.sendMessage(channel, msg);
         return true;
     }
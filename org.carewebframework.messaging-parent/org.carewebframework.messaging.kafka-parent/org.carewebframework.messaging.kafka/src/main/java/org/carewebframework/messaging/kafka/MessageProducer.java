@@ -42,7 +42,7 @@ public class MessageProducer implements IMessageProducer {
     public boolean publish(String channel, Message message) {
         ProducerRecord<Object, Object> producerRecord = new ProducerRecord<>(channel, message);
         producer.send(producerRecord);
-        return false;
+        return true;
     }
     
 }
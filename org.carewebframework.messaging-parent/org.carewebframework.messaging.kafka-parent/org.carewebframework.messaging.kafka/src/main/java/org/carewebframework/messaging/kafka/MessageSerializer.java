@@ -0,0 +1,54 @@
+/*
+ * #%L
+ * carewebframework
+ * %%
+ * Copyright (C) 2008 - 2016 Regenstrief Institute, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This Source Code Form is also subject to the terms of the Health-Related
+ * Additional Disclaimer of Warranty and Limitation of Liability available at
+ *
+ *      http://www.carewebframework.org/licensing/disclaimer.
+ *
+ * #L%
+ */
+package org.carewebframework.messaging.kafka;
+
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Serializer;
+import org.carewebframework.api.messaging.Message;
+import org.carewebframework.api.messaging.MessageCodec;
+
+/**
+ * Kafka serializer for messages in the binary message format.
+ */
+public class MessageSerializer implements Serializer<Message> {
+    
+    private final MessageCodec codec = new MessageCodec();
+    
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+    }
+    
+    @Override
+    public byte[] serialize(String topic, Message message) {
+        return message == null ? null : codec.encode(message);
+    }
+    
+    @Override
+    public void close() {
+    }
+    
+}
@@ -35,6 +35,7 @@ import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.carewebframework.api.domain.IUser;
+import org.carewebframework.api.event.EventPriority;
 import org.carewebframework.api.event.IGenericEvent;
 import org.carewebframework.api.security.ISecurityService;
 import org.carewebframework.common.DateUtil;
@@ -231,7 +232,7 @@ public class DesktopMonitor extends FrameworkController {
         session = (SessionCtrl) desktop.getSession();
         noAutoLock = ZKUtil.getAttributeBoolean(root, ATTR_NO_AUTO_LOCK);
         timeoutWindow = (HtmlBasedComponent) root;
-        getEventManager().subscribe(DesktopControl.EVENT_ROOT, applicationControlListener);
+        getEventManager().subscribe(DesktopControl.EVENT_ROOT, applicationControlListener, EventPriority.CRITICAL);
         IUser user = securityService.getAuthenticatedUser();
         lblLocked.setValue(user == null ? null
                 : Mode.BASELINE.getLabel(TIMEOUT_EXPIRATION, user.getFullName() + "@" + user.getSecurityDomain().getName()));
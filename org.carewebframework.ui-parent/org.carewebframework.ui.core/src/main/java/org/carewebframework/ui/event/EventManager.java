@@ -25,6 +25,12 @@
  */
 package org.carewebframework.ui.event;
 
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+
+import org.carewebframework.api.event.EventPriority;
 import org.carewebframework.ui.zk.ZKUtil;
 import org.zkoss.zk.au.AuRequest;
 import org.zkoss.zk.au.AuService;
@@ -35,36 +41,124 @@ import org.zkoss.zk.ui.event.EventListener;
 
 /**
  * Subclasses framework's event manager to ensure that events are delivered in desktop's event
- * thread and to support delivering events sent from the client.
+ * thread and to support delivering events sent from the client. Events arriving from other threads
+ * are queued in a separate lane per priority and delivered highest priority first, so that
+ * security, shutdown and context change events are not held up behind bulk notifications.
  */
 public class EventManager extends org.carewebframework.api.event.EventManager implements AuService {
     
     private static final String GENERIC_EVENT = "onGenericEvent";
     
+    private static final String DRAIN_EVENT = "onDrainEvents";
+    
+    /**
+     * Maximum number of queued events delivered by a single drain before yielding the desktop's
+     * event thread.
+     */
+    private static final int DRAIN_BATCH = 64;
+    
     private Desktop desktop;
     
+    private final Map<EventPriority, Queue<Event>> lanes = new EnumMap<>(EventPriority.class);
+    
+    private boolean drainScheduled;
+    
     private final EventListener<Event> eventListener = new EventListener<Event>() {
         
         @Override
         public void onEvent(Event event) throws Exception {
-            EventManager.super.fireLocalEvent(event.getName(), event.getData());
+            drainEvents();
         }
         
     };
     
+    public EventManager() {
+        for (EventPriority priority : EventPriority.values()) {
+            lanes.put(priority, new ArrayDeque<Event>());
+        }
+    }
+    
     /**
-     * Fires the event to local subscribers. Ensures that event delivery takes place in the
-     * desktop's event thread.
+     * Delivers the event to local subscribers. Ensures that event delivery takes place in the
+     * desktop's event thread. If called from another thread, the event is queued according to its
+     * priority and a drain of the queued events is scheduled on the desktop.
      * 
-     * @see org.carewebframework.api.event.EventManager#fireLocalEvent(java.lang.String,
-     *      java.lang.Object)
+     * @see org.carewebframework.api.event.EventManager#dispatchLocalEvent(java.lang.String,
+     *      java.lang.Object, org.carewebframework.api.event.EventPriority)
      */
     @Override
-    public void fireLocalEvent(String eventName, Object eventData) {
+    protected void dispatchLocalEvent(String eventName, Object eventData, EventPriority priority) {
         if (ZKUtil.inEventThread(desktop)) {
-            super.fireLocalEvent(eventName, eventData);
-        } else {
-            Executions.schedule(desktop, eventListener, new Event(eventName, null, eventData));
+            super.dispatchLocalEvent(eventName, eventData, priority);
+            return;
+        }
+        
+        Queue<Event> lane = lanes.get(getPriority(eventName, priority));
+        boolean schedule;
+        
+        synchronized (lanes) {
+            lane.add(new Event(eventName, null, eventData));
+            schedule = !drainScheduled;
+            drainScheduled = true;
+        }
+        
+        if (schedule) {
+            scheduleDrain();
+        }
+    }
+    
+    /**
+     * Schedules delivery of queued events in the desktop's event thread.
+     */
+    private void scheduleDrain() {
+        try {
+            Executions.schedule(desktop, eventListener, new Event(DRAIN_EVENT));
+        } catch (RuntimeException e) {
+            synchronized (lanes) {
+                drainScheduled = false;
+            }
+            
+            throw e;
+        }
+    }
+    
+    /**
+     * Delivers queued events, highest priority first. A higher priority event queued during the
+     * drain is delivered ahead of any remaining lower priority events. If the batch limit is
+     * reached, another drain is scheduled for the remainder.
+     */
+    private void drainEvents() {
+        for (int i = 0; i < DRAIN_BATCH; i++) {
+            Event event = nextEvent();
+            
+            if (event == null) {
+                return;
+            }
+            
+            super.dispatchLocalEvent(event.getName(), event.getData(), null);
+        }
+        
+        scheduleDrain();
+    }
+    
+    /**
+     * Removes and returns the next queued event in priority order. If no events remain, the drain
+     * is marked as complete.
+     * 
+     * @return The next queued event, or null if none.
+     */
+    private Event nextEvent() {
+        synchronized (lanes) {
+            for (Queue<Event> lane : lanes.values()) {
+                Event event = lane.poll();
+                
+                if (event != null) {
+                    return event;
+                }
+            }
+            
+            drainScheduled = false;
+            return null;
         }
     }
     